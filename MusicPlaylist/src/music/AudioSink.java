@@ -0,0 +1,40 @@
+package music;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * This interface is the output end of a {@link PlaybackPipeline}: it receives the bytes of the
+ * songs being played, in the format of the song they belong to.
+ *
+ * <p>A sink is opened once per format rather than once per song, so consecutive songs sharing a
+ * format are written one after the other with no gap between them. {@link LineAudioSink} sends the
+ * bytes to the sound card, and {@link NullAudioSink} discards them, which lets playback run on a
+ * machine with no sound device.
+ */
+public interface AudioSink {
+  /**
+   * Prepares the sink for bytes of a given format. It is called before the first write and
+   * whenever the format of the songs changes; a sink that is already open in an equal format may
+   * keep going as it is.
+   *
+   * @param format the format of the bytes that will be written
+   * @throws LineUnavailableException if no output for the format is available
+   */
+  void open(AudioFormat format) throws LineUnavailableException;
+
+  /**
+   * Writes bytes in the format the sink was last opened in, blocking until they are accepted.
+   *
+   * @param bytes the array holding the bytes
+   * @param offset the index of the first byte to write
+   * @param length the number of bytes to write, a whole number of frames
+   */
+  void write(byte[] bytes, int offset, int length);
+
+  /** Blocks until every byte written so far has been played. */
+  void drain();
+
+  /** Plays what is left and releases the sink; it can be opened again afterwards. */
+  void close();
+}
@@ -0,0 +1,232 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class measures the throughput of {@link ConcurrentPlaylistLibrary} against a
+ * PlaylistLibrary behind a single global lock.
+ *
+ * <p>The benchmark runs the same mixed workload of reads and edits over both libraries with 1, 2,
+ * 4 and 8 threads, and prints the operations per second of each. Both libraries are warmed up
+ * first, so that neither is measured while the JIT compiler is still at work, and every figure is
+ * the median of several runs taken in turns, so that a pause of the machine hits both libraries
+ * alike.
+ *
+ * <p>Striping can only pay off while the threads run in parallel, so the figures for more threads
+ * than the machine has processors show lock overhead rather than contention. On a single processor
+ * both libraries do the same work one thread at a time and the two columns differ by noise alone;
+ * the number of processors is printed with the results for that reason.
+ *
+ * <p>ConcurrentPlaylistLibraryTest checks the library under concurrent edits.
+ *
+ * <p>Usage: {@code java music.ConcurrentLibraryBenchmark [seconds per run]}
+ */
+public class ConcurrentLibraryBenchmark {
+  private static final int PLAYLISTS = 16; // playlists shared by all threads
+  private static final int INITIAL_SIZE = 2000; // songs per playlist before a run
+  private static final int READ_PERCENT = 80; // share of the benchmark operations that are reads
+  private static final int ROUNDS = 3; // runs per library and thread count, the median is printed
+
+  private ConcurrentLibraryBenchmark() {
+    // can not instantiate
+  }
+
+  /*
+   * The operations the benchmark calls, over either library
+   */
+  private interface Library {
+    boolean insertSong(int playlistIndex, int position, Song song);
+
+    boolean removeSong(int playlistIndex, Song song);
+
+    Song getSong(int playlistIndex, int position);
+
+    int getSize(int playlistIndex);
+
+    List<Song> getSongs(int playlistIndex);
+  }
+
+  /*
+   * A ConcurrentPlaylistLibrary, called directly
+   */
+  private static Library striped() {
+    ConcurrentPlaylistLibrary library = new ConcurrentPlaylistLibrary();
+    for (int i = 0; i < PLAYLISTS; i++) {
+      library.addPlaylist(new Playlist(), i);
+    }
+    return new Library() {
+      @Override
+      public boolean insertSong(int playlistIndex, int position, Song song) {
+        return library.insertSong(playlistIndex, position, song);
+      }
+
+      @Override
+      public boolean removeSong(int playlistIndex, Song song) {
+        return library.removeSong(playlistIndex, song);
+      }
+
+      @Override
+      public Song getSong(int playlistIndex, int position) {
+        return library.getSong(playlistIndex, position);
+      }
+
+      @Override
+      public int getSize(int playlistIndex) {
+        return library.getSize(playlistIndex);
+      }
+
+      @Override
+      public List<Song> getSongs(int playlistIndex) {
+        return library.getSongs(playlistIndex);
+      }
+    };
+  }
+
+  /*
+   * A PlaylistLibrary with every call made while holding one lock, the way callers serialize it
+   * today
+   */
+  private static Library globalLock() {
+    ArrayList<Playlist> playlists = new ArrayList<>();
+    for (int i = 0; i < PLAYLISTS; i++) {
+      playlists.add(new Playlist());
+    }
+    PlaylistLibrary library = new PlaylistLibrary(playlists);
+    return new Library() {
+      @Override
+      public synchronized boolean insertSong(int playlistIndex, int position, Song song) {
+        return library.insertSong(playlistIndex, position, song);
+      }
+
+      @Override
+      public synchronized boolean removeSong(int playlistIndex, Song song) {
+        return library.removeSong(playlistIndex, song);
+      }
+
+      @Override
+      public synchronized Song getSong(int playlistIndex, int position) {
+        return library.getSong(playlistIndex, position);
+      }
+
+      @Override
+      public synchronized int getSize(int playlistIndex) {
+        return library.getPlaylists().get(playlistIndex).getSize();
+      }
+
+      @Override
+      public synchronized List<Song> getSongs(int playlistIndex) {
+        Playlist playlist = library.getPlaylists().get(playlistIndex);
+        List<Song> songs = new ArrayList<>(playlist.getSize());
+        SongNode ptr = playlist.tail();
+        for (int i = 0; i < playlist.getSize(); i++) {
+          ptr = playlist.next(ptr);
+          songs.add(ptr.getSong());
+        }
+        return songs;
+      }
+    };
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the number of seconds each benchmark run lasts, 2 by default
+   */
+  public static void main(String[] args) throws InterruptedException {
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+    for (int threads = 1; threads <= 8; threads *= 2) {
+      throughput(globalLock(), threads, seconds / 2);
+      throughput(striped(), threads, seconds / 2);
+    }
+    StdOut.printf(
+        "%nMixed workload, %d%% reads, %d playlists, %d processors, median of %d runs%n",
+        READ_PERCENT, PLAYLISTS, Runtime.getRuntime().availableProcessors(), ROUNDS);
+    StdOut.printf("%8s %16s %16s%n", "threads", "global lock", "striped");
+    for (int threads = 1; threads <= 8; threads *= 2) {
+      double[] global = new double[ROUNDS];
+      double[] striped = new double[ROUNDS];
+      for (int round = 0; round < ROUNDS; round++) {
+        global[round] = throughput(globalLock(), threads, seconds);
+        striped[round] = throughput(striped(), threads, seconds);
+      }
+      StdOut.printf("%8d %12.0f op/s %12.0f op/s%n", threads, median(global), median(striped));
+    }
+  }
+
+  private static double median(double[] values) {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  /**
+   * Measures how many operations per second a number of threads get through on a library.
+   *
+   * @param library the library to run against
+   * @param threads the number of threads
+   * @param seconds how long to run
+   * @return the operations per second, summed over the threads
+   */
+  private static double throughput(Library library, int threads, double seconds)
+      throws InterruptedException {
+    for (int p = 0; p < PLAYLISTS; p++) {
+      for (int i = 0; i < INITIAL_SIZE; i++) {
+        library.insertSong(p, i + 1, new Song("song " + i, "artist " + p, 2000, i % 100));
+      }
+    }
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicLong operations = new AtomicLong();
+    AtomicInteger failures = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] =
+          new Thread(
+              () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                try {
+                  start.await();
+                  while (!done.get()) {
+                    int p = random.nextInt(PLAYLISTS);
+                    int kind = random.nextInt(100);
+                    if (kind < READ_PERCENT / 2) {
+                      library.getSong(p, 1 + random.nextInt(INITIAL_SIZE / 2));
+                    } else if (kind < READ_PERCENT) {
+                      library.getSongs(p);
+                    } else {
+                      // keeps the sizes steady: insert a song, then take it back out
+                      Song song = new Song("extra", "artist " + p, 2001, kind);
+                      library.insertSong(p, 1 + random.nextInt(INITIAL_SIZE), song);
+                      library.removeSong(p, song);
+                    }
+                    count++;
+                  }
+                } catch (InterruptedException | RuntimeException e) {
+                  failures.incrementAndGet();
+                }
+                operations.addAndGet(count);
+              });
+      workers[t].start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    Thread.sleep((long) (seconds * 1000));
+    done.set(true);
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    double elapsed = (System.nanoTime() - begin) / 1e9;
+    if (failures.get() > 0) {
+      throw new IllegalStateException(failures.get() + " benchmark threads failed");
+    }
+    return operations.get() / elapsed;
+  }
+}
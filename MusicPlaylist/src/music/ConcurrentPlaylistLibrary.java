@@ -0,0 +1,489 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/**
+ * This class represents a library of song playlists that many threads can use at once.
+ *
+ * <p>Every playlist has its own StampedLock, so operations on different playlists never wait for
+ * each other. Edits take the write lock of their playlist. Whole-playlist reads such as {@link
+ * #getSongs(int)}, {@link #printPlaylist(int)} and playback first copy the songs under an
+ * optimistic read, which takes no lock at all and is retried under the read lock only if a writer
+ * got in the way. The list of playlists is a CopyOnWriteArrayList: looking a playlist up is a
+ * plain array read, and adding or removing one copies the list of references, which is rare next
+ * to song edits.
+ *
+ * <p>Playlists are named by their index, as in PlaylistLibrary. When another thread adds or removes
+ * playlists at the same time, the index given to a method refers to the list as it was when the
+ * method looked the playlist up.
+ *
+ * <p>Songs are interned in one {@link SongPool} shared by all threads, and the playlists are
+ * ordinary {@link Playlist} objects, so the positional index and song index of each playlist keep
+ * working under its lock.
+ */
+public class ConcurrentPlaylistLibrary {
+  private final CopyOnWriteArrayList<Slot> songLibrary = new CopyOnWriteArrayList<>();
+  private final Object structure = new Object(); // held while playlists are added or removed
+  private final SongPool songPool = new SongPool(); // one shared copy of every distinct song
+  private final PlaylistLoader loader = // reads playlist csv files into songPool
+      new PlaylistLoader(ForkJoinPool.commonPool(), songPool);
+  private final AtomicLong slotIds = new AtomicLong(); // gives locks a global order
+  private volatile AudioSink audioSink; // where playPlaylist() plays songs, created on first use
+
+  /*
+   * A playlist and the lock guarding it
+   */
+  private final class Slot {
+    final Playlist playlist;
+    final StampedLock lock = new StampedLock();
+    final long id = slotIds.getAndIncrement(); // locks are taken in increasing id order
+    boolean removed; // set under the write lock once the playlist has left the library
+
+    Slot(Playlist playlist) {
+      this.playlist = playlist;
+    }
+  }
+
+  /**
+   * Adds a playlist read from a csv file at a given index, or at the end if the index is past the
+   * last playlist. The file is read before any lock is taken.
+   *
+   * @param filename the playlist information input file
+   * @param playlistIndex the index of the location where the playlist will be added
+   */
+  public void addPlaylist(String filename, int playlistIndex) {
+    addPlaylist(loader.load(filename), playlistIndex);
+  }
+
+  /**
+   * Adds a playlist at a given index, or at the end if the index is past the last playlist. The
+   * library takes ownership of the playlist, which must not be used directly afterwards.
+   *
+   * @param playlist the playlist to add
+   * @param playlistIndex the index of the location where the playlist will be added
+   */
+  public void addPlaylist(Playlist playlist, int playlistIndex) {
+    Slot slot = new Slot(playlist);
+    synchronized (structure) {
+      if (playlistIndex >= songLibrary.size()) {
+        songLibrary.add(slot);
+      } else {
+        songLibrary.add(playlistIndex, slot);
+      }
+    }
+  }
+
+  /**
+   * Adds the playlists of many csv files at the end of the library, in filename order. The files
+   * are parsed concurrently.
+   *
+   * @param filenames the filenames of the playlists to add
+   */
+  public void addAllPlaylists(String[] filenames) {
+    ArrayList<Slot> slots = new ArrayList<>();
+    for (Playlist playlist : loader.loadAll(filenames)) {
+      slots.add(new Slot(playlist));
+    }
+    synchronized (structure) {
+      songLibrary.addAll(slots);
+    }
+  }
+
+  /**
+   * Removes the playlist at a given index. An edit that had already looked the playlist up either
+   * finishes before the removal or fails as if the playlist were gone.
+   *
+   * @param playlistIndex the index of the playlist to remove
+   * @return true if the playlist has been removed
+   */
+  public boolean removePlaylist(int playlistIndex) {
+    Slot slot;
+    synchronized (structure) {
+      if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+        return false;
+      }
+      slot = songLibrary.remove(playlistIndex);
+    }
+    // writers that looked the playlist up before it was removed see the flag and back off
+    long stamp = slot.lock.writeLock();
+    slot.removed = true;
+    slot.lock.unlockWrite(stamp);
+    return true;
+  }
+
+  /**
+   * Returns the number of playlists in the library.
+   *
+   * @return the number of playlists
+   */
+  public int size() {
+    return songLibrary.size();
+  }
+
+  /**
+   * Adds a song to a playlist at a given position, like PlaylistLibrary.insertSong().
+   *
+   * @param playlistIndex the index of the playlist
+   * @param position the position in the playlist to which the song is to be added
+   * @param song the song to add
+   * @return true if the song can be added and therefore has been added, false otherwise
+   */
+  public boolean insertSong(int playlistIndex, int position, Song song) {
+    Slot slot = songLibrary.get(playlistIndex);
+    Song interned = songPool.intern(song);
+    long stamp = slot.lock.writeLock();
+    try {
+      if (slot.removed || position <= 0 || position > slot.playlist.getSize() + 1) {
+        return false;
+      }
+      slot.playlist.insert(position, interned);
+      return true;
+    } finally {
+      slot.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes the first occurrence of a song from a playlist, like PlaylistLibrary.removeSong().
+   *
+   * @param playlistIndex the index of the playlist
+   * @param song the song to remove
+   * @return true if the song was found and removed, false otherwise
+   */
+  public boolean removeSong(int playlistIndex, Song song) {
+    Slot slot = songLibrary.get(playlistIndex);
+    long stamp = slot.lock.writeLock();
+    try {
+      return !slot.removed && slot.playlist.remove(song) != null;
+    } finally {
+      slot.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Applies a batch of inserts and removals to a playlist under one write lock, like
+   * PlaylistLibrary.applyEdits(). The songs are interned before the lock is taken.
+   *
+   * @param playlistIndex the index of the playlist
+   * @param batch the edits to apply, which no other thread may change meanwhile
+   * @return true if the batch has been applied, false if an insert position is out of range or the
+   *     playlist has been removed, in which case nothing has changed
+   */
+  public boolean applyEdits(int playlistIndex, PlaylistBatch batch) {
+    Slot slot = songLibrary.get(playlistIndex);
+    Song[] inserts = batch.inserts();
+    for (int i = 0; i < inserts.length; i++) {
+      inserts[i] = songPool.intern(inserts[i]);
+    }
+    long stamp = slot.lock.writeLock();
+    try {
+      if (slot.removed || !batch.fits(slot.playlist.getSize())) {
+        return false;
+      }
+      slot.playlist.apply(batch.positions(), inserts, batch.removals());
+      return true;
+    } finally {
+      slot.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Returns the song at a given position of a playlist. The playlist's positional index is read
+   * under the read lock; if the index has to be built first, the lock is upgraded to a write lock.
+   *
+   * @param playlistIndex the index of the playlist
+   * @param position the position of the song within the playlist
+   * @return the song at that position, or null if the position is out of range
+   */
+  public Song getSong(int playlistIndex, int position) {
+    return readAt(playlistIndex, position, playlist -> playlist.nodeAt(position).getSong());
+  }
+
+  /**
+   * Returns the songs of a playlist from a given position on, like PlaylistLibrary.getSongs(), in
+   * O(log n + count) time under the read lock.
+   *
+   * @param playlistIndex the index of the playlist
+   * @param position the position of the first song, the first node being at position 1
+   * @param count the most songs to return
+   * @return the songs, fewer than count if the playlist ends first, and none if the position is
+   *     out of range
+   */
+  public List<Song> getSongs(int playlistIndex, int position, int count) {
+    List<Song> songs =
+        readAt(playlistIndex, position, playlist -> playlist.songsFrom(position, count));
+    return songs == null ? new ArrayList<>() : songs;
+  }
+
+  // reads a playlist through its positional index under the read lock, upgrading to the write lock
+  // if the index has to be built first; returns null if the position is out of range
+  private <T> T readAt(int playlistIndex, int position, Function<Playlist, T> read) {
+    Slot slot = songLibrary.get(playlistIndex);
+    long stamp = slot.lock.readLock();
+    try {
+      if (position <= 0 || position > slot.playlist.getSize()) {
+        return null;
+      }
+      if (!slot.playlist.isIndexed()) {
+        long writeStamp = slot.lock.tryConvertToWriteLock(stamp);
+        if (writeStamp == 0) {
+          slot.lock.unlockRead(stamp);
+          stamp = slot.lock.writeLock();
+          if (position > slot.playlist.getSize()) {
+            return null; // the playlist shrank while the lock was released
+          }
+        } else {
+          stamp = writeStamp;
+        }
+      }
+      return read.apply(slot.playlist);
+    } finally {
+      slot.lock.unlock(stamp);
+    }
+  }
+
+  /**
+   * Returns the number of songs in a playlist.
+   *
+   * @param playlistIndex the index of the playlist
+   * @return the size of the playlist
+   */
+  public int getSize(int playlistIndex) {
+    Slot slot = songLibrary.get(playlistIndex);
+    long stamp = slot.lock.tryOptimisticRead();
+    int size = slot.playlist.getSize();
+    if (!slot.lock.validate(stamp)) {
+      stamp = slot.lock.readLock();
+      try {
+        size = slot.playlist.getSize();
+      } finally {
+        slot.lock.unlockRead(stamp);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns a copy of the songs of a playlist, in order. Later edits do not change the copy.
+   *
+   * @param playlistIndex the index of the playlist
+   * @return the songs of the playlist
+   */
+  public List<Song> getSongs(int playlistIndex) {
+    return Arrays.asList(snapshot(songLibrary.get(playlistIndex)));
+  }
+
+  /** Reverses a playlist, like PlaylistLibrary.reversePlaylist(). */
+  public void reversePlaylist(int playlistIndex) {
+    Slot slot = songLibrary.get(playlistIndex);
+    long stamp = slot.lock.writeLock();
+    try {
+      if (!slot.removed) {
+        PlaylistLibrary.reverse(slot.playlist);
+      }
+    } finally {
+      slot.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Shuffles a playlist with the given seed, like PlaylistLibrary.shufflePlaylist(int, long).
+   *
+   * @param playlistIndex the index of the playlist
+   * @param seed the seed of the random number generator
+   */
+  public void shufflePlaylist(int playlistIndex, long seed) {
+    Slot slot = songLibrary.get(playlistIndex);
+    long stamp = slot.lock.writeLock();
+    try {
+      if (!slot.removed) {
+        PlaylistLibrary.shuffle(slot.playlist, new Random(seed));
+      }
+    } finally {
+      slot.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Sorts a playlist with a stable merge sort, like PlaylistLibrary.sortPlaylist(int,
+   * Comparator).
+   *
+   * @param playlistIndex the index of the playlist
+   * @param comparator the order to sort the songs in
+   */
+  public void sortPlaylist(int playlistIndex, Comparator<? super Song> comparator) {
+    Slot slot = songLibrary.get(playlistIndex);
+    long stamp = slot.lock.writeLock();
+    try {
+      if (!slot.removed) {
+        PlaylistSorter.sort(slot.playlist, comparator, false);
+      }
+    } finally {
+      slot.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Merges two playlists in decreasing popularity order, like PlaylistLibrary.mergePlaylists():
+   * the result is stored at the lower index and the playlist at the higher index is removed. Both
+   * playlists are write locked for the merge, and no playlist is added or removed meanwhile.
+   *
+   * @param playlistIndex1 the index of the first playlist
+   * @param playlistIndex2 the index of the second playlist
+   */
+  public void mergePlaylists(int playlistIndex1, int playlistIndex2) {
+    if (playlistIndex1 == playlistIndex2) {
+      return;
+    }
+    // holding the structure lock keeps both playlists in the library while they are merged;
+    // nothing takes it while holding a playlist lock, so this can not deadlock
+    synchronized (structure) {
+      Slot kept = songLibrary.get(Math.min(playlistIndex1, playlistIndex2));
+      Slot removed = songLibrary.get(Math.max(playlistIndex1, playlistIndex2));
+      Slot first = kept.id < removed.id ? kept : removed;
+      Slot second = first == kept ? removed : kept;
+      long firstStamp = first.lock.writeLock();
+      long secondStamp = second.lock.writeLock();
+      try {
+        PlaylistLibrary.mergeInto(new Playlist[] {kept.playlist, removed.playlist});
+        removed.removed = true;
+        songLibrary.remove(removed);
+      } finally {
+        second.lock.unlockWrite(secondStamp);
+        first.lock.unlockWrite(firstStamp);
+      }
+    }
+  }
+
+  /**
+   * Prints a playlist in the same format as PlaylistLibrary.printPlaylist(). The songs are copied
+   * first, and the printing happens without holding any lock.
+   *
+   * @param playlistIndex the playlist to print
+   */
+  public void printPlaylist(int playlistIndex) {
+    Song[] songs = snapshot(songLibrary.get(playlistIndex));
+    StringBuilder out = new StringBuilder();
+    out.append(
+        String.format("%nPlaylist at index %d (%d song(s)):%n", playlistIndex, songs.length));
+    if (songs.length == 0) {
+      out.append("EMPTY");
+    }
+    for (int i = 0; i < songs.length; i++) {
+      out.append(songs[i]).append(i < songs.length - 1 ? " -> " : " - POINTS TO FRONT");
+    }
+    StdOut.println(out);
+  }
+
+  /**
+   * Plays a playlist from its first song, repeats times over, like
+   * PlaylistLibrary.playPlaylist(). The songs are copied when playback starts, so the playlist
+   * stays free to edit while it plays.
+   *
+   * @param playlistIndex the playlist to play
+   * @param repeats number of times to repeat the playlist
+   */
+  public void playPlaylist(int playlistIndex, int repeats) {
+    Song[] songs = snapshot(songLibrary.get(playlistIndex));
+    if (songs.length == 0) {
+      StdOut.println("Nothing to play.");
+      return;
+    }
+    long total = (long) Math.max(repeats, 1) * songs.length;
+    Iterator<Song> iterator =
+        new Iterator<Song>() {
+          private long played;
+
+          @Override
+          public boolean hasNext() {
+            return played < total;
+          }
+
+          @Override
+          public Song next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return songs[(int) (played++ % songs.length)];
+          }
+        };
+    new PlaybackPipeline(getAudioSink()).play(iterator, new PlaybackPipeline.Listener() {});
+  }
+
+  /**
+   * Returns the sink playPlaylist() sends audio to, a {@link LineAudioSink} unless another one has
+   * been set.
+   *
+   * @return the audio sink of the library
+   */
+  public synchronized AudioSink getAudioSink() {
+    if (audioSink == null) {
+      audioSink = new LineAudioSink();
+    }
+    return audioSink;
+  }
+
+  /**
+   * Sets the sink playPlaylist() sends audio to.
+   *
+   * @param audioSink the audio sink to use
+   */
+  public synchronized void setAudioSink(AudioSink audioSink) {
+    this.audioSink = audioSink;
+  }
+
+  /**
+   * Returns the pool holding the canonical copy of every song the library has loaded or inserted
+   * and still holds.
+   *
+   * @return the library's song pool
+   */
+  public SongPool getSongPool() {
+    return songPool;
+  }
+
+  // copies the songs of a playlist, optimistically first and under the read lock if a writer
+  // interfered
+  private static Song[] snapshot(Slot slot) {
+    long stamp = slot.lock.tryOptimisticRead();
+    if (stamp != 0) {
+      Song[] songs = copy(slot.playlist);
+      if (songs != null && slot.lock.validate(stamp)) {
+        return songs;
+      }
+    }
+    stamp = slot.lock.readLock();
+    try {
+      return copy(slot.playlist);
+    } finally {
+      slot.lock.unlockRead(stamp);
+    }
+  }
+
+  // walks the list without touching its indexes; under an optimistic read a concurrent writer
+  // can leave it inconsistent, in which case null is returned and the caller retries
+  private static Song[] copy(Playlist playlist) {
+    try {
+      SongNode ptr = playlist.tail();
+      Song[] songs = new Song[playlist.getSize()];
+      for (int i = 0; i < songs.length; i++) {
+        ptr = playlist.next(ptr);
+        songs[i] = ptr.getSong();
+      }
+      return songs;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+}
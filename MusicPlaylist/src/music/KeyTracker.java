@@ -0,0 +1,56 @@
+package music;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class tells listeners about changes to the name, artist, year or popularity of the songs it
+ * tracks, so that hash indexes keyed by those fields can move just the songs that changed.
+ *
+ * <p>A song is tracked by at most one tracker, the first one something indexing it gives it. Songs
+ * interned by a {@link SongPool} are tracked by the pool's tracker, so a change to a song of one
+ * library only reaches the indexes of that library, and a song nobody indexes costs nothing when
+ * it changes. An index registers with the tracker of every song it holds, which is usually one
+ * tracker for the whole index. Listeners are held weakly, so an index nobody uses any more is
+ * forgotten.
+ */
+final class KeyTracker {
+  // told about every change, cleared references are dropped as they are found
+  private final CopyOnWriteArrayList<WeakReference<Song.KeyListener>> listeners =
+      new CopyOnWriteArrayList<>();
+
+  /*
+   * Registers a listener, which must be held strongly elsewhere for as long as it should hear
+   * about changes; registering it again does nothing
+   */
+  void addListener(Song.KeyListener listener) {
+    for (WeakReference<Song.KeyListener> ref : listeners) {
+      if (ref.get() == listener) {
+        return;
+      }
+    }
+    listeners.removeIf(ref -> ref.get() == null);
+    listeners.add(new WeakReference<>(listener));
+  }
+
+  /*
+   * Returns true if some listener may hear about changes
+   */
+  boolean hasListeners() {
+    return !listeners.isEmpty();
+  }
+
+  /*
+   * Tells the listeners that a song changed from the given key
+   */
+  void keyChanged(Song song, Song.Key before) {
+    for (WeakReference<Song.KeyListener> ref : listeners) {
+      Song.KeyListener listener = ref.get();
+      if (listener == null) {
+        listeners.remove(ref);
+      } else {
+        listener.keyChanged(song, before);
+      }
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package music;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class represents a playlist whose songs stay in their csv file until they are used.
+ *
+ * <p>Until then the playlist is a stub holding the name of its file, so a library of many files
+ * starts without touching them, in time and memory that depend on the number of files, not on
+ * their songs. The first getSize() of a stub counts the songs by scanning the file for line ends
+ * without reading any song, and keeps the count. The first call that needs the songs reads them
+ * into a circular linked list, after which the playlist behaves like any other. Files are read
+ * outside any lock shared with other playlists, so playlists used from several threads at once
+ * read their files concurrently.
+ *
+ * <p>A {@link PlaylistCache} keeps the songs of the lazy playlists of a library within a budget.
+ * A playlist that has not changed since its songs were read can be evicted: it drops its nodes and
+ * becomes a stub again, to be read from its file when next used. A playlist that changed keeps its
+ * nodes, since its file no longer holds its songs. The songs themselves go through the library's
+ * SongPool, so a playlist read again holds the same song objects as before while anything else
+ * still holds them, and an evicted playlist keeps no song in memory that nothing else holds.
+ *
+ * <p>Code that walks the nodes of a playlist with {@link #tail()} and {@link #next(SongNode)} may
+ * see the playlist evicted part way, when another lazy playlist is read meanwhile. The walk still
+ * sees every node, because tail() never returns the tail of an evicted playlist, eviction only
+ * lets go of the nodes and never relinks them, and an evicted playlist keeps its size.
+ *
+ * <p>The file must keep its length and number of songs from the first time the playlist counts or
+ * reads it; if they changed by the time the songs are read, an IllegalStateException is thrown. A
+ * file that can not be opened the first time is reported on standard error, as {@link
+ * PlaylistLoader#load(String)} does, and gives an empty playlist for good.
+ */
+class LazyPlaylist extends Playlist {
+  private final String filename; // the csv file holding the songs
+  private final PlaylistLoader loader; // reads the file
+  private final PlaylistCache cache; // evicts cold playlists to keep within the budget
+  private final Object reading = new Object(); // held while the file is counted or read
+  // the key the cache knows the playlist by, weak so that the cache never keeps it alive
+  private final WeakReference<LazyPlaylist> handle = new WeakReference<>(this);
+  private long length; // the length of the file in bytes once count is known
+  private volatile int count = -1; // the number of songs in the file, -1 until counted or read
+  private volatile boolean loaded; // true while the nodes are in memory, read without locking
+  private boolean modified; // true once the playlist changed since its songs were read
+  private volatile long lastUse; // cache.tick() as of the latest use, set by any thread
+
+  /*
+   * Constructor for a stub of the given file, which is not opened until it is needed
+   */
+  LazyPlaylist(String filename, PlaylistLoader loader, PlaylistCache cache) {
+    this.filename = filename;
+    this.loader = loader;
+    this.cache = cache;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  @Override
+  public SongNode getLast() {
+    use();
+    return super.getLast();
+  }
+
+  @Override
+  public void setLast(SongNode last) {
+    replaced();
+    super.setLast(last);
+  }
+
+  @Override
+  public int getSize() {
+    return loaded ? super.getSize() : count();
+  }
+
+  @Override
+  public void setSize(int size) {
+    replaced();
+    super.setSize(size);
+  }
+
+  @Override
+  boolean isIndexed() {
+    return loaded && super.isIndexed();
+  }
+
+  @Override
+  void reverse() {
+    use();
+    modified = true;
+    super.reverse();
+  }
+
+  @Override
+  void relinking() {
+    use();
+    modified = true; // so that reading another playlist meanwhile does not evict this one
+  }
+
+  @Override
+  SongNode tail() {
+    // another thread may evict the playlist between use() and the read, so the read is made under
+    // the cache's lock, once the playlist is seen loaded there
+    while (true) {
+      use();
+      synchronized (cache) {
+        if (loaded) {
+          return super.tail();
+        }
+      }
+    }
+  }
+
+  @Override
+  SongNode nodeAt(int position) {
+    use();
+    return super.nodeAt(position);
+  }
+
+  @Override
+  List<Song> songsFrom(int position, int count) {
+    use();
+    return super.songsFrom(position, count);
+  }
+
+  @Override
+  int sortedPosition(Song song, Comparator<? super Song> order) {
+    use();
+    return super.sortedPosition(song, order);
+  }
+
+  @Override
+  void insert(int position, SongNode node) {
+    use();
+    modified = true;
+    super.insert(position, node);
+  }
+
+  @Override
+  SongNode find(Song song) {
+    use();
+    return super.find(song);
+  }
+
+  @Override
+  void remove(SongNode node) {
+    modified = true;
+    super.remove(node);
+  }
+
+  @Override
+  List<Song> apply(int[] positions, Song[] inserts, List<Song> removals) {
+    use();
+    modified = true;
+    return super.apply(positions, inserts, removals);
+  }
+
+  /*
+   * Returns true while the nodes are in memory
+   */
+  boolean isLoaded() {
+    return loaded;
+  }
+
+  /*
+   * Returns true if the nodes are in memory and the file still holds the same songs, so that the
+   * playlist can be evicted
+   */
+  boolean isEvictable() {
+    return loaded && !modified;
+  }
+
+  /*
+   * Returns the key the cache knows the playlist by
+   */
+  WeakReference<LazyPlaylist> handle() {
+    return handle;
+  }
+
+  /*
+   * Returns cache.tick() as of the latest use
+   */
+  long getLastUse() {
+    return lastUse;
+  }
+
+  /*
+   * Drops the nodes, turning the playlist back into a stub; only call when isEvictable()
+   */
+  void evict() {
+    super.setLast(null);
+    super.setSize(0);
+    loaded = false;
+  }
+
+  // the number of songs in the file, counted the first time without reading any song
+  private int count() {
+    if (count < 0) {
+      synchronized (reading) {
+        if (count < 0) {
+          try {
+            length = Files.size(Paths.get(filename));
+            count = loader.count(filename);
+          } catch (IOException e) {
+            unreadable();
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  // reads the songs if they are not in memory, and records the use; loaded is volatile, so a thread
+  // that sees it set also sees the nodes read by the thread that set it. The file is read under
+  // this playlist's lock only, and the songs are put in place under the cache's, so that the
+  // cache never sees the playlist half loaded
+  private void use() {
+    lastUse = cache.tick();
+    if (loaded) {
+      return;
+    }
+    synchronized (reading) {
+      if (loaded) {
+        return;
+      }
+      Playlist songs;
+      try {
+        if (count < 0) {
+          length = Files.size(Paths.get(filename));
+        } else {
+          checkLength();
+        }
+        songs = loader.read(filename);
+      } catch (IOException e) {
+        if (count < 0) {
+          unreadable();
+          return;
+        }
+        throw new UncheckedIOException("could not read " + filename, e);
+      }
+      if (count < 0) {
+        count = songs.getSize();
+      } else if (songs.getSize() != count) {
+        throw new IllegalStateException(filename + " changed since it was added to the library");
+      }
+      synchronized (cache) {
+        super.setLast(songs.getLast());
+        super.setSize(songs.getSize());
+        loaded = true;
+        cache.loaded(this);
+      }
+    }
+  }
+
+  // the file could not be opened the first time: reports it as PlaylistLoader.load() does, and
+  // makes the playlist empty for good
+  private void unreadable() {
+    System.err.println("Could not open " + filename);
+    synchronized (cache) {
+      modified = true; // there is no file to read the songs from again
+      loaded = true;
+      count = 0;
+    }
+  }
+
+  // the list is being replaced as a whole, so the file is not needed any more
+  private void replaced() {
+    loaded = true;
+    modified = true;
+  }
+
+  private void checkLength() throws IOException {
+    if (Files.size(Paths.get(filename)) != length) {
+      throw new IllegalStateException(filename + " changed since it was added to the library");
+    }
+  }
+}
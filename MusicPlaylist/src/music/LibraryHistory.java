@@ -0,0 +1,153 @@
+package music;
+
+import java.util.ArrayDeque;
+
+/**
+ * This class keeps the edits made to the playlists of a {@link PlaylistLibrary}, so that they can
+ * be undone and redone.
+ *
+ * <p>An edit is remembered as the way to undo and redo it rather than as a copy of the playlists
+ * it changed. Inserting or removing a song keeps the node it inserted or removed, and is undone in
+ * O(log n) time; reversing is undone in O(1). Edits that relink a whole playlist, such as a
+ * shuffle, a sort or a merge, keep arrays of the nodes of the playlists before and after the edit,
+ * and take O(n) time to undo, as they did to make. Those arrays are only built while the history
+ * can keep them, see {@link #keeps(long)}.
+ *
+ * <p>The history is bounded both by a number of edits and by the number of nodes its edits hold,
+ * so a few relinks of a large playlist do not keep arrays of millions of nodes alive. Once either
+ * is exceeded, the oldest edits are forgotten.
+ *
+ * <p>An edit refers to playlist objects, so it only applies while the library holds them where it
+ * did. When it does not, because playlists were added, removed or replaced in a way the history
+ * does not know about, undo and redo forget the history and report that nothing happened.
+ */
+final class LibraryHistory {
+
+  /*
+   * An edit that can be undone and redone; each returns false, changing nothing, if the library no
+   * longer holds the playlists the edit was made to
+   */
+  interface Edit {
+    boolean undo();
+
+    boolean redo();
+
+    long nodes(); // the nodes the edit holds to undo and redo itself
+  }
+
+  // the most nodes the edits may hold by default, about 32MB of references at most
+  static final long DEFAULT_NODE_LIMIT = 1 << 22;
+
+  private final ArrayDeque<Edit> undo = new ArrayDeque<>(); // newest first
+  private final ArrayDeque<Edit> redo = new ArrayDeque<>(); // next first
+  private int limit = PlaylistHistory.DEFAULT_LIMIT; // the most edits undo keeps
+  private long nodeLimit = DEFAULT_NODE_LIMIT; // the most nodes the edits may hold
+  private long nodes; // the nodes the edits of both stacks hold
+
+  /*
+   * Returns true if an edit holding the given number of nodes would be kept, so that edits only
+   * build what they need to be undone when it is worth it
+   */
+  boolean keeps(long nodes) {
+    return limit > 0 && nodes <= nodeLimit;
+  }
+
+  /*
+   * Remembers an edit that was just made, forgetting whatever redo() could have restored; null
+   * stands for an edit that was not built because keeps() said no, which forgets every edit
+   */
+  void record(Edit edit) {
+    for (Edit forgotten : redo) {
+      nodes -= forgotten.nodes();
+    }
+    redo.clear();
+    if (edit == null || !keeps(edit.nodes())) {
+      clear(); // the older edits can not be undone past this one
+      return;
+    }
+    undo.push(edit);
+    nodes += edit.nodes();
+    trim();
+  }
+
+  /*
+   * Undoes the latest edit, returning false if there is none or it no longer applies
+   */
+  boolean undo() {
+    if (undo.isEmpty()) {
+      return false;
+    }
+    Edit edit = undo.pop();
+    if (!edit.undo()) {
+      clear();
+      return false;
+    }
+    redo.push(edit);
+    return true;
+  }
+
+  /*
+   * Redoes the latest undone edit, returning false if there is none or it no longer applies
+   */
+  boolean redo() {
+    if (redo.isEmpty()) {
+      return false;
+    }
+    Edit edit = redo.pop();
+    if (!edit.redo()) {
+      clear();
+      return false;
+    }
+    undo.push(edit);
+    return true;
+  }
+
+  /*
+   * Forgets every edit, after one the history can not undo
+   */
+  void clear() {
+    undo.clear();
+    redo.clear();
+    nodes = 0;
+  }
+
+  int getLimit() {
+    return limit;
+  }
+
+  /*
+   * Sets the most edits undo keeps, forgetting the oldest ones beyond it
+   */
+  void setLimit(int limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit must not be negative: " + limit);
+    }
+    this.limit = limit;
+    trim();
+  }
+
+  long getNodeLimit() {
+    return nodeLimit;
+  }
+
+  /*
+   * Sets the most nodes the edits may hold, forgetting the oldest edits beyond it
+   */
+  void setNodeLimit(long nodeLimit) {
+    if (nodeLimit < 0) {
+      throw new IllegalArgumentException("node limit must not be negative: " + nodeLimit);
+    }
+    this.nodeLimit = nodeLimit;
+    trim();
+  }
+
+  // forgets the oldest edits until both limits hold, and then what there is to redo if needed
+  private void trim() {
+    while (!undo.isEmpty() && (undo.size() > limit || nodes > nodeLimit)) {
+      nodes -= undo.removeLast().nodes();
+    }
+    if (nodes > nodeLimit || limit == 0) {
+      clear();
+    }
+  }
+}
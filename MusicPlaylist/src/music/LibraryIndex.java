@@ -0,0 +1,412 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class indexes the distinct songs of a library by artist, year and popularity, so that
+ * queries over the whole library do not walk every playlist.
+ *
+ * <p>Each song object is counted once per node holding it, and stays in the indexes until its last
+ * node is gone. Artists are kept in a hash map, and years and popularities in sorted maps, so a
+ * range query costs O(log n) plus the size of the range.
+ *
+ * <p>The index follows its library two ways. Songs inserted into or removed from a playlist it has
+ * indexed are passed to {@link #added(Playlist, Song)} and {@link #removed(Playlist, Song)}. Whole
+ * playlists are picked up by {@link #sync(List)}, which the library calls before every query,
+ * since its list of playlists is handed out by getPlaylists() and can change without it knowing.
+ * sync() compares that list with a copy taken the last time, so a query costs O(P) reference
+ * comparisons for the P playlists of the library, with no hashing or allocation, before anything
+ * else; when a playlist was added or removed, it works out which in O(P) expected time and reads
+ * those playlists only.
+ * Changing the artist, year or popularity of a song moves it to other buckets: the index listens to
+ * the {@link KeyTracker}s of the songs it holds, so it moves just that song, in O(log n) time.
+ *
+ * <p>A {@link LazyPlaylist} counts only while its songs are in memory: the index never reads a
+ * playlist from its file, and its {@link PlaylistCache} passes the playlists that read their songs
+ * to {@link #loaded(LazyPlaylist)} and the ones about to drop them to {@link
+ * #evicting(LazyPlaylist)}. So the index holds no song that only stubs hold, and the pool can let
+ * such songs go.
+ *
+ * <p>The same songs are also kept in a {@link SongSearch}, which finds them by words and pieces of
+ * their names and artists.
+ */
+final class LibraryIndex implements Song.KeyListener {
+  private final IdentityHashMap<Song, int[]> occurrences = new IdentityHashMap<>(); // song to count
+  private final IdentityHashMap<Playlist, int[]> playlists = new IdentityHashMap<>(); // indexed
+  private final HashMap<String, Set<Song>> byArtist = new HashMap<>();
+  private final TreeMap<Integer, Set<Song>> byYear = new TreeMap<>();
+  private final TreeMap<Integer, Set<Song>> byPopularity = new TreeMap<>();
+  private final SongSearch search = new SongSearch(); // songs by the text of name and artist
+  private final KeyTracker tracker = new KeyTracker(); // tracks the songs no pool tracks
+  // the trackers listened to, and the latest of them, which usually tracks every song
+  private final Set<KeyTracker> trackers = Collections.newSetFromMap(new IdentityHashMap<>());
+  private KeyTracker latest;
+  private Playlist[] synced = new Playlist[0]; // the playlists of the library as of the last sync
+
+  /**
+   * Brings the index up to date with the playlists of a library: songs of playlists that joined
+   * the library since the last call are added, and songs of playlists that left it are removed.
+   * Takes O(P) time for the P playlists of the library when none joined or left it.
+   *
+   * @param library the playlists of the library, may be null
+   */
+  void sync(List<Playlist> library) {
+    if (unchanged(library)) {
+      return;
+    }
+    IdentityHashMap<Playlist, int[]> current = new IdentityHashMap<>();
+    if (library != null) {
+      for (Playlist playlist : library) {
+        current.computeIfAbsent(playlist, p -> new int[1])[0]++;
+      }
+    }
+    for (Map.Entry<Playlist, int[]> entry : current.entrySet()) {
+      int[] indexed = playlists.get(entry.getKey());
+      for (int i = indexed == null ? 0 : indexed[0]; i < entry.getValue()[0]; i++) {
+        forEachSong(entry.getKey(), true);
+      }
+    }
+    for (Map.Entry<Playlist, int[]> entry : playlists.entrySet()) {
+      int[] kept = current.get(entry.getKey());
+      for (int i = kept == null ? 0 : kept[0]; i < entry.getValue()[0]; i++) {
+        forEachSong(entry.getKey(), false);
+      }
+    }
+    playlists.clear();
+    playlists.putAll(current);
+    synced = library == null ? new Playlist[0] : library.toArray(new Playlist[0]);
+  }
+
+  // true if the library holds the same playlists, in the same places, as at the last sync
+  private boolean unchanged(List<Playlist> library) {
+    int size = library == null ? 0 : library.size();
+    if (size != synced.length) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (library.get(i) != synced[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Records a song inserted into a playlist. Nothing happens if the playlist has not been indexed
+   * yet, since the next sync() will read the song along with the rest of the playlist.
+   *
+   * @param playlist the playlist the song was inserted into
+   * @param song the inserted song
+   */
+  void added(Playlist playlist, Song song) {
+    if (playlists.containsKey(playlist)) {
+      for (int i = playlists.get(playlist)[0]; i > 0; i--) {
+        add(song);
+      }
+    }
+  }
+
+  /**
+   * Records a song removed from a playlist.
+   *
+   * @param playlist the playlist the song was removed from
+   * @param song the removed song
+   */
+  void removed(Playlist playlist, Song song) {
+    if (playlists.containsKey(playlist)) {
+      for (int i = playlists.get(playlist)[0]; i > 0; i--) {
+        remove(song);
+      }
+    }
+  }
+
+  /**
+   * Adds the songs of a lazy playlist that just read them from its file, if the playlist is one of
+   * the library's.
+   *
+   * @param playlist the playlist that read its songs
+   */
+  void loaded(LazyPlaylist playlist) {
+    int[] count = playlists.get(playlist);
+    for (int i = count == null ? 0 : count[0]; i > 0; i--) {
+      forEachSong(playlist, true);
+    }
+  }
+
+  /**
+   * Removes the songs of a lazy playlist that is about to drop them, if the playlist is one of the
+   * library's.
+   *
+   * @param playlist the playlist about to be evicted
+   */
+  void evicting(LazyPlaylist playlist) {
+    int[] count = playlists.get(playlist);
+    for (int i = count == null ? 0 : count[0]; i > 0; i--) {
+      forEachSong(playlist, false);
+    }
+  }
+
+  /**
+   * Records that a new playlist object took the place of another in the library, holding the same
+   * nodes, so its songs are neither read again nor removed.
+   *
+   * @param before the playlist that left the library
+   * @param after the playlist that took its place
+   */
+  void replaced(Playlist before, Playlist after) {
+    int[] count = playlists.remove(before);
+    if (count != null) {
+      playlists.put(after, count);
+    }
+    for (int i = 0; i < synced.length; i++) {
+      if (synced[i] == before) {
+        synced[i] = after;
+      }
+    }
+  }
+
+  /**
+   * Returns the distinct songs by an artist.
+   *
+   * @param artist the artist, may be null
+   * @return the songs whose artist equals the given one, in no particular order
+   */
+  List<Song> byArtist(String artist) {
+    Set<Song> songs = byArtist.get(artist);
+    return songs == null ? new ArrayList<>() : new ArrayList<>(songs);
+  }
+
+  /**
+   * Returns the distinct songs whose year is within a range.
+   *
+   * @param fromYear the first year to include
+   * @param toYear the last year to include
+   * @return the songs, in increasing year order
+   */
+  List<Song> byYear(int fromYear, int toYear) {
+    return collect(range(byYear, fromYear, toYear, false));
+  }
+
+  /**
+   * Returns the distinct songs whose popularity is within a range.
+   *
+   * @param minPopularity the lowest popularity to include
+   * @param maxPopularity the highest popularity to include
+   * @return the songs, in decreasing popularity order
+   */
+  List<Song> byPopularity(int minPopularity, int maxPopularity) {
+    return collect(range(byPopularity, minPopularity, maxPopularity, true));
+  }
+
+  /**
+   * Returns the distinct songs whose year and popularity are both within ranges. Whichever range
+   * holds fewer songs is walked, and its songs are checked against the other range.
+   *
+   * @param fromYear the first year to include
+   * @param toYear the last year to include
+   * @param minPopularity the lowest popularity to include
+   * @param maxPopularity the highest popularity to include
+   * @return the songs, in increasing year order or decreasing popularity order
+   */
+  List<Song> find(int fromYear, int toYear, int minPopularity, int maxPopularity) {
+    NavigableMap<Integer, Set<Song>> years = range(byYear, fromYear, toYear, false);
+    NavigableMap<Integer, Set<Song>> popularities =
+        range(byPopularity, minPopularity, maxPopularity, true);
+    boolean byYears = count(years) <= count(popularities);
+    List<Song> found = new ArrayList<>();
+    for (Set<Song> bucket : (byYears ? years : popularities).values()) {
+      for (Song song : bucket) {
+        int year = song.getYear();
+        int popularity = song.getPopularity();
+        if (year >= fromYear
+            && year <= toYear
+            && popularity >= minPopularity
+            && popularity <= maxPopularity) {
+          found.add(song);
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Returns the most popular distinct songs.
+   *
+   * @param k the number of songs to return
+   * @return the k songs with the highest popularity, or all of them if there are fewer, in
+   *     decreasing popularity order; songs of equal popularity are in no particular order
+   */
+  List<Song> top(int k) {
+    List<Song> top = new ArrayList<>(Math.min(Math.max(k, 0), occurrences.size()));
+    if (k <= 0) {
+      return top;
+    }
+    for (Set<Song> bucket : byPopularity.descendingMap().values()) {
+      for (Song song : bucket) {
+        if (top.size() == k) {
+          return top;
+        }
+        top.add(song);
+      }
+    }
+    return top;
+  }
+
+  /**
+   * Returns the most popular distinct songs with a word of their name or artist starting with a
+   * prefix, see {@link SongSearch#prefix(String, int, java.util.Collection)}.
+   *
+   * @param prefix the start of the words to find, compared without regard to case
+   * @param k the most songs to return
+   * @return the matching songs in decreasing popularity order
+   */
+  List<Song> searchPrefix(String prefix, int k) {
+    return search.prefix(prefix, k, byPopularity.descendingMap().values());
+  }
+
+  /**
+   * Returns the most popular distinct songs whose name or artist contains a piece of text, see
+   * {@link SongSearch#substring(String, int, java.util.Collection)}.
+   *
+   * @param text the text to find, compared without regard to case
+   * @param k the most songs to return
+   * @return the matching songs in decreasing popularity order
+   */
+  List<Song> searchSubstring(String text, int k) {
+    return search.substring(text, k, byPopularity.descendingMap().values());
+  }
+
+  /**
+   * Moves a song whose fields changed to the buckets matching its new values.
+   *
+   * @param song the song that changed
+   * @param before the fields of the song from before the change
+   */
+  @Override
+  public void keyChanged(Song song, Song.Key before) {
+    if (!occurrences.containsKey(song)) {
+      return;
+    }
+    if (!Objects.equals(song.getSongName(), before.getSongName())
+        || !Objects.equals(song.getArtist(), before.getArtist())) {
+      search.remove(before.getSongName(), before.getArtist(), song);
+      search.add(song);
+    }
+    if (!Objects.equals(song.getArtist(), before.getArtist())) {
+      unbucket(byArtist, before.getArtist(), song);
+      bucket(byArtist, song.getArtist()).add(song);
+    }
+    if (song.getYear() != before.getYear()) {
+      unbucket(byYear, before.getYear(), song);
+      bucket(byYear, song.getYear()).add(song);
+    }
+    if (song.getPopularity() != before.getPopularity()) {
+      unbucket(byPopularity, before.getPopularity(), song);
+      bucket(byPopularity, song.getPopularity()).add(song);
+    }
+  }
+
+  /**
+   * Returns the number of distinct songs indexed.
+   *
+   * @return the number of songs
+   */
+  int size() {
+    return occurrences.size();
+  }
+
+  // adds or removes the songs of a playlist, unless it is a lazy playlist whose songs are not in
+  // memory, which are not indexed
+  private void forEachSong(Playlist playlist, boolean adding) {
+    if (playlist instanceof LazyPlaylist && !((LazyPlaylist) playlist).isLoaded()) {
+      return;
+    }
+    SongNode ptr = playlist.tail();
+    for (int i = 0; i < playlist.getSize(); i++) {
+      ptr = playlist.next(ptr);
+      if (adding) {
+        add(ptr.getSong());
+      } else {
+        remove(ptr.getSong());
+      }
+    }
+  }
+
+  private void add(Song song) {
+    int[] count = occurrences.get(song);
+    if (count != null) {
+      count[0]++;
+      return;
+    }
+    occurrences.put(song, new int[] {1});
+    KeyTracker songTracker = song.track(tracker);
+    if (songTracker != latest) {
+      if (trackers.add(songTracker)) {
+        songTracker.addListener(this);
+      }
+      latest = songTracker;
+    }
+    bucket(byArtist, song.getArtist()).add(song);
+    bucket(byYear, song.getYear()).add(song);
+    bucket(byPopularity, song.getPopularity()).add(song);
+    search.add(song);
+  }
+
+  private void remove(Song song) {
+    int[] count = occurrences.get(song);
+    if (count == null || --count[0] > 0) {
+      return;
+    }
+    occurrences.remove(song);
+    unbucket(byArtist, song.getArtist(), song);
+    unbucket(byYear, song.getYear(), song);
+    unbucket(byPopularity, song.getPopularity(), song);
+    search.remove(song.getSongName(), song.getArtist(), song);
+  }
+
+  private static <K> Set<Song> bucket(Map<K, Set<Song>> buckets, K key) {
+    return buckets.computeIfAbsent(key, k -> Collections.newSetFromMap(new IdentityHashMap<>()));
+  }
+
+  private static <K> void unbucket(Map<K, Set<Song>> buckets, K key, Song song) {
+    Set<Song> bucket = buckets.get(key);
+    bucket.remove(song);
+    if (bucket.isEmpty()) {
+      buckets.remove(key);
+    }
+  }
+
+  private static NavigableMap<Integer, Set<Song>> range(
+      TreeMap<Integer, Set<Song>> buckets, int from, int to, boolean descending) {
+    if (from > to) {
+      return Collections.emptyNavigableMap();
+    }
+    NavigableMap<Integer, Set<Song>> range = buckets.subMap(from, true, to, true);
+    return descending ? range.descendingMap() : range;
+  }
+
+  private static long count(NavigableMap<Integer, Set<Song>> range) {
+    long count = 0;
+    for (Set<Song> bucket : range.values()) {
+      count += bucket.size();
+    }
+    return count;
+  }
+
+  private static List<Song> collect(NavigableMap<Integer, Set<Song>> range) {
+    List<Song> songs = new ArrayList<>();
+    for (Set<Song> bucket : range.values()) {
+      songs.addAll(bucket);
+    }
+    return songs;
+  }
+}
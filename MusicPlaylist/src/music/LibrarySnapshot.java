@@ -0,0 +1,274 @@
+package music;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * This class saves the playlists of a library to a binary snapshot file and loads them back.
+ *
+ * <p>A snapshot holds, in order and as big-endian ints unless noted:
+ *
+ * <ul>
+ *   <li>the magic number {@code PLIB} and the format version;
+ *   <li>the string table: the number of strings, then each string as its length in bytes followed
+ *       by its UTF-8 bytes;
+ *   <li>the song table: the number of songs, then the name, artist and link string ids of every
+ *       song, then every year, then every popularity, one column after the other (-1 stands for a
+ *       null string);
+ *   <li>the playlists: the number of playlists, then for each one its size followed by the ids of
+ *       its songs in playlist order;
+ *   <li>the CRC-32 of everything before it.
+ * </ul>
+ *
+ * <p>Loading maps the file into memory, checks the checksum, and reads the columns and playlists
+ * with bulk int copies, so nothing is parsed line by line. Each distinct song is created once and
+ * shared by all the playlists that hold it.
+ *
+ * <p>Saving writes a temporary file next to the snapshot and renames it over the snapshot once it
+ * is complete, so a crash while saving leaves the previous snapshot as it was.
+ */
+final class LibrarySnapshot {
+  private static final int MAGIC = 0x504C4942; // "PLIB"
+  private static final int VERSION = 1;
+
+  private LibrarySnapshot() {
+    // can not instantiate
+  }
+
+  /**
+   * Writes playlists to a snapshot file, replacing the file if it exists. The file is replaced
+   * only once the new snapshot is written in full.
+   *
+   * @param playlists the playlists to save
+   * @param filename the name of the snapshot file
+   * @throws IllegalArgumentException if the file can not be written
+   */
+  static void save(ArrayList<Playlist> playlists, String filename) {
+    SongTable table = new SongTable();
+    PackedPlaylist[] packed = new PackedPlaylist[playlists.size()];
+    for (int i = 0; i < packed.length; i++) {
+      packed[i] = PackedPlaylist.of(playlists.get(i), table);
+    }
+    try (Writer out = new Writer(filename)) {
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putInt(table.stringCount());
+      for (int i = 0; i < table.stringCount(); i++) {
+        byte[] bytes = table.string(i).getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.put(bytes);
+      }
+      int songs = table.size();
+      out.putInt(songs);
+      for (int[] column :
+          new int[][] {table.names, table.artists, table.links, table.years, table.popularities}) {
+        for (int id = 0; id < songs; id++) {
+          out.putInt(column[id]);
+        }
+      }
+      out.putInt(packed.length);
+      for (PackedPlaylist playlist : packed) {
+        out.putInt(playlist.getSize());
+        for (int position = 1; position <= playlist.getSize(); position++) {
+          out.putInt(playlist.getSongId(position));
+        }
+      }
+      out.putChecksum();
+      out.commit();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("unable to save file '" + filename + "'", e);
+    }
+  }
+
+  /**
+   * Reads the playlists of a snapshot file.
+   *
+   * @param filename the name of the snapshot file
+   * @param pool the pool the songs are interned into
+   * @return the playlists, in the order they were saved
+   * @throws IllegalArgumentException if the file can not be read, is not a snapshot, has an
+   *     unsupported version or fails its checksum
+   */
+  static ArrayList<Playlist> load(String filename, SongPool pool) {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      throw new IllegalArgumentException("could not read '" + filename + "'", e);
+    }
+    if (buffer.limit() < 12 || buffer.getInt(0) != MAGIC) {
+      throw new IllegalArgumentException("'" + filename + "' is not a playlist library snapshot");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IllegalArgumentException(
+          "unsupported snapshot version " + buffer.getInt(4) + " in '" + filename + "'");
+    }
+    int end = buffer.limit() - 4;
+    CRC32 crc = new CRC32();
+    crc.update(buffer.duplicate().limit(end));
+    if ((int) crc.getValue() != buffer.getInt(end)) {
+      throw new IllegalArgumentException("checksum mismatch in '" + filename + "'");
+    }
+    buffer.position(8);
+
+    // string table
+    String[] strings = new String[buffer.getInt()];
+    byte[] scratch = new byte[256];
+    for (int i = 0; i < strings.length; i++) {
+      int length = buffer.getInt();
+      if (length > scratch.length) {
+        scratch = new byte[Math.max(length, 2 * scratch.length)];
+      }
+      buffer.get(scratch, 0, length);
+      strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // song table, one column at a time
+    int songCount = buffer.getInt();
+    int[][] columns = new int[5][songCount];
+    IntBuffer ints = buffer.asIntBuffer();
+    for (int[] column : columns) {
+      ints.get(column);
+    }
+    buffer.position(buffer.position() + 5 * 4 * songCount);
+    Song[] songs = new Song[songCount];
+    for (int id = 0; id < songCount; id++) {
+      songs[id] =
+          pool.intern(
+              Song.withPath(
+                  string(strings, columns[0][id]),
+                  pool.artist(string(strings, columns[1][id])),
+                  columns[3][id],
+                  columns[4][id],
+                  string(strings, columns[2][id])));
+    }
+
+    // playlists
+    int playlistCount = buffer.getInt();
+    ArrayList<Playlist> playlists = new ArrayList<>(playlistCount);
+    int[] ids = new int[0];
+    for (int i = 0; i < playlistCount; i++) {
+      int size = buffer.getInt();
+      if (size > ids.length) {
+        ids = new int[size];
+      }
+      buffer.asIntBuffer().get(ids, 0, size);
+      buffer.position(buffer.position() + 4 * size);
+      SongNode last = null;
+      for (int j = 0; j < size; j++) {
+        if (last == null) {
+          last = new SongNode(songs[ids[j]], null);
+          last.setNext(last);
+        } else {
+          SongNode songNode = new SongNode(songs[ids[j]], last.getNext());
+          last.setNext(songNode);
+          last = songNode;
+        }
+      }
+      playlists.add(new Playlist(last, size));
+    }
+    return playlists;
+  }
+
+  private static String string(String[] strings, int id) {
+    return id < 0 ? null : strings[id];
+  }
+
+  /*
+   * Writes ints and bytes to a temporary file through one large buffer, keeping a CRC-32 of
+   * everything written; commit() moves the temporary file over the target, and closing without
+   * committing deletes it
+   */
+  private static class Writer implements AutoCloseable {
+    private final Path target; // the file to replace
+    private final Path temporary; // the file being written, next to target
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private final CRC32 crc = new CRC32();
+    private boolean committed; // true once temporary has replaced target
+
+    Writer(String filename) throws IOException {
+      target = Paths.get(filename).toAbsolutePath();
+      temporary = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+      channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+    }
+
+    void putInt(int value) throws IOException {
+      if (buffer.remaining() < 4) {
+        flush();
+      }
+      buffer.putInt(value);
+    }
+
+    void put(byte[] bytes) throws IOException {
+      for (int offset = 0; offset < bytes.length; ) {
+        if (!buffer.hasRemaining()) {
+          flush();
+        }
+        int length = Math.min(bytes.length - offset, buffer.remaining());
+        buffer.put(bytes, offset, length);
+        offset += length;
+      }
+    }
+
+    // writes the checksum of everything written so far, which the checksum does not cover
+    void putChecksum() throws IOException {
+      flush();
+      buffer.putInt((int) crc.getValue());
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      crc.update(buffer.duplicate());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    // forces the temporary file to disk and renames it over the target, atomically where the file
+    // system allows it
+    void commit() throws IOException {
+      channel.force(true);
+      channel.close();
+      try {
+        Files.move(
+            temporary,
+            target,
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+      committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        channel.close();
+      } finally {
+        if (!committed) {
+          Files.deleteIfExists(temporary);
+        }
+      }
+    }
+  }
+}
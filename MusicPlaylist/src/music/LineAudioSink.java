@@ -0,0 +1,52 @@
+package music;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * This class sends audio to the sound card through a single SourceDataLine.
+ *
+ * <p>The line is opened the first time the sink is opened and is kept until a song in a different
+ * format arrives or the sink is closed, so playing a playlist does not pay for setting up and
+ * tearing down a line for every song.
+ */
+public class LineAudioSink implements AudioSink {
+  private SourceDataLine line; // the open line, null when closed
+
+  @Override
+  public void open(AudioFormat format) throws LineUnavailableException {
+    if (line != null) {
+      if (line.getFormat().matches(format)) {
+        return;
+      }
+      close();
+    }
+    SourceDataLine opened = AudioSystem.getSourceDataLine(format);
+    opened.open(format);
+    opened.start();
+    line = opened;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    line.write(bytes, offset, length);
+  }
+
+  @Override
+  public void drain() {
+    if (line != null) {
+      line.drain();
+    }
+  }
+
+  @Override
+  public void close() {
+    if (line != null) {
+      line.drain();
+      line.close();
+      line = null;
+    }
+  }
+}
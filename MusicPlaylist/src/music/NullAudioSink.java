@@ -0,0 +1,55 @@
+package music;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * This class is an audio sink that discards what it is given. Writes return at once, so a
+ * playlist plays as fast as its files can be read.
+ *
+ * <p>It counts the bytes written and the number of times it had to be opened in a new format, which
+ * is how a test can check what a {@link PlaybackPipeline} did.
+ */
+public class NullAudioSink implements AudioSink {
+  private AudioFormat format; // the format the sink is open in, null when closed
+  private long bytesWritten; // the number of bytes written since the sink was created
+  private int opens; // the number of times the sink was opened in a new format
+
+  @Override
+  public void open(AudioFormat format) {
+    if (this.format == null || !this.format.matches(format)) {
+      this.format = format;
+      opens++;
+    }
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    if (format == null) {
+      throw new IllegalStateException("write() called before open()");
+    }
+    bytesWritten += length;
+  }
+
+  @Override
+  public void drain() {
+    // nothing is ever pending
+  }
+
+  @Override
+  public void close() {
+    format = null;
+  }
+
+  /* Getter methods */
+  public AudioFormat getFormat() {
+    return format;
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  public int getOpens() {
+    return opens;
+  }
+}
@@ -0,0 +1,396 @@
+package music;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class represents a playlist stored as an array of song ids into a {@link SongTable}.
+ *
+ * <p>A Playlist needs a SongNode and a Song object per track, and every traversal follows a
+ * reference per song. A PackedPlaylist stores the same order as one int per track, and the song
+ * fields live in the columns of the table, so scans such as {@link #sumPopularity()} or {@link
+ * #filterByYear(int, int)} are tight loops over primitive arrays. Several packed playlists can
+ * share one table, and a track shared by many of them is stored once.
+ *
+ * <p>It supports the operations PlaylistLibrary offers on a Playlist, with the same positions (the
+ * first song is at position 1) and the same results; a {@link Cursor} walks the songs without
+ * creating Song objects. Inserting or removing in the middle moves the ids after it, which is a
+ * single array copy.
+ */
+public class PackedPlaylist {
+  private final SongTable table; // where the songs are stored
+  private int[] ids; // the song ids, in playlist order
+  private int size; // the number of songs in the playlist
+
+  /*
+   * Constructor for an empty playlist
+   */
+  public PackedPlaylist(SongTable table) {
+    this.table = table;
+    this.ids = new int[16];
+  }
+
+  /**
+   * Creates a packed copy of a playlist, adding its songs to a table.
+   *
+   * @param playlist the playlist to copy
+   * @param table the table to store the songs in
+   * @return the packed playlist
+   */
+  public static PackedPlaylist of(Playlist playlist, SongTable table) {
+    PackedPlaylist packed = new PackedPlaylist(table);
+    packed.ids = new int[Math.max(16, playlist.getSize())];
+    SongNode ptr = playlist.tail();
+    for (int i = 0; i < playlist.getSize(); i++) {
+      ptr = playlist.next(ptr);
+      packed.ids[packed.size++] = table.add(ptr.getSong());
+    }
+    return packed;
+  }
+
+  /**
+   * Creates a Playlist holding the songs of this playlist, in the same order.
+   *
+   * @return a new circular linked list playlist
+   */
+  public Playlist toPlaylist() {
+    SongNode last = null;
+    for (int i = 0; i < size; i++) {
+      Song song = table.toSong(ids[i]);
+      if (last == null) {
+        last = new SongNode(song, null);
+        last.setNext(last);
+      } else {
+        SongNode songNode = new SongNode(song, last.getNext());
+        last.setNext(songNode);
+        last = songNode;
+      }
+    }
+    return new Playlist(last, size);
+  }
+
+  /* Getter methods */
+  public SongTable getTable() {
+    return table;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns the id of the song at a given position.
+   *
+   * @param position the position of the song, between 1 and the size of the playlist
+   * @return the id of the song in the table
+   */
+  public int getSongId(int position) {
+    if (position <= 0 || position > size) {
+      throw new IndexOutOfBoundsException("position " + position + " of " + size);
+    }
+    return ids[position - 1];
+  }
+
+  /**
+   * Adds a song at a given position, like PlaylistLibrary.insertSong().
+   *
+   * @param position the position the song is to be added at
+   * @param song the song to add
+   * @return true if the position is valid and the song has been added, false otherwise
+   */
+  public boolean insert(int position, Song song) {
+    if (position <= 0 || position > size + 1) {
+      return false;
+    }
+    return insertId(position, table.add(song));
+  }
+
+  /**
+   * Adds a song of the table at a given position.
+   *
+   * @param position the position the song is to be added at
+   * @param id the id of the song in the table
+   * @return true if the position is valid and the song has been added, false otherwise
+   */
+  public boolean insertId(int position, int id) {
+    if (position <= 0 || position > size + 1) {
+      return false;
+    }
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, 2 * size);
+    }
+    System.arraycopy(ids, position - 1, ids, position, size - position + 1);
+    ids[position - 1] = id;
+    size++;
+    return true;
+  }
+
+  /**
+   * Removes the first occurrence of a song, like PlaylistLibrary.removeSong(). Equal songs share
+   * an id, so the search compares ints only.
+   *
+   * @param song the song to remove
+   * @return true if the song was found and removed, false otherwise
+   */
+  public boolean remove(Song song) {
+    int id = table.find(song);
+    if (id < 0) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (ids[i] == id) {
+        removeAt(i);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Reverses the order of the songs, like PlaylistLibrary.reversePlaylist(). */
+  public void reverse() {
+    for (int i = 0, j = size - 1; i < j; i++, j--) {
+      int temp = ids[i];
+      ids[i] = ids[j];
+      ids[j] = temp;
+    }
+  }
+
+  /**
+   * Merges another playlist of the same table into this one, like
+   * PlaylistLibrary.mergePlaylists(): both are assumed to be in decreasing popularity order, the
+   * result is too, and on ties the songs of this playlist come first. The other playlist is left
+   * empty.
+   *
+   * @param other the playlist to merge into this one
+   * @throws IllegalArgumentException if other uses a different table
+   */
+  public void merge(PackedPlaylist other) {
+    if (other.table != table) {
+      throw new IllegalArgumentException("playlists use different song tables");
+    }
+    if (other == this) {
+      return;
+    }
+    int[] popularities = table.popularities;
+    int[] merged = new int[Math.max(16, size + other.size)];
+    int i = 0, j = 0, k = 0;
+    while (i < size && j < other.size) {
+      if (popularities[other.ids[j]] > popularities[ids[i]]) {
+        merged[k++] = other.ids[j++];
+      } else {
+        merged[k++] = ids[i++];
+      }
+    }
+    System.arraycopy(ids, i, merged, k, size - i);
+    k += size - i;
+    System.arraycopy(other.ids, j, merged, k, other.size - j);
+    ids = merged;
+    size += other.size;
+    other.ids = new int[16];
+    other.size = 0;
+  }
+
+  /** Shuffles the songs with StdRandom, like PlaylistLibrary.shufflePlaylist(). */
+  public void shuffle() {
+    StdRandom.shuffle(ids, 0, size);
+  }
+
+  /**
+   * Shuffles the songs with a Fisher-Yates shuffle driven by the given seed.
+   *
+   * @param seed the seed of the random number generator
+   */
+  public void shuffle(long seed) {
+    Random random = new Random(seed);
+    for (int i = size - 1; i > 0; i--) {
+      int r = random.nextInt(i + 1);
+      int temp = ids[i];
+      ids[i] = ids[r];
+      ids[r] = temp;
+    }
+  }
+
+  /** Sorts the songs in decreasing popularity order, like PlaylistLibrary.sortPlaylist(). */
+  public void sort() {
+    sort(table.byPopularity().reversed());
+  }
+
+  /**
+   * Sorts the songs with a stable merge sort. Songs that compare equal keep their order.
+   *
+   * @param comparator the order to sort the song ids in, see the by methods of SongTable
+   */
+  public void sort(SongTable.IdComparator comparator) {
+    int[] from = ids;
+    int[] to = new int[ids.length];
+    for (int width = 1; width < size; width *= 2) {
+      for (int lo = 0; lo < size; lo += 2 * width) {
+        int mid = Math.min(lo + width, size);
+        int hi = Math.min(lo + 2 * width, size);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+          to[k++] = comparator.compare(from[j], from[i]) < 0 ? from[j++] : from[i++];
+        }
+        while (i < mid) {
+          to[k++] = from[i++];
+        }
+        while (j < hi) {
+          to[k++] = from[j++];
+        }
+      }
+      int[] temp = from;
+      from = to;
+      to = temp;
+    }
+    ids = from;
+  }
+
+  /**
+   * Returns the sum of the popularities of the songs.
+   *
+   * @return the total popularity
+   */
+  public long sumPopularity() {
+    int[] popularities = table.popularities;
+    long sum = 0;
+    for (int i = 0; i < size; i++) {
+      sum += popularities[ids[i]];
+    }
+    return sum;
+  }
+
+  /**
+   * Returns a new playlist of the same table holding the songs released between two years, in
+   * the same order.
+   *
+   * @param fromYear the first year to keep
+   * @param toYear the last year to keep
+   * @return the songs whose year is between fromYear and toYear, both included
+   */
+  public PackedPlaylist filterByYear(int fromYear, int toYear) {
+    int[] years = table.years;
+    PackedPlaylist filtered = new PackedPlaylist(table);
+    filtered.ids = new int[Math.max(16, size)];
+    for (int i = 0; i < size; i++) {
+      int year = years[ids[i]];
+      if (year >= fromYear && year <= toYear) {
+        filtered.ids[filtered.size++] = ids[i];
+      }
+    }
+    return filtered;
+  }
+
+  /** Prints the playlist in the same format as PlaylistLibrary.printPlaylist(). */
+  public void print() {
+    StringBuilder out = new StringBuilder();
+    out.append(String.format("%nPlaylist (%d song(s)):%n", size));
+    if (size == 0) {
+      out.append("EMPTY").append(System.lineSeparator());
+      StdOut.print(out);
+      return;
+    }
+    for (Cursor cursor = cursor(); cursor.next(); ) {
+      out.append(cursor.getSongName()).append(" (").append(cursor.getArtist());
+      out.append(", y=").append(cursor.getYear()).append(", p=").append(cursor.getPopularity());
+      out.append(cursor.getPosition() < size ? ") -> " : ") - POINTS TO FRONT");
+    }
+    out.append(System.lineSeparator());
+    StdOut.print(out);
+  }
+
+  /**
+   * Returns a cursor positioned before the first song.
+   *
+   * @return a new cursor over this playlist
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  private void removeAt(int index) {
+    System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+    size--;
+  }
+
+  /**
+   * A position in a packed playlist. A new cursor is before the first song; each call to next()
+   * moves it to the following song, and the getters read the song it is on straight from the
+   * columns of the table.
+   */
+  public class Cursor {
+    private int position; // the position of the current song, 0 before the first
+    private boolean removable; // true if next() moved to the current song and it was not removed
+
+    /**
+     * Moves to the next song.
+     *
+     * @return true if there is a next song, false if the cursor is past the last one
+     */
+    public boolean next() {
+      if (position >= size) {
+        return false;
+      }
+      position++;
+      removable = true;
+      return true;
+    }
+
+    /**
+     * Moves to a given position, so that next() returns the song after it.
+     *
+     * @param position the position to move to, 0 to move before the first song
+     */
+    public void seek(int position) {
+      if (position < 0 || position > size) {
+        throw new IndexOutOfBoundsException("position " + position + " of " + size);
+      }
+      this.position = position;
+      removable = false;
+    }
+
+    /**
+     * Removes the current song, the cursor moves back to the song before it. As with
+     * Iterator.remove(), it can be called once per call to next() that moved the cursor.
+     *
+     * @throws IllegalStateException if next() has not moved the cursor since it was created,
+     *     moved by seek() or last removed a song
+     */
+    public void remove() {
+      if (!removable) {
+        throw new IllegalStateException("no song to remove, call next() first");
+      }
+      removeAt(position - 1);
+      position--;
+      removable = false;
+    }
+
+    /* Getter methods for the current song */
+    public int getPosition() {
+      return position;
+    }
+
+    public int getSongId() {
+      return ids[position - 1];
+    }
+
+    public String getSongName() {
+      return table.getSongName(getSongId());
+    }
+
+    public String getArtist() {
+      return table.getArtist(getSongId());
+    }
+
+    public int getYear() {
+      return table.getYear(getSongId());
+    }
+
+    public int getPopularity() {
+      return table.getPopularity(getSongId());
+    }
+
+    public String getLink() {
+      return table.getLink(getSongId());
+    }
+  }
+}
@@ -0,0 +1,620 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class represents an immutable playlist. Every edit returns a new version and leaves the one
+ * it was called on unchanged.
+ *
+ * <p>A version is a randomized binary search tree ordered by position, where every node knows the
+ * size of its subtree. An edit copies only the nodes on the path it walks and shares every other
+ * node with the version it started from, so inserting or removing a song costs O(log n) expected
+ * time and space, and keeping many versions costs little more than keeping one. Reversing sets a
+ * flag on the root instead of touching the songs, so it takes O(1).
+ *
+ * <p>Every node also carries a label, a number that grows along the playlist, read negated under
+ * an odd number of reversed flags so that reversing keeps it growing. A version keeps a persistent
+ * hash index from its songs to their labels, so {@link #remove(Song)} finds the first equal song
+ * by its label in O(log n) expected time instead of walking the playlist. The index is carried
+ * from version to version by insert, remove and reverse; a version made from an array, such as a
+ * shuffle, sort or merge, builds it in O(n log n) the first time remove(Song) needs it. Labels
+ * leave room for about 32 inserts between two neighbours; an insert that finds none left labels
+ * the playlist afresh in O(n). Like the keys of a HashMap, songs must not change while a version
+ * holds them for remove(Song) to find them.
+ *
+ * <p>Since no version ever changes, any number of threads can read and iterate over the same
+ * version without locking, while others derive new versions from it. Paired with a {@link
+ * PlaylistHistory} the versions give undo and redo.
+ *
+ * <p>Positions are the same as in PlaylistLibrary: the first song is at position 1.
+ */
+public final class PersistentPlaylist implements Iterable<Song> {
+  private static final PersistentPlaylist EMPTY = new PersistentPlaylist(null, null);
+  private static final long GAP = 1L << 32; // between neighbouring labels when labelled afresh
+  private static final long LIMIT = 1L << 62; // labels stay between -LIMIT and LIMIT
+  private static final long NO_ROOM = Long.MIN_VALUE; // no label is left between two neighbours
+
+  private final Node root; // null for the empty playlist
+  private volatile SongIndex index; // null until remove(Song) first needs it
+
+  /*
+   * A node of the tree; its subtree is read mirrored when reversed is set
+   */
+  private static final class Node {
+    final Song song;
+    final int hash; // the hash code of the song when it was added
+    final long label; // read negated under an odd number of reversed flags, this one included
+    final Node left;
+    final Node right;
+    final int size; // the number of nodes in this subtree
+    final boolean reversed;
+
+    Node(Song song, int hash, long label, Node left, Node right, boolean reversed) {
+      this.song = song;
+      this.hash = hash;
+      this.label = label;
+      this.left = left;
+      this.right = right;
+      this.size = size(left) + size(right) + 1;
+      this.reversed = reversed;
+    }
+
+    // a copy with other children and no reversed flag, for a node whose flag was pushed down
+    Node with(Node left, Node right) {
+      return new Node(song, hash, label, left, right, false);
+    }
+  }
+
+  /*
+   * An entry of the song index, a persistent tree ordered by hash code and then by key
+   */
+  private static final class Entry {
+    final int hash;
+    final long key; // the label of the song, negated when the index is
+    final Song song;
+    final Entry left;
+    final Entry right;
+    final int size; // the number of entries in this subtree
+
+    Entry(int hash, long key, Song song, Entry left, Entry right) {
+      this.hash = hash;
+      this.key = key;
+      this.song = song;
+      this.left = left;
+      this.right = right;
+      this.size = size(left) + size(right) + 1;
+    }
+
+    Entry with(Entry left, Entry right) {
+      return new Entry(hash, key, song, left, right);
+    }
+
+    int compareTo(int hash, long key) {
+      return this.hash != hash ? Integer.compare(this.hash, hash) : Long.compare(this.key, key);
+    }
+  }
+
+  /*
+   * The songs of a version by hash code, each with its label; reversing the version negates every
+   * label, which the index records in a flag instead of in every key
+   */
+  private static final class SongIndex {
+    final Entry root; // null for the empty index
+    final boolean negated; // whether the keys are the labels negated
+
+    SongIndex(Entry root, boolean negated) {
+      this.root = root;
+      this.negated = negated;
+    }
+
+    /*
+     * Indexes the songs of a tree in O(n log n) time
+     */
+    static SongIndex of(Node root) {
+      Entry[] entries = new Entry[size(root)];
+      collect(root, false, entries, 0);
+      Arrays.sort(entries, (a, b) -> a.compareTo(b.hash, b.key));
+      return new SongIndex(build(entries, 0, entries.length), false);
+    }
+
+    SongIndex with(Node node) {
+      long key = negated ? -node.label : node.label;
+      Entry[] parts = split(root, node.hash, key);
+      Entry entry = new Entry(node.hash, key, node.song, null, null);
+      return new SongIndex(join(join(parts[0], entry), parts[1]), negated);
+    }
+
+    SongIndex without(Node node) {
+      long key = negated ? -node.label : node.label;
+      Entry[] before = split(root, node.hash, key);
+      Entry[] after = split(before[1], node.hash, key + 1);
+      return new SongIndex(join(before[0], after[1]), negated);
+    }
+
+    SongIndex reverse() {
+      return new SongIndex(root, !negated);
+    }
+
+    /*
+     * The label of the first song of the version equal to the given one, or NO_ROOM if there is
+     * none
+     */
+    long labelOf(Song song) {
+      Entry entry = first(root, song.hashCode(), song);
+      return entry == null ? NO_ROOM : negated ? -entry.key : entry.key;
+    }
+
+    // the entry with the smallest label among those of equal songs under an entry
+    private Entry first(Entry entry, int hash, Song song) {
+      if (entry == null) {
+        return null;
+      }
+      if (entry.hash != hash) {
+        return first(entry.hash < hash ? entry.right : entry.left, hash, song);
+      }
+      Entry found = first(negated ? entry.right : entry.left, hash, song);
+      if (found == null && entry.song.equals(song)) {
+        found = entry;
+      }
+      return found != null ? found : first(negated ? entry.left : entry.right, hash, song);
+    }
+
+    // fills entries from i on with the songs of a tree, each with its label as read; returns the
+    // index after the last one
+    private static int collect(Node node, boolean reversed, Entry[] entries, int i) {
+      if (node == null) {
+        return i;
+      }
+      reversed ^= node.reversed;
+      long label = reversed ? -node.label : node.label;
+      entries[i++] = new Entry(node.hash, label, node.song, null, null);
+      i = collect(node.left, reversed, entries, i);
+      return collect(node.right, reversed, entries, i);
+    }
+
+    // a perfectly balanced tree of the sorted entries[from, to)
+    private static Entry build(Entry[] entries, int from, int to) {
+      if (from == to) {
+        return null;
+      }
+      int mid = (from + to) >>> 1;
+      return entries[mid].with(build(entries, from, mid), build(entries, mid + 1, to));
+    }
+
+    // splits a tree into the entries before a hash code and key and the rest
+    private static Entry[] split(Entry entry, int hash, long key) {
+      if (entry == null) {
+        return new Entry[2];
+      }
+      if (entry.compareTo(hash, key) < 0) {
+        Entry[] parts = split(entry.right, hash, key);
+        parts[0] = entry.with(entry.left, parts[0]);
+        return parts;
+      }
+      Entry[] parts = split(entry.left, hash, key);
+      parts[1] = entry.with(parts[1], entry.right);
+      return parts;
+    }
+
+    // joins two trees like PersistentPlaylist.join()
+    private static Entry join(Entry a, Entry b) {
+      if (a == null) {
+        return b;
+      }
+      if (b == null) {
+        return a;
+      }
+      if (ThreadLocalRandom.current().nextInt(a.size + b.size) < a.size) {
+        return a.with(a.left, join(a.right, b));
+      }
+      return b.with(join(a, b.left), b.right);
+    }
+  }
+
+  private PersistentPlaylist(Node root, SongIndex index) {
+    this.root = root;
+    this.index = index;
+  }
+
+  /**
+   * Returns the empty playlist.
+   *
+   * @return a playlist with no songs
+   */
+  public static PersistentPlaylist empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Creates a version holding the songs of a playlist, in the same order, in O(n) time.
+   *
+   * @param playlist the playlist to copy
+   * @return the new version
+   */
+  public static PersistentPlaylist of(Playlist playlist) {
+    Song[] songs = new Song[playlist.getSize()];
+    SongNode ptr = playlist.tail();
+    for (int i = 0; i < songs.length; i++) {
+      ptr = playlist.next(ptr);
+      songs[i] = ptr.getSong();
+    }
+    return of(songs);
+  }
+
+  /**
+   * Creates a version holding the given songs, in the same order, in O(n) time.
+   *
+   * @param songs the songs of the playlist
+   * @return the new version
+   */
+  public static PersistentPlaylist of(Song[] songs) {
+    return songs.length == 0 ? EMPTY : new PersistentPlaylist(build(songs, 0, songs.length), null);
+  }
+
+  /**
+   * Creates a mutable Playlist holding the songs of this version, in the same order.
+   *
+   * @return a new circular linked list playlist
+   */
+  public Playlist toPlaylist() {
+    SongNode last = null;
+    for (Song song : this) {
+      if (last == null) {
+        last = new SongNode(song, null);
+        last.setNext(last);
+      } else {
+        SongNode songNode = new SongNode(song, last.getNext());
+        last.setNext(songNode);
+        last = songNode;
+      }
+    }
+    return new Playlist(last, getSize());
+  }
+
+  public int getSize() {
+    return size(root);
+  }
+
+  /**
+   * Returns the song at a given position, in O(log n) expected time.
+   *
+   * @param position the position of the song, between 1 and the size of the playlist
+   * @return the song at that position
+   */
+  public Song getSong(int position) {
+    checkPosition(position, getSize());
+    Node ptr = root;
+    boolean reversed = false;
+    while (true) {
+      reversed ^= ptr.reversed;
+      Node before = reversed ? ptr.right : ptr.left;
+      if (position <= size(before)) {
+        ptr = before;
+      } else if (position == size(before) + 1) {
+        return ptr.song;
+      } else {
+        position -= size(before) + 1;
+        ptr = reversed ? ptr.left : ptr.right;
+      }
+    }
+  }
+
+  /**
+   * Returns a version with a song added at a given position, in O(log n) expected time.
+   *
+   * @param position the position of the new song, between 1 and the size of the playlist plus one
+   * @param song the song to add
+   * @return the new version
+   */
+  public PersistentPlaylist insert(int position, Song song) {
+    checkPosition(position, getSize() + 1);
+    long label = labelBefore(position);
+    if (label == NO_ROOM) {
+      return of(toArray()).insert(position, song);
+    }
+    Node node = new Node(song, song.hashCode(), label, null, null, false);
+    Node[] parts = split(root, position - 1);
+    SongIndex songs = index;
+    return new PersistentPlaylist(
+        join(join(parts[0], node), parts[1]), songs == null ? null : songs.with(node));
+  }
+
+  /**
+   * Returns a version without the song at a given position, in O(log n) expected time.
+   *
+   * @param position the position of the song to remove, between 1 and the size of the playlist
+   * @return the new version
+   */
+  public PersistentPlaylist remove(int position) {
+    checkPosition(position, getSize());
+    Node[] before = split(root, position - 1);
+    Node[] after = split(before[1], 1);
+    SongIndex songs = index;
+    return new PersistentPlaylist(
+        join(before[0], after[1]), songs == null ? null : songs.without(after[0]));
+  }
+
+  /**
+   * Returns a version without the first song equal to the given one, like
+   * PlaylistLibrary.removeSong(), in O(log n) expected time. On a version made by of(), shuffle(),
+   * sort() or merge() the first call also indexes the songs, in O(n log n) time.
+   *
+   * @param song the song to remove
+   * @return the new version, or this one if it holds no equal song
+   */
+  public PersistentPlaylist remove(Song song) {
+    SongIndex songs = index;
+    if (songs == null) {
+      songs = SongIndex.of(root);
+      index = songs;
+    }
+    long label = songs.labelOf(song);
+    return label == NO_ROOM ? this : remove(positionOf(label));
+  }
+
+  /**
+   * Returns a version with the songs in reverse order, in O(1) time.
+   *
+   * @return the new version
+   */
+  public PersistentPlaylist reverse() {
+    if (root == null) {
+      return this;
+    }
+    SongIndex songs = index;
+    return new PersistentPlaylist(flip(root), songs == null ? null : songs.reverse());
+  }
+
+  /**
+   * Returns a version with the songs shuffled by a Fisher-Yates shuffle driven by the given seed,
+   * in O(n) time. The same seed gives the same order as PlaylistLibrary.shufflePlaylist(int, long)
+   * does for a playlist with the same songs.
+   *
+   * @param seed the seed of the random number generator
+   * @return the new version
+   */
+  public PersistentPlaylist shuffle(long seed) {
+    Song[] songs = toArray();
+    Random random = new Random(seed);
+    for (int i = songs.length - 1; i > 0; i--) {
+      int r = random.nextInt(i + 1);
+      Song temp = songs[i];
+      songs[i] = songs[r];
+      songs[r] = temp;
+    }
+    return of(songs);
+  }
+
+  /**
+   * Returns a version with the songs sorted by a stable sort, in O(n log n) time.
+   *
+   * @param comparator the order to sort the songs in
+   * @return the new version
+   */
+  public PersistentPlaylist sort(Comparator<? super Song> comparator) {
+    Song[] songs = toArray();
+    Arrays.sort(songs, comparator);
+    return of(songs);
+  }
+
+  /**
+   * Returns the merge of this version and another, like PlaylistLibrary.mergePlaylists(): both are
+   * assumed to be in decreasing popularity order and so is the result, and on ties the songs of
+   * this version come first. It takes O(n + m) time, and neither version changes.
+   *
+   * @param other the playlist to merge with this one
+   * @return the new version
+   */
+  public PersistentPlaylist merge(PersistentPlaylist other) {
+    Song[] a = toArray();
+    Song[] b = other.toArray();
+    Song[] merged = new Song[a.length + b.length];
+    int i = 0, j = 0, k = 0;
+    while (i < a.length && j < b.length) {
+      merged[k++] = b[j].getPopularity() > a[i].getPopularity() ? b[j++] : a[i++];
+    }
+    while (i < a.length) {
+      merged[k++] = a[i++];
+    }
+    while (j < b.length) {
+      merged[k++] = b[j++];
+    }
+    return of(merged);
+  }
+
+  /**
+   * Returns the songs of this version in order, without locking.
+   *
+   * @return an iterator over the songs
+   */
+  @Override
+  public Iterator<Song> iterator() {
+    return new Iterator<Song>() {
+      // the path to the next node, with the orientation each node is read in
+      private final List<Node> nodes = new ArrayList<>();
+      private final List<Boolean> flips = new ArrayList<>();
+
+      {
+        descend(root, false);
+      }
+
+      private void descend(Node node, boolean reversed) {
+        while (node != null) {
+          reversed ^= node.reversed;
+          nodes.add(node);
+          flips.add(reversed);
+          node = reversed ? node.right : node.left;
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return !nodes.isEmpty();
+      }
+
+      @Override
+      public Song next() {
+        if (nodes.isEmpty()) {
+          throw new NoSuchElementException();
+        }
+        Node node = nodes.remove(nodes.size() - 1);
+        boolean reversed = flips.remove(flips.size() - 1);
+        descend(reversed ? node.left : node.right, reversed);
+        return node.song;
+      }
+    };
+  }
+
+  /**
+   * Returns the songs of this version in order.
+   *
+   * @return a new array of the songs
+   */
+  public Song[] toArray() {
+    Song[] songs = new Song[getSize()];
+    int i = 0;
+    for (Song song : this) {
+      songs[i++] = song;
+    }
+    return songs;
+  }
+
+  private static int size(Node node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private static int size(Entry entry) {
+    return entry == null ? 0 : entry.size;
+  }
+
+  // the label of the song at a position, as read
+  private long labelAt(int position) {
+    Node ptr = root;
+    boolean reversed = false;
+    while (true) {
+      reversed ^= ptr.reversed;
+      Node before = reversed ? ptr.right : ptr.left;
+      if (position <= size(before)) {
+        ptr = before;
+      } else if (position == size(before) + 1) {
+        return reversed ? -ptr.label : ptr.label;
+      } else {
+        position -= size(before) + 1;
+        ptr = reversed ? ptr.left : ptr.right;
+      }
+    }
+  }
+
+  // the position of the song with a given label, which this version must hold
+  private int positionOf(long label) {
+    Node ptr = root;
+    boolean reversed = false;
+    int position = 0;
+    while (true) {
+      reversed ^= ptr.reversed;
+      long own = reversed ? -ptr.label : ptr.label;
+      Node before = reversed ? ptr.right : ptr.left;
+      if (label < own) {
+        ptr = before;
+      } else if (label == own) {
+        return position + size(before) + 1;
+      } else {
+        position += size(before) + 1;
+        ptr = reversed ? ptr.left : ptr.right;
+      }
+    }
+  }
+
+  // a label for a song inserted at a position, between those of its neighbours, or NO_ROOM
+  private long labelBefore(int position) {
+    int size = getSize();
+    if (size == 0) {
+      return 0;
+    }
+    if (position == 1) {
+      long next = labelAt(1);
+      return next - GAP < -LIMIT ? NO_ROOM : next - GAP;
+    }
+    long previous = labelAt(position - 1);
+    if (position > size) {
+      return previous + GAP > LIMIT ? NO_ROOM : previous + GAP;
+    }
+    long next = labelAt(position);
+    return next - previous < 2 ? NO_ROOM : previous + (next - previous) / 2;
+  }
+
+  private static void checkPosition(int position, int max) {
+    if (position <= 0 || position > max) {
+      throw new IndexOutOfBoundsException("position " + position + " of " + max);
+    }
+  }
+
+  // a perfectly balanced tree of songs[from, to), labelled GAP apart
+  private static Node build(Song[] songs, int from, int to) {
+    if (from == to) {
+      return null;
+    }
+    int mid = (from + to) >>> 1;
+    Song song = songs[mid];
+    Node left = build(songs, from, mid);
+    Node right = build(songs, mid + 1, to);
+    return new Node(song, song.hashCode(), (mid + 1) * GAP, left, right, false);
+  }
+
+  // a copy of a node with its reversed flag moved down to its children; the node's own label is
+  // negated, as it is no longer read under the flag
+  private static Node pushDown(Node node) {
+    if (!node.reversed) {
+      return node;
+    }
+    return new Node(node.song, node.hash, -node.label, flip(node.right), flip(node.left), false);
+  }
+
+  private static Node flip(Node node) {
+    if (node == null) {
+      return null;
+    }
+    return new Node(node.song, node.hash, node.label, node.left, node.right, !node.reversed);
+  }
+
+  // splits a tree into its first k songs and the rest, copying the nodes along the way
+  private static Node[] split(Node node, int k) {
+    if (node == null) {
+      return new Node[2];
+    }
+    node = pushDown(node);
+    if (k <= size(node.left)) {
+      Node[] parts = split(node.left, k);
+      parts[1] = node.with(parts[1], node.right);
+      return parts;
+    }
+    Node[] parts = split(node.right, k - size(node.left) - 1);
+    parts[0] = node.with(node.left, parts[0]);
+    return parts;
+  }
+
+  // joins two trees, every song of a coming first; the root is picked with probability
+  // proportional to size, which keeps the tree random without storing priorities, even when
+  // versions share nodes
+  private static Node join(Node a, Node b) {
+    if (a == null) {
+      return b;
+    }
+    if (b == null) {
+      return a;
+    }
+    if (ThreadLocalRandom.current().nextInt(a.size + b.size) < a.size) {
+      a = pushDown(a);
+      return a.with(a.left, join(a.right, b));
+    }
+    b = pushDown(b);
+    return b.with(join(a, b.left), b.right);
+  }
+}
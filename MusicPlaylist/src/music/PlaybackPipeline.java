@@ -0,0 +1,262 @@
+package music;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * This class plays a sequence of songs through one {@link AudioSink}, without gaps between them.
+ *
+ * <p>A background thread opens the audio files of the songs ahead of time and reads their bytes
+ * into a ring of reusable chunks; the calling thread takes the chunks off the ring and writes them
+ * to the sink. The decoder keeps the next few songs open, so a song's file is opened and its header
+ * parsed while the song before it is still playing, and the sink is reopened only when the format
+ * changes. Songs with no link, or whose file can not be read, are skipped right away.
+ *
+ * <p>The ring holds a bounded number of chunks, so memory use does not depend on the length of the
+ * songs: the decoder waits when the ring is full, and the sink paces the whole pipeline.
+ */
+public class PlaybackPipeline {
+  /** The number of songs opened ahead of the one being played, unless given otherwise. */
+  public static final int DEFAULT_PREFETCH = 2;
+
+  private static final int CHUNK_SIZE = 1 << 14; // bytes per chunk of the ring
+  private static final int CHUNK_COUNT = 16; // chunks in the ring, about 1.5 s of CD audio
+
+  private final AudioSink sink; // where the audio goes
+  private final int prefetch; // the number of songs to open ahead
+
+  /**
+   * Receives the progress of a playback. Its methods are called on the thread that called {@link
+   * #play(Iterator, Listener)}, in the order of the songs.
+   */
+  public interface Listener {
+    /** Called before the first bytes of a song are written to the sink. */
+    default void started(Song song) {}
+
+    /** Called once the last bytes of a song have been written to the sink. */
+    default void finished(Song song) {}
+
+    /** Called instead of the other two for a song with no link or an unplayable file. */
+    default void skipped(Song song) {}
+  }
+
+  /*
+   * Constructor
+   */
+  public PlaybackPipeline(AudioSink sink, int prefetch) {
+    if (prefetch < 1) {
+      throw new IllegalArgumentException("prefetch must be at least 1");
+    }
+    this.sink = sink;
+    this.prefetch = prefetch;
+  }
+
+  /*
+   * Constructor that opens DEFAULT_PREFETCH songs ahead
+   */
+  public PlaybackPipeline(AudioSink sink) {
+    this(sink, DEFAULT_PREFETCH);
+  }
+
+  /**
+   * Plays songs one after the other and returns once the last one has been played. The songs are
+   * read from the iterator on a background thread, which must be the only one using it.
+   *
+   * @param songs the songs to play, in order
+   * @param listener told when each song starts, finishes or is skipped
+   * @throws RuntimeException if the background thread stopped early, for example because the
+   *     iterator threw; an Error that stopped it is rethrown as it is
+   */
+  public void play(Iterator<Song> songs, Listener listener) {
+    BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    for (int i = 0; i < CHUNK_COUNT; i++) {
+      free.add(new Chunk());
+    }
+    Thread decoder = new Thread(() -> decode(songs, free, filled), "playback-decoder");
+    decoder.setDaemon(true);
+    decoder.start();
+    try {
+      Song dropping = null; // a song whose format the sink could not be opened in
+      Chunk chunk;
+      while ((chunk = filled.take()).kind != Chunk.END) {
+        switch (chunk.kind) {
+          case Chunk.START:
+            try {
+              sink.open(chunk.format);
+              dropping = null;
+              listener.started(chunk.song);
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+              dropping = chunk.song;
+              listener.skipped(chunk.song);
+            }
+            break;
+          case Chunk.DATA:
+            if (dropping == null) {
+              sink.write(chunk.bytes, 0, chunk.length);
+            }
+            break;
+          case Chunk.FINISH:
+            if (dropping == null) {
+              listener.finished(chunk.song);
+            }
+            break;
+          default:
+            listener.skipped(chunk.song);
+        }
+        free.put(chunk);
+      }
+      if (chunk.error instanceof Error) {
+        throw (Error) chunk.error;
+      } else if (chunk.error instanceof RuntimeException) {
+        throw (RuntimeException) chunk.error;
+      } else if (chunk.error != null) {
+        throw new IllegalStateException("the decoder failed", chunk.error);
+      }
+      sink.drain();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      decoder.interrupt();
+    }
+  }
+
+  // runs on the decoder thread: opens songs ahead and fills chunks until the songs run out
+  private void decode(
+      Iterator<Song> songs, BlockingQueue<Chunk> free, BlockingQueue<Chunk> filled) {
+    ArrayDeque<Track> ahead = new ArrayDeque<>(prefetch + 1);
+    Throwable error = null; // stopped the decoder, passed on to the playing thread
+    try {
+      while (true) {
+        // the song about to be played plus the ones to open ahead of it
+        while (ahead.size() <= prefetch && songs.hasNext()) {
+          ahead.add(new Track(songs.next()));
+        }
+        Track track = ahead.poll();
+        if (track == null) {
+          break;
+        }
+        if (track.stream == null) {
+          filled.put(free.take().mark(Chunk.SKIP, track));
+          continue;
+        }
+        int frameSize = Math.max(1, track.stream.getFormat().getFrameSize());
+        int length = CHUNK_SIZE - CHUNK_SIZE % frameSize;
+        try (AudioInputStream stream = track.stream) {
+          filled.put(free.take().mark(Chunk.START, track));
+          while (true) {
+            Chunk chunk = free.take();
+            int count = stream.readNBytes(chunk.bytes, 0, length);
+            if (count <= 0) {
+              free.put(chunk);
+              break;
+            }
+            filled.put(chunk.data(count));
+          }
+        } catch (IOException e) {
+          // play what was read before the error
+        }
+        filled.put(free.take().mark(Chunk.FINISH, track));
+      }
+    } catch (InterruptedException e) {
+      return; // playback was stopped
+    } catch (Throwable e) {
+      // whatever stops the decoder, the playing thread must get its END chunk or it waits forever
+      error = e;
+    } finally {
+      for (Track track : ahead) {
+        track.close();
+      }
+    }
+    try {
+      Chunk end = free.take().mark(Chunk.END, null);
+      end.error = error;
+      filled.put(end);
+    } catch (InterruptedException e) {
+      // playback was stopped
+    }
+  }
+
+  /*
+   * A song together with its open audio stream, null when the song can not be played
+   */
+  private static class Track {
+    private final Song song;
+    private final AudioInputStream stream;
+
+    Track(Song song) {
+      this.song = song;
+      this.stream = open(song.getLink());
+    }
+
+    // opens a local file first, then a URL, like StdAudio does
+    private static AudioInputStream open(String link) {
+      if (link == null) {
+        return null;
+      }
+      try {
+        File file = new File(link);
+        if (file.exists()) {
+          return AudioSystem.getAudioInputStream(file);
+        }
+        return AudioSystem.getAudioInputStream(new URL(link));
+      } catch (IOException | UnsupportedAudioFileException e) {
+        return null;
+      }
+    }
+
+    void close() {
+      if (stream != null) {
+        try {
+          stream.close();
+        } catch (IOException e) {
+          // nothing more to release
+        }
+      }
+    }
+  }
+
+  /*
+   * An entry of the ring: a block of audio bytes, or a marker for the start, end or skip of a song
+   */
+  private static class Chunk {
+    static final int DATA = 0;
+    static final int START = 1;
+    static final int FINISH = 2;
+    static final int SKIP = 3;
+    static final int END = 4; // no songs left
+
+    final byte[] bytes = new byte[CHUNK_SIZE];
+    int kind;
+    int length; // the number of bytes used, for DATA chunks
+    Song song; // the song a marker is about
+    AudioFormat format; // the format of the song, for START chunks
+    Throwable error; // what stopped the decoder early, for the END chunk
+
+    Chunk mark(int kind, Track track) {
+      this.kind = kind;
+      this.length = 0;
+      this.song = track == null ? null : track.song;
+      this.format = track == null || track.stream == null ? null : track.stream.getFormat();
+      return this;
+    }
+
+    Chunk data(int length) {
+      this.kind = DATA;
+      this.length = length;
+      this.song = null;
+      this.format = null;
+      return this;
+    }
+  }
+}
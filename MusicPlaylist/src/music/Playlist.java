@@ -1,16 +1,61 @@
 package music;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * This class represents a playlist containing many songs.
  *
  * <p>The Playlist is a Circular Linked list of SongNode objects.
  *
+ * <p>Alongside the list the playlist keeps a positional index: the same SongNode objects are also
+ * linked into a treap ordered by list position, where every node knows the size of its subtree.
+ * That lets {@link #nodeAt(int)}, {@link #insert(int, Song)} and {@link #remove(SongNode)} run in
+ * O(log n) expected time instead of walking the list. While the index is built every node also
+ * knows its predecessor, so unlinking a node needs no search.
+ *
+ * <p>A second, hash based index maps every song to the nodes holding an equal song, chained
+ * through {@code SongNode.twin}, so {@link #remove(Song)} finds its node in O(1) expected time even
+ * when the playlist holds the same song more than once. While it exists the playlist listens to
+ * the {@link KeyTracker}s of its songs, and a song whose name, artist, year or popularity changes
+ * is moved to its new hash code the next time the index is used, in time proportional to the
+ * number of changed songs rather than to the size of the playlist. A tracker usually tracks every
+ * song of a library, so the playlist drops the changes to songs it does not hold right away, and
+ * keeps at most one pending change per song it holds, however long it goes unused.
+ *
+ * <p>{@link #reverse()} takes O(1) time once the positional index is built: instead of relinking
+ * the list it flips a flag, and while the flag is set the songs are read from the last node
+ * backwards through the predecessor references, with positions counted from the other end. Code in
+ * this package that only reads the songs walks them with {@link #tail()} and {@link
+ * #next(SongNode)}, which honor the flag. {@link #getLast()} hands out the raw list, so it first
+ * relinks the nodes into playlist order, in O(n) time, if the flag is set.
+ *
+ * <p>Both indexes are built lazily the first time they are needed, and they are dropped whenever
+ * the list is replaced through {@link #setLast(SongNode)} or {@link #setSize(int)}. Code that
+ * relinks nodes of a playlist directly through {@link SongNode#setNext(SongNode)} must call {@code
+ * setLast} afterwards so the indexes are rebuilt. A SongNode belongs to at most one playlist at a
+ * time.
+ *
  * @author Jeremy Hui
  * @author Vian Miranda
  */
 public class Playlist {
   private SongNode last; // reference to the last node in the Circular Linked List
   private int size; // the number of SongNodes (songs) in the list
+  private SongNode root; // root of the positional index, null when not built
+  private HashMap<Song.Key, SongNode> songs; // song to one node holding it, null when not built
+  private KeyChanges keyChanges; // changes to songs not yet applied to songs, null until built
+  private boolean reversed; // true when the songs are in the reverse of list order
 
   /*
    * Constructor
@@ -29,11 +74,16 @@ public class Playlist {
 
   /* Getter and setter methods */
   public SongNode getLast() {
+    if (reversed) {
+      relinkReversed();
+    }
     return last;
   }
 
   public void setLast(SongNode last) {
     this.last = last;
+    reversed = false;
+    dropIndexes();
   }
 
   public int getSize() {
@@ -42,5 +92,728 @@ public class Playlist {
 
   public void setSize(int size) {
     this.size = size;
+    dropIndexes();
+  }
+
+  /*
+   * Returns true if nodeAt() and positionOf() can run without building the positional index first,
+   * so that they only read the playlist
+   */
+  boolean isIndexed() {
+    return root != null || size == 0;
+  }
+
+  /*
+   * Called before code outside this class relinks the nodes of the playlist and sets them with
+   * setLast(); nothing needs to happen here
+   */
+  void relinking() {}
+
+  /**
+   * Reverses the order of the songs. Only the first reversal after the positional index is dropped
+   * costs O(n), to build it; the others take O(1) time.
+   */
+  void reverse() {
+    if (size <= 1) {
+      return;
+    }
+    ensureIndex();
+    reversed = !reversed;
+  }
+
+  /*
+   * Returns the last node in playlist order, null if the playlist is empty; unlike getLast() it
+   * never changes the list
+   */
+  SongNode tail() {
+    return reversed ? last.getNext() : last;
+  }
+
+  /*
+   * Returns the node after the given one in playlist order, wrapping around from the last node to
+   * the first
+   */
+  SongNode next(SongNode node) {
+    return reversed ? node.prev : node.getNext();
+  }
+
+  /**
+   * Returns the node at the given position, the first node being at position 1.
+   *
+   * @param position the position of the node, between 1 and the size of the playlist
+   * @return the node at that position
+   */
+  SongNode nodeAt(int position) {
+    return listNodeAt(reversed ? size + 1 - position : position);
+  }
+
+  // returns the node at the given position in list order, ignoring the reversed flag
+  private SongNode listNodeAt(int position) {
+    if (position == size) {
+      return last;
+    }
+    ensureIndex();
+    SongNode ptr = root;
+    while (true) {
+      int leftCount = count(ptr.left);
+      if (position <= leftCount) {
+        ptr = ptr.left;
+      } else if (position == leftCount + 1) {
+        return ptr;
+      } else {
+        position -= leftCount + 1;
+        ptr = ptr.right;
+      }
+    }
+  }
+
+  /**
+   * Returns the songs from a given position on, in O(log n + count) time: the first node is found
+   * through the positional index and the rest by following the list.
+   *
+   * @param position the position of the first song, between 1 and the size of the playlist
+   * @param count the most songs to return
+   * @return the songs, fewer than count if the playlist ends first
+   */
+  List<Song> songsFrom(int position, int count) {
+    int length = Math.max(0, Math.min(count, size - position + 1));
+    List<Song> page = new ArrayList<>(length);
+    SongNode ptr = length == 0 ? null : nodeAt(position);
+    for (int i = 0; i < length; i++, ptr = next(ptr)) {
+      page.add(ptr.getSong());
+    }
+    return page;
+  }
+
+  /**
+   * Returns the position of a node of this playlist, the first node being at position 1.
+   *
+   * @param node a node of this playlist
+   * @return the position of the node
+   */
+  int positionOf(SongNode node) {
+    int position = listPositionOf(node);
+    return reversed ? size + 1 - position : position;
+  }
+
+  // returns the position of a node in list order, ignoring the reversed flag
+  private int listPositionOf(SongNode node) {
+    if (node == last) {
+      return size;
+    }
+    ensureIndex();
+    int position = count(node.left) + 1;
+    for (SongNode ptr = node; ptr.parent != null; ptr = ptr.parent) {
+      if (ptr == ptr.parent.right) {
+        position += count(ptr.parent.left) + 1;
+      }
+    }
+    return position;
+  }
+
+  /**
+   * Returns the position at which a song keeps a sorted playlist sorted, after every song that
+   * does not sort after it, in O(log n) expected time: while the list is sorted, the positional
+   * index is ordered by the comparator too, so the position is found by descending it.
+   *
+   * @param song the song to place
+   * @param order the order the playlist is sorted in
+   * @return the position, between 1 and the size of the playlist plus one
+   */
+  int sortedPosition(Song song, Comparator<? super Song> order) {
+    if (size == 0) {
+      return 1;
+    }
+    ensureIndex();
+    // count the nodes at the front of the list that pass the test; while the flag is set the list
+    // holds the playlist backwards, so the nodes that sort after the song are the ones in front
+    int front = 0;
+    for (SongNode ptr = root; ptr != null; ) {
+      if ((order.compare(ptr.getSong(), song) <= 0) != reversed) {
+        front += count(ptr.left) + 1;
+        ptr = ptr.right;
+      } else {
+        ptr = ptr.left;
+      }
+    }
+    return (reversed ? size - front : front) + 1;
+  }
+
+  /**
+   * Inserts a song so that it ends up at the given position, the first node being at position 1.
+   *
+   * @param position the position of the new node, between 1 and the size of the playlist plus one
+   * @param song the song to insert
+   * @return the new node
+   */
+  SongNode insert(int position, Song song) {
+    SongNode node = new SongNode(song, null);
+    insert(position, node);
+    return node;
+  }
+
+  /**
+   * Inserts a node that belongs to no playlist so that it ends up at the given position, such as a
+   * node removed earlier that is being put back.
+   *
+   * @param position the position of the node, between 1 and the size of the playlist plus one
+   * @param node the node to insert
+   */
+  void insert(int position, SongNode node) {
+    Song song = node.getSong();
+    if (size == 0) {
+      node.setNext(node);
+      node.prev = node;
+      last = node;
+      size = 1;
+      reversed = false;
+      dropIndexes();
+      return;
+    }
+    ensureIndex();
+    if (reversed) {
+      position = size + 2 - position;
+    }
+    SongNode previous = position == 1 ? last : listNodeAt(position - 1);
+    node.setNext(previous.getNext());
+    node.prev = previous;
+    previous.getNext().prev = node;
+    previous.setNext(node);
+    if (position == size + 1) {
+      last = node;
+    }
+    indexInsert(position, node);
+    if (songs != null) {
+      // the nodes of a song changed since the index was last used are still under its old key
+      ensureSongIndex();
+      keyChanges.listenTo(song);
+      node.twin = songs.put(song.key(), node);
+    }
+    size++;
+  }
+
+  /**
+   * Removes the first node holding a song equal to the given one.
+   *
+   * @param song the song to remove
+   * @return the removed node, or null if no node holds an equal song
+   */
+  SongNode remove(Song song) {
+    SongNode node = find(song);
+    if (node != null) {
+      remove(node);
+    }
+    return node;
+  }
+
+  /**
+   * Returns the first node holding a song equal to the given one.
+   *
+   * @param song the song to look for
+   * @return the node closest to the front holding an equal song, or null if there is none
+   */
+  SongNode find(Song song) {
+    if (size == 0) {
+      return null;
+    }
+    ensureSongIndex();
+    SongNode node = songs.get(song.key());
+    if (node != null && node.twin != null) {
+      // the twins are in no particular order, so pick the one closest to the front
+      int position = positionOf(node);
+      for (SongNode twin = node.twin; twin != null; twin = twin.twin) {
+        int twinPosition = positionOf(twin);
+        if (twinPosition < position) {
+          node = twin;
+          position = twinPosition;
+        }
+      }
+    }
+    return node;
+  }
+
+  /*
+   * Returns the nodes holding the given song object, rather than an equal one, found through the
+   * song index
+   */
+  List<SongNode> nodesOf(Song song) {
+    List<SongNode> nodes = new ArrayList<>();
+    if (size == 0) {
+      return nodes;
+    }
+    ensureSongIndex();
+    for (SongNode node = songs.get(song.key()); node != null; node = node.twin) {
+      if (node.getSong() == song) {
+        nodes.add(node);
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Removes a node of this playlist.
+   *
+   * @param node the node to remove
+   */
+  void remove(SongNode node) {
+    if (size == 1) {
+      last = null;
+      size = 0;
+      reversed = false;
+      dropIndexes();
+      return;
+    }
+    ensureIndex();
+    if (songs != null) {
+      ensureSongIndex();
+      unlinkTwin(node);
+    }
+    indexRemove(node);
+    SongNode previous = node.prev;
+    previous.setNext(node.getNext());
+    node.getNext().prev = previous;
+    if (node == last) {
+      last = previous;
+    }
+    size--;
+  }
+
+  // forgets both indexes, they are rebuilt from the list on demand
+  private void dropIndexes() {
+    root = null;
+    songs = null;
+    if (keyChanges != null) {
+      keyChanges.stop();
+    }
+  }
+
+  /**
+   * Applies a batch of edits, all of which refer to the playlist as it was before the batch, as
+   * described in {@link PlaylistBatch}. A batch of k edits that is small next to an indexed
+   * playlist is applied edit by edit through the indexes, in O(k log n) expected time; any other
+   * batch is applied in one pass over the list, in O(n + k log k) time, and the indexes are rebuilt
+   * when next needed.
+   *
+   * @param positions the positions of the inserts, between 1 and the size of the playlist plus one
+   * @param inserts the songs to insert, in the same order as their positions
+   * @param removals the songs to remove
+   * @return the songs removed, in no particular order
+   */
+  List<Song> apply(int[] positions, Song[] inserts, List<Song> removals) {
+    long edits = inserts.length + removals.size();
+    if (edits == 0) {
+      return new ArrayList<>();
+    }
+    // log2(size) bounds the cost of one indexed edit
+    if (isIndexed() && edits * (32 - Integer.numberOfLeadingZeros(size)) < size) {
+      return applyIndexed(positions, inserts, removals);
+    }
+    return applyInOnePass(positions, inserts, removals);
+  }
+
+  // applies a batch through the indexes: every node is found before anything changes
+  private List<Song> applyIndexed(int[] positions, Song[] inserts, List<Song> removals) {
+    List<SongNode> doomed = new ArrayList<>(removals.size());
+    if (!removals.isEmpty()) {
+      ensureSongIndex();
+      HashMap<Song, Integer> wanted = new HashMap<>();
+      for (Song song : removals) {
+        wanted.merge(song, 1, Integer::sum);
+      }
+      for (Map.Entry<Song, Integer> entry : wanted.entrySet()) {
+        List<SongNode> twins = new ArrayList<>();
+        for (SongNode node = songs.get(entry.getKey().key()); node != null; node = node.twin) {
+          twins.add(node);
+        }
+        if (twins.size() > entry.getValue()) {
+          // the twins are in no particular order, so keep the ones closest to the front
+          twins.sort(Comparator.comparingInt(this::positionOf));
+          twins = twins.subList(0, entry.getValue());
+        }
+        doomed.addAll(twins);
+      }
+    }
+    // an insert goes before the node that held its position, null standing for the end
+    SongNode[] anchors = new SongNode[inserts.length];
+    for (int i = 0; i < inserts.length; i++) {
+      anchors[i] = positions[i] > size ? null : nodeAt(positions[i]);
+    }
+    for (int i = 0; i < inserts.length; i++) {
+      insert(anchors[i] == null ? size + 1 : positionOf(anchors[i]), inserts[i]);
+    }
+    List<Song> removed = new ArrayList<>(doomed.size());
+    for (SongNode node : doomed) {
+      remove(node);
+      removed.add(node.getSong());
+    }
+    return removed;
+  }
+
+  // applies a batch by walking the list once and relinking the nodes that stay with the new ones
+  private List<Song> applyInOnePass(int[] positions, Song[] inserts, List<Song> removals) {
+    // the inserts sorted by position, ties kept in batch order: position in the high half of each
+    // key, batch order in the low half
+    long[] order = new long[inserts.length];
+    for (int i = 0; i < inserts.length; i++) {
+      order[i] = (long) positions[i] << 32 | i;
+    }
+    Arrays.sort(order);
+    HashMap<Song, int[]> wanted = new HashMap<>(); // song to the number of copies left to remove
+    for (Song song : removals) {
+      wanted.computeIfAbsent(song, s -> new int[1])[0]++;
+    }
+    List<Song> removed = new ArrayList<>(removals.size());
+    SongNode[] nodes = new SongNode[size + inserts.length];
+    int count = 0;
+    int next = 0; // the first insert of order not yet placed
+    SongNode ptr = tail();
+    for (int position = 1; position <= size; position++) {
+      ptr = next(ptr);
+      while (next < order.length && (int) (order[next] >>> 32) == position) {
+        nodes[count++] = new SongNode(inserts[(int) order[next++]], null);
+      }
+      int[] left = wanted.isEmpty() ? null : wanted.get(ptr.getSong());
+      if (left != null && left[0] > 0) {
+        left[0]--;
+        removed.add(ptr.getSong());
+      } else {
+        nodes[count++] = ptr;
+      }
+    }
+    while (next < order.length) {
+      nodes[count++] = new SongNode(inserts[(int) order[next++]], null);
+    }
+    for (int i = 0; i < count - 1; i++) {
+      nodes[i].setNext(nodes[i + 1]);
+    }
+    if (count > 0) {
+      nodes[count - 1].setNext(nodes[0]);
+    }
+    setLast(count > 0 ? nodes[count - 1] : null);
+    setSize(count);
+    return removed;
+  }
+
+  // relinks the list into playlist order and clears the reversed flag, mirroring the positional
+  // index so it stays valid; the song index does not depend on the order
+  private void relinkReversed() {
+    SongNode first = last.getNext();
+    SongNode ptr = last;
+    for (int i = 0; i < size; i++) {
+      SongNode next = ptr.getNext();
+      ptr.setNext(ptr.prev);
+      ptr.prev = next;
+      SongNode left = ptr.left;
+      ptr.left = ptr.right;
+      ptr.right = left;
+      ptr = next;
+    }
+    last = first;
+    reversed = false;
+  }
+
+  // builds the song index from the list in linear time, or moves the songs that changed since it
+  // was last used
+  private void ensureSongIndex() {
+    if (songs != null) {
+      for (Map.Entry<Song, Song.Key> change; (change = keyChanges.poll()) != null; ) {
+        rekey(change.getKey(), change.getValue());
+      }
+      return;
+    }
+    if (keyChanges == null) {
+      keyChanges = new KeyChanges();
+    }
+    keyChanges.start();
+    songs = new HashMap<>(Math.max(16, size * 4 / 3 + 1));
+    SongNode ptr = last.getNext();
+    for (int i = 0; i < size; i++, ptr = ptr.getNext()) {
+      Song song = ptr.getSong();
+      keyChanges.listenTo(song);
+      ptr.twin = songs.put(song.key(), ptr);
+    }
+  }
+
+  // moves the nodes holding a song that changed from the chain of its old key to that of its new
+  // one
+  private void rekey(Song song, Song.Key before) {
+    SongNode moved = null;
+    SongNode kept = null;
+    SongNode keptTail = null;
+    for (SongNode ptr = songs.get(before); ptr != null; ) {
+      SongNode next = ptr.twin;
+      if (ptr.getSong() == song) {
+        ptr.twin = moved;
+        moved = ptr;
+      } else if (keptTail == null) {
+        kept = keptTail = ptr;
+      } else {
+        keptTail.twin = ptr;
+        keptTail = ptr;
+      }
+      ptr = next;
+    }
+    if (moved == null) {
+      return;
+    }
+    if (kept == null) {
+      songs.remove(before);
+    } else {
+      keptTail.twin = null;
+      songs.put(before, kept);
+    }
+    Song.Key key = song.key();
+    while (moved != null) {
+      SongNode next = moved.twin;
+      moved.twin = songs.put(key, moved);
+      moved = next;
+    }
+  }
+
+  // takes a node out of the chain of nodes holding equal songs
+  private void unlinkTwin(SongNode node) {
+    Song.Key key = node.getSong().key();
+    SongNode head = songs.get(key);
+    if (head == node) {
+      if (node.twin == null) {
+        songs.remove(key);
+      } else {
+        songs.put(key, node.twin);
+      }
+    } else if (head != null) {
+      SongNode ptr = head;
+      while (ptr.twin != null && ptr.twin != node) {
+        ptr = ptr.twin;
+      }
+      if (ptr.twin == node) {
+        ptr.twin = node.twin;
+      }
+    }
+    node.twin = null;
+    keyChanges.forget(node.getSong());
+  }
+
+  // builds the positional index and the prev references from the list in linear time
+  private void ensureIndex() {
+    if (root != null || size == 0) {
+      return;
+    }
+    // Cartesian tree construction: the stack holds the right spine of the treap built so far, and
+    // a node's subtree is complete once it is popped off the stack
+    SongNode[] spine = new SongNode[Math.min(size, 64)];
+    int height = 0;
+    SongNode ptr = last.getNext();
+    for (int i = 0; i < size; i++, ptr = ptr.getNext()) {
+      ptr.getNext().prev = ptr;
+      ptr.priority = ThreadLocalRandom.current().nextInt();
+      ptr.left = ptr.right = ptr.parent = null;
+      SongNode popped = null;
+      while (height > 0 && spine[height - 1].priority < ptr.priority) {
+        popped = spine[--height];
+        popped.count = count(popped.left) + count(popped.right) + 1;
+      }
+      ptr.left = popped;
+      if (popped != null) {
+        popped.parent = ptr;
+      }
+      if (height > 0) {
+        spine[height - 1].right = ptr;
+        ptr.parent = spine[height - 1];
+      }
+      if (height == spine.length) {
+        spine = Arrays.copyOf(spine, 2 * height);
+      }
+      spine[height++] = ptr;
+    }
+    while (height > 0) {
+      SongNode popped = spine[--height];
+      popped.count = count(popped.left) + count(popped.right) + 1;
+    }
+    root = spine[0];
+  }
+
+  // links a fresh node into the index as the node at the given position
+  private void indexInsert(int position, SongNode node) {
+    node.left = node.right = null;
+    node.count = 1;
+    node.priority = ThreadLocalRandom.current().nextInt();
+    SongNode parent;
+    if (position == size + 1) {
+      parent = root;
+      while (parent.right != null) {
+        parent = parent.right;
+      }
+      parent.right = node;
+    } else {
+      parent = listNodeAt(position);
+      if (parent.left == null) {
+        parent.left = node;
+      } else {
+        parent = parent.left;
+        while (parent.right != null) {
+          parent = parent.right;
+        }
+        parent.right = node;
+      }
+    }
+    node.parent = parent;
+    for (SongNode ptr = parent; ptr != null; ptr = ptr.parent) {
+      ptr.count++;
+    }
+    while (node.parent != null && node.parent.priority < node.priority) {
+      rotateUp(node);
+    }
+  }
+
+  // unlinks a node from the index
+  private void indexRemove(SongNode node) {
+    // rotate the node down until it is a leaf, keeping the heap order among the others
+    while (node.left != null || node.right != null) {
+      SongNode child;
+      if (node.left == null) {
+        child = node.right;
+      } else if (node.right == null) {
+        child = node.left;
+      } else {
+        child = node.left.priority > node.right.priority ? node.left : node.right;
+      }
+      rotateUp(child);
+    }
+    SongNode parent = node.parent;
+    if (parent == null) {
+      root = null;
+    } else if (parent.left == node) {
+      parent.left = null;
+    } else {
+      parent.right = null;
+    }
+    for (SongNode ptr = parent; ptr != null; ptr = ptr.parent) {
+      ptr.count--;
+    }
+    node.parent = null;
+  }
+
+  // rotates a node above its parent, keeping the in-order sequence and subtree counts
+  private void rotateUp(SongNode node) {
+    SongNode parent = node.parent;
+    SongNode grandparent = parent.parent;
+    if (parent.left == node) {
+      parent.left = node.right;
+      if (node.right != null) {
+        node.right.parent = parent;
+      }
+      node.right = parent;
+    } else {
+      parent.right = node.left;
+      if (node.left != null) {
+        node.left.parent = parent;
+      }
+      node.left = parent;
+    }
+    parent.parent = node;
+    node.parent = grandparent;
+    if (grandparent == null) {
+      root = node;
+    } else if (grandparent.left == parent) {
+      grandparent.left = node;
+    } else {
+      grandparent.right = node;
+    }
+    parent.count = count(parent.left) + count(parent.right) + 1;
+    node.count = count(node.left) + count(node.right) + 1;
+  }
+
+  private static int count(SongNode node) {
+    return node == null ? 0 : node.count;
+  }
+
+  /*
+   * Hears about changes to the songs of a playlist while its song index exists, and queues them
+   * until the index is next used, on whichever thread uses the playlist. Changes to songs the
+   * index does not hold are dropped as they arrive, and a song is queued once however often it
+   * changes before the index is used, so the queue never holds more than the playlist's songs
+   */
+  private static final class KeyChanges implements Song.KeyListener {
+    // tracks the songs of the playlist that no library tracks
+    private final KeyTracker tracker = new KeyTracker();
+    // the songs that changed, each with its key before its first change since it was last queued
+    private final ConcurrentLinkedQueue<Map.Entry<Song, Song.Key>> queue =
+        new ConcurrentLinkedQueue<>();
+    // the songs of the index, each with its number of nodes and 1 if a change to it is queued;
+    // guarded by this, since changes arrive from any thread
+    private final IdentityHashMap<Song, int[]> indexed = new IdentityHashMap<>();
+    // the trackers listened to, and the latest of them, which usually tracks every song
+    private final Set<KeyTracker> trackers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private KeyTracker latest;
+    private boolean listening; // true while the song index exists, guarded by this
+
+    /*
+     * Starts queueing changes, for a song index built from now on
+     */
+    synchronized void start() {
+      queue.clear();
+      indexed.clear();
+      listening = true;
+    }
+
+    /*
+     * Stops queueing changes, since the song index was dropped
+     */
+    synchronized void stop() {
+      listening = false;
+      queue.clear();
+      indexed.clear();
+    }
+
+    /*
+     * Listens to the tracker of a song the index just took in, making this playlist's tracker
+     * track it if none does
+     */
+    void listenTo(Song song) {
+      KeyTracker songTracker = song.track(tracker);
+      if (songTracker != latest) {
+        if (trackers.add(songTracker)) {
+          songTracker.addListener(this);
+        }
+        latest = songTracker;
+      }
+      synchronized (this) {
+        indexed.computeIfAbsent(song, s -> new int[2])[0]++;
+      }
+    }
+
+    /*
+     * Records that the index let go of a node holding a song
+     */
+    synchronized void forget(Song song) {
+      int[] counts = indexed.get(song);
+      if (counts != null && --counts[0] == 0) {
+        indexed.remove(song);
+      }
+    }
+
+    /*
+     * Returns the oldest change not yet applied, or null if there is none
+     */
+    synchronized Map.Entry<Song, Song.Key> poll() {
+      Map.Entry<Song, Song.Key> change = queue.poll();
+      if (change != null) {
+        int[] counts = indexed.get(change.getKey());
+        if (counts != null) {
+          counts[1] = 0;
+        }
+      }
+      return change;
+    }
+
+    @Override
+    public synchronized void keyChanged(Song song, Song.Key before) {
+      int[] counts = listening ? indexed.get(song) : null;
+      // a song changed again is still filed under the key of its first change
+      if (counts != null && counts[1] == 0) {
+        counts[1] = 1;
+        queue.add(new AbstractMap.SimpleImmutableEntry<>(song, before));
+      }
+    }
   }
 }
@@ -0,0 +1,103 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class collects inserts and removals to apply to one playlist at once, through
+ * PlaylistLibrary.applyEdits() or ConcurrentPlaylistLibrary.applyEdits().
+ *
+ * <p>The edits of a batch all refer to the playlist as it was before the batch: an insert at
+ * position p goes before the song that was at position p, or at the end for the size of the
+ * playlist plus one, and inserts at the same position keep the order they were added in. Each
+ * removal takes out the first song equal to it that no earlier removal of the batch took, so
+ * removing a song twice removes its first two occurrences. Songs inserted by the batch are never
+ * removed by it.
+ *
+ * <p>A batch can be applied to several playlists, and reused after {@link #clear()}.
+ */
+public class PlaylistBatch {
+  private int[] positions = new int[16]; // positions of the inserts, in the order they were added
+  private Song[] inserts = new Song[16]; // songs of the inserts
+  private int insertCount; // the number of inserts
+  private final ArrayList<Song> removals = new ArrayList<>(); // songs to remove
+
+  /**
+   * Adds an insert to the batch.
+   *
+   * @param position the position of the new song in the playlist before the batch, the first song
+   *     being at position 1
+   * @param song the song to insert
+   * @return this batch
+   */
+  public PlaylistBatch insert(int position, Song song) {
+    if (insertCount == inserts.length) {
+      positions = Arrays.copyOf(positions, 2 * insertCount);
+      inserts = Arrays.copyOf(inserts, 2 * insertCount);
+    }
+    positions[insertCount] = position;
+    inserts[insertCount++] = song;
+    return this;
+  }
+
+  /**
+   * Adds a removal to the batch.
+   *
+   * @param song the song to remove, compared with equals()
+   * @return this batch
+   */
+  public PlaylistBatch remove(Song song) {
+    removals.add(song);
+    return this;
+  }
+
+  /**
+   * Returns the number of edits in the batch.
+   *
+   * @return the number of inserts plus the number of removals
+   */
+  public int size() {
+    return insertCount + removals.size();
+  }
+
+  /** Removes every edit from the batch. */
+  public void clear() {
+    Arrays.fill(inserts, 0, insertCount, null);
+    insertCount = 0;
+    removals.clear();
+  }
+
+  /*
+   * Returns true if every insert position is valid for a playlist of the given size
+   */
+  boolean fits(int size) {
+    for (int i = 0; i < insertCount; i++) {
+      if (positions[i] <= 0 || positions[i] > size + 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Returns the positions of the inserts, in the order they were added
+   */
+  int[] positions() {
+    return Arrays.copyOf(positions, insertCount);
+  }
+
+  /*
+   * Returns the songs of the inserts, in the order they were added
+   */
+  Song[] inserts() {
+    return Arrays.copyOf(inserts, insertCount);
+  }
+
+  /*
+   * Returns the songs to remove, in the order they were added
+   */
+  List<Song> removals() {
+    return removals;
+  }
+}
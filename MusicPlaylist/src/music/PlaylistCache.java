@@ -0,0 +1,116 @@
+package music;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * This class keeps the songs that the {@link LazyPlaylist}s of a library hold in memory within a
+ * budget.
+ *
+ * <p>The cache keeps the lazy playlists whose songs are in memory, in the order they read them.
+ * Every time one reads its songs, the cache adds up the songs of those playlists, without reading
+ * the rest of the library. While they exceed the budget it evicts the playlists that were used
+ * least recently, skipping the ones that changed since they were read, which can not be evicted.
+ * A use only takes a number from an atomic counter, so uses from several threads never wait for
+ * each other, and the order of the uses is only worked out when something has to be evicted. The
+ * budget is counted in songs rather than bytes, since a node costs about the same whatever its
+ * song. Playlists that were never lazy are not counted.
+ *
+ * <p>Playlists are held weakly, so one that left the library and is not used anywhere else is
+ * forgotten rather than kept in memory by the cache.
+ *
+ * <p>The cache also tells the library's {@link LibraryIndex} when a lazy playlist reads its songs
+ * and before it drops them, so the index holds the songs of loaded playlists only.
+ */
+final class PlaylistCache {
+  private final Supplier<LibraryIndex> index; // the index of the library, may give null
+  // the playlists whose songs are in memory, by the handles they were loaded under
+  private final LinkedHashSet<WeakReference<LazyPlaylist>> loaded = new LinkedHashSet<>();
+  private final AtomicLong clock = new AtomicLong(); // counts uses, to tell which came last
+  private int budget = Integer.MAX_VALUE; // the most songs the loaded lazy playlists may hold
+
+  /*
+   * Constructor for a cache keeping the index the supplier gives up to date, with no budget
+   */
+  PlaylistCache(Supplier<LibraryIndex> index) {
+    this.index = index;
+  }
+
+  /*
+   * Returns the most songs the loaded lazy playlists may hold
+   */
+  int getBudget() {
+    return budget;
+  }
+
+  /*
+   * Sets the most songs the loaded lazy playlists may hold, evicting playlists right away if they
+   * hold more
+   */
+  synchronized void setBudget(int budget) {
+    if (budget < 0) {
+      throw new IllegalArgumentException("budget must not be negative: " + budget);
+    }
+    this.budget = budget;
+    trim(null);
+  }
+
+  /*
+   * Returns a number larger than the ones returned before, from any thread
+   */
+  long tick() {
+    return clock.incrementAndGet();
+  }
+
+  /*
+   * Called by a lazy playlist that just read its songs, to evict other playlists if needed
+   */
+  synchronized void loaded(LazyPlaylist playlist) {
+    loaded.add(playlist.handle());
+    LibraryIndex songs = index.get();
+    if (songs != null) {
+      songs.loaded(playlist);
+    }
+    trim(playlist);
+  }
+
+  // evicts the least recently used unchanged playlists, other than keep, until the loaded lazy
+  // playlists fit the budget
+  private void trim(LazyPlaylist keep) {
+    List<LazyPlaylist> evictable = new ArrayList<>();
+    long songs = 0;
+    for (Iterator<WeakReference<LazyPlaylist>> it = loaded.iterator(); it.hasNext(); ) {
+      LazyPlaylist lazy = it.next().get();
+      if (lazy == null) {
+        it.remove(); // collected along with its songs
+        continue;
+      }
+      songs += lazy.getSize();
+      if (lazy != keep && lazy.isEvictable()) {
+        evictable.add(lazy);
+      }
+    }
+    if (songs <= budget) {
+      return;
+    }
+    evictable.sort(Comparator.comparingLong(LazyPlaylist::getLastUse));
+    LibraryIndex indexed = index.get();
+    for (LazyPlaylist lazy : evictable) {
+      if (songs <= budget) {
+        break;
+      }
+      songs -= lazy.getSize();
+      if (indexed != null) {
+        indexed.evicting(lazy);
+      }
+      lazy.evict();
+      loaded.remove(lazy.handle());
+    }
+  }
+}
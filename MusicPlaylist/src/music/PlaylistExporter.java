@@ -0,0 +1,323 @@
+package music;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class writes playlists to csv or json files.
+ *
+ * <p>A playlist exported as csv has one line per song in the format songName,artist,year,
+ * popularity,link, the format {@link PlaylistLoader} and createPlaylist() read, so the link is the
+ * file name without the directory the Song constructor puts in front of it, and it is empty when
+ * the song has no link. A field holding a comma, a double quote or a line break is quoted as in RFC
+ * 4180, which spreadsheets understand but PlaylistLoader does not. Exported as json, a playlist is
+ * an array of objects with the fields name, artist, year, popularity and link, where link is the
+ * full path returned by getLink().
+ *
+ * <p>A whole library goes to a single file: as csv with the index of the playlist in front of
+ * every line, and as json as an array of playlists.
+ *
+ * <p>The text of a few hundred songs at a time is put together in a StringBuilder, encoded as UTF-8
+ * into one direct buffer and written to a FileChannel, so exporting costs one write call per chunk
+ * rather than one per song, and a file of any size is written with a fixed amount of memory.
+ * {@link #exportAll(List, String[], Format)} writes many playlists into separate files at once on
+ * an Executor.
+ */
+public class PlaylistExporter {
+  private static final int BUFFER_SIZE = 1 << 16; // bytes written to the channel at a time
+  private static final int CHUNK_SIZE = 1 << 15; // chars gathered before they are encoded
+
+  /** The formats a playlist can be exported in. */
+  public enum Format {
+    CSV,
+    JSON
+  }
+
+  private final Executor executor; // runs the exports of exportAll()
+
+  /*
+   * Constructor, the executor runs one task per file in exportAll()
+   */
+  public PlaylistExporter(Executor executor) {
+    this.executor = executor;
+  }
+
+  /*
+   * Default constructor exports files on the common fork-join pool
+   */
+  public PlaylistExporter() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Writes a playlist to a file, replacing the file if it exists.
+   *
+   * @param playlist the playlist to export
+   * @param filename the file to write
+   * @param format the format to write in
+   * @throws UncheckedIOException if the file can not be written
+   */
+  public void export(Playlist playlist, String filename, Format format) {
+    try (TextWriter out = new TextWriter(open(filename))) {
+      write(playlist, -1, format, out);
+    } catch (IOException e) {
+      throw new UncheckedIOException("could not write " + filename, e);
+    }
+  }
+
+  /**
+   * Writes every playlist of a library to one file, replacing the file if it exists.
+   *
+   * @param playlists the playlists of the library
+   * @param filename the file to write
+   * @param format the format to write in
+   * @throws UncheckedIOException if the file can not be written
+   */
+  public void exportLibrary(List<Playlist> playlists, String filename, Format format) {
+    try (TextWriter out = new TextWriter(open(filename))) {
+      if (format == Format.JSON) {
+        out.append('[');
+      }
+      for (int i = 0; i < playlists.size(); i++) {
+        if (format == Format.JSON && i > 0) {
+          out.append(',');
+        }
+        write(playlists.get(i), i, format, out);
+      }
+      if (format == Format.JSON) {
+        out.append("]\n");
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("could not write " + filename, e);
+    }
+  }
+
+  /**
+   * Writes many playlists to files concurrently, each playlist to its own file. The playlists must
+   * not be changed until the call returns.
+   *
+   * @param playlists the playlists to export
+   * @param filenames the files to write, one per playlist
+   * @param format the format to write in
+   * @throws UncheckedIOException if a file can not be written; the other files are still written
+   */
+  public void exportAll(List<Playlist> playlists, String[] filenames, Format format) {
+    if (playlists.size() != filenames.length) {
+      throw new IllegalArgumentException(
+          playlists.size() + " playlists but " + filenames.length + " filenames");
+    }
+    ArrayList<CompletableFuture<Void>> exports = new ArrayList<>(filenames.length);
+    for (int i = 0; i < filenames.length; i++) {
+      Playlist playlist = playlists.get(i);
+      String filename = filenames[i];
+      exports.add(CompletableFuture.runAsync(() -> export(playlist, filename, format), executor));
+    }
+    RuntimeException failure = null;
+    for (CompletableFuture<Void> export : exports) {
+      try {
+        export.join();
+      } catch (CompletionException e) {
+        if (failure == null) {
+          failure =
+              e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Writes a playlist to a channel that is left open, for example one to standard output.
+   *
+   * @param playlist the playlist to export
+   * @param channel the channel to write to
+   * @param format the format to write in
+   * @throws IOException if the channel can not be written
+   */
+  public void export(Playlist playlist, WritableByteChannel channel, Format format)
+      throws IOException {
+    TextWriter out = new TextWriter(channel);
+    write(playlist, -1, format, out);
+    out.flush();
+  }
+
+  private static FileChannel open(String filename) throws IOException {
+    return FileChannel.open(
+        Paths.get(filename),
+        StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  // writes the songs of a playlist, prefixed by playlistIndex on each csv line unless it is -1
+  private static void write(Playlist playlist, int playlistIndex, Format format, TextWriter out)
+      throws IOException {
+    if (format == Format.JSON) {
+      out.append('[');
+    }
+    SongNode ptr = playlist.tail();
+    for (int i = 0; i < playlist.getSize(); i++) {
+      ptr = playlist.next(ptr);
+      Song song = ptr.getSong();
+      if (format == Format.CSV) {
+        if (playlistIndex >= 0) {
+          out.append(playlistIndex).append(',');
+        }
+        csv(out, song.getSongName()).append(',');
+        csv(out, song.getArtist()).append(',');
+        out.append(song.getYear()).append(',').append(song.getPopularity()).append(',');
+        csv(out, fileName(song)).append('\n');
+      } else {
+        out.append(i == 0 ? "\n{\"name\":" : ",\n{\"name\":");
+        json(out, song.getSongName()).append(",\"artist\":");
+        json(out, song.getArtist()).append(",\"year\":").append(song.getYear());
+        out.append(",\"popularity\":").append(song.getPopularity()).append(",\"link\":");
+        json(out, song.getLink()).append('}');
+      }
+      out.endRecord();
+    }
+    if (format == Format.JSON) {
+      out.append(playlistIndex < 0 ? "]\n" : "]");
+    }
+  }
+
+  // the link as it appears in a csv file, which the Song constructor prefixes with a directory
+  private static String fileName(Song song) {
+    String link = song.getLink();
+    String directory = song.getDirectory() + song.getYear() + "/";
+    return link != null && link.startsWith(directory) ? link.substring(directory.length()) : link;
+  }
+
+  private static TextWriter csv(TextWriter out, String field) {
+    if (field == null) {
+      return out;
+    }
+    boolean quote = false;
+    for (int i = 0; i < field.length() && !quote; i++) {
+      char c = field.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      return out.append(field);
+    }
+    out.append('"');
+    for (int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      if (c == '"') {
+        out.append('"');
+      }
+      out.append(c);
+    }
+    return out.append('"');
+  }
+
+  private static TextWriter json(TextWriter out, String value) {
+    if (value == null) {
+      return out.append("null");
+    }
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    return out.append('"');
+  }
+
+  /*
+   * Gathers text in a StringBuilder and writes it to a channel as UTF-8 through one direct buffer,
+   * a chunk at a time
+   */
+  private static class TextWriter implements AutoCloseable {
+    private final WritableByteChannel channel;
+    private final StringBuilder chunk = new StringBuilder(CHUNK_SIZE + 1024);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    TextWriter(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    TextWriter append(String s) {
+      chunk.append(s);
+      return this;
+    }
+
+    TextWriter append(char c) {
+      chunk.append(c);
+      return this;
+    }
+
+    TextWriter append(int i) {
+      chunk.append(i);
+      return this;
+    }
+
+    // called between songs, so a chunk never ends inside a surrogate pair
+    void endRecord() throws IOException {
+      if (chunk.length() >= CHUNK_SIZE) {
+        encodeChunk();
+      }
+    }
+
+    void flush() throws IOException {
+      encodeChunk();
+      drain();
+    }
+
+    private void encodeChunk() throws IOException {
+      CharBuffer chars = CharBuffer.wrap(chunk);
+      encoder.reset();
+      CoderResult result;
+      while ((result = encoder.encode(chars, buffer, true)).isOverflow()) {
+        drain();
+      }
+      if (result.isError()) {
+        result.throwException();
+      }
+      while (encoder.flush(buffer).isOverflow()) {
+        drain();
+      }
+      chunk.setLength(0);
+    }
+
+    private void drain() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package music;
+
+import java.util.ArrayDeque;
+import java.util.function.UnaryOperator;
+
+/**
+ * This class keeps the versions of a {@link PersistentPlaylist} as it is edited, so that edits can
+ * be undone and redone.
+ *
+ * <p>Versions share all the nodes they have in common, so remembering the version before an edit
+ * costs only the nodes that edit copied, not a copy of the whole playlist. Undo and redo just move
+ * between versions in O(1) time.
+ *
+ * <p>The history may be used from several threads. Edits, undo and redo are serialized, while
+ * {@link #current()} is a single volatile read, so readers never wait: a reader holding a version
+ * can keep iterating over it however the history moves on.
+ */
+public class PlaylistHistory {
+  public static final int DEFAULT_LIMIT = 100;
+
+  private final ArrayDeque<PersistentPlaylist> undo = new ArrayDeque<>(); // newest first
+  private final ArrayDeque<PersistentPlaylist> redo = new ArrayDeque<>(); // next first
+  private final int limit; // the most versions undo keeps
+  private volatile PersistentPlaylist current;
+
+  /*
+   * Constructor for a history starting at the given version
+   */
+  public PlaylistHistory(PersistentPlaylist initial, int limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit must not be negative: " + limit);
+    }
+    this.current = initial;
+    this.limit = limit;
+  }
+
+  /*
+   * Constructor for a history starting at the given version, keeping DEFAULT_LIMIT versions
+   */
+  public PlaylistHistory(PersistentPlaylist initial) {
+    this(initial, DEFAULT_LIMIT);
+  }
+
+  /*
+   * Default constructor starts at the empty playlist
+   */
+  public PlaylistHistory() {
+    this(PersistentPlaylist.empty());
+  }
+
+  /**
+   * Returns the current version, without locking.
+   *
+   * @return the current version
+   */
+  public PersistentPlaylist current() {
+    return current;
+  }
+
+  /**
+   * Makes the result of an edit the current version. The version it replaces can be restored by
+   * undo(), and whatever redo() could have restored is forgotten.
+   *
+   * @param edit the edit, given the current version and returning the new one
+   * @return the new current version
+   */
+  public synchronized PersistentPlaylist apply(UnaryOperator<PersistentPlaylist> edit) {
+    PersistentPlaylist next = edit.apply(current);
+    if (next == current) {
+      return current; // nothing changed, nothing to undo
+    }
+    if (limit > 0) {
+      if (undo.size() == limit) {
+        undo.removeLast();
+      }
+      undo.push(current);
+    }
+    redo.clear();
+    current = next;
+    return next;
+  }
+
+  /**
+   * Restores the version before the last edit.
+   *
+   * @return true if there was an edit to undo, false otherwise
+   */
+  public synchronized boolean undo() {
+    if (undo.isEmpty()) {
+      return false;
+    }
+    redo.push(current);
+    current = undo.pop();
+    return true;
+  }
+
+  /**
+   * Restores the version the last undo() went back from.
+   *
+   * @return true if there was an undo to redo, false otherwise
+   */
+  public synchronized boolean redo() {
+    if (redo.isEmpty()) {
+      return false;
+    }
+    undo.push(current);
+    current = redo.pop();
+    return true;
+  }
+
+  public synchronized boolean canUndo() {
+    return !undo.isEmpty();
+  }
+
+  public synchronized boolean canRedo() {
+    return !redo.isEmpty();
+  }
+}
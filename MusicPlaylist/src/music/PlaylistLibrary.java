@@ -1,6 +1,8 @@
 package music;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 
 /**
  * This class represents a library of song playlists.
@@ -12,6 +14,16 @@ import java.util.*;
  */
 public class PlaylistLibrary {
   private ArrayList<Playlist> songLibrary; // contains various playlists
+  private final SongPool songPool = new SongPool(); // one shared copy of every distinct song
+  private final PlaylistLoader loader = // reads playlist csv files into songPool
+      new PlaylistLoader(ForkJoinPool.commonPool(), songPool);
+  private final PlaylistExporter exporter = // writes playlists to csv and json files
+      new PlaylistExporter(ForkJoinPool.commonPool());
+  private final PlaylistCache cache = // keeps playlists loaded by addAllPlaylists() within budget
+      new PlaylistCache(() -> this.index);
+  private AudioSink audioSink; // where playPlaylist() plays songs, created on first use
+  private LibraryIndex index; // songs by artist, year and popularity, built by the first query
+  private final LibraryHistory history = new LibraryHistory(); // the edits undo() takes back
 
   /**
    * DO NOT EDIT! Constructor for Library.
@@ -29,61 +41,26 @@ public class PlaylistLibrary {
 
   /**
    * This method reads the songs from an input csv file, and creates a playlist from it. Each song
-   * is on a different line.
-   *
-   * <p>1. Open the file using StdIn.setFile(filename);
-   *
-   * <p>2. Declare a reference that will refer to the last song of the circular linked list.
-   *
-   * <p>3. While there are still lines in the input file: 1. read a song from the file 2. create an
-   * object of type Song with the song information 3. Create a SongNode object that holds the Song
-   * object from step 3.2. 4. insert the Song object at the END of the circular linked list (use the
-   * reference from step 2) 5. increase the count of the number of songs
-   *
-   * <p>4. Create a Playlist object with the reference from step (2) and the number of songs in the
-   * playlist
-   *
-   * <p>5. Return the Playlist object
+   * is on a different line, and each song is added at the END of the circular linked list, so the
+   * playlist keeps the order of the file.
    *
    * <p>Each line of the input file has the following format: songName,artist,year,popularity,link
    *
-   * <p>To read a line, use StdIn.readline(), then use .split(",") to extract fields from the line.
-   *
    * <p>If the playlist is empty, return a Playlist object with null for its last, and 0 for its
    * size.
    *
    * <p>The input file has Songs in decreasing popularity order.
    *
-   * <p>DO NOT implement a sorting method, PRACTICE add to end.
+   * <p>The file is read by a {@link PlaylistLoader}, which scans the bytes of the file for commas
+   * and line breaks itself rather than reading lines through StdIn and splitting them.
    *
    * @param filename the playlist information input file
    * @return a Playlist object, which contains a reference to the LAST song in the circular
    *     linkedlist playlist and the size of the playlist.
    */
   public Playlist createPlaylist(String filename) {
-    Playlist playlist = new Playlist();
-    SongNode last = null;
-    StdIn.setFile(filename);
-    while (StdIn.hasNextLine()) {
-      String[] data = StdIn.readLine().split(",");
-      String name = data[0];
-      String artist = data[1];
-      int year = Integer.parseInt(data[2]);
-      int pop = Integer.parseInt(data[3]);
-      String link = data[4];
-      Song song = new Song(name, artist, year, pop, link);
-      if (playlist.getSize() == 0) {
-        SongNode songNode = last = new SongNode(song, null);
-        songNode.setNext(last);
-      } else {
-        SongNode songNode = new SongNode(song, last.getNext());
-        last.setNext(songNode);
-        last = songNode;
-      }
-      playlist.setSize(playlist.getSize() + 1);
-    }
-    playlist.setLast(last);
-    return playlist;
+    // the loader tokenizes the file's bytes directly instead of going through the global StdIn
+    return loader.load(filename);
   }
 
   /**
@@ -137,7 +114,15 @@ public class PlaylistLibrary {
    *
    * <p>The playlist will have the same index in songLibrary as it has in the filenames array. For
    * example if the playlist is being created from the filename[i] it will be added to
-   * songLibrary[i]. Use the addPlaylist() method.
+   * songLibrary[i].
+   *
+   * <p>The files are not opened here. Each playlist added is a {@link LazyPlaylist}, a stub that
+   * counts the songs of its file the first time its size is asked and reads them the first time
+   * they are used, so adding a library of many files costs time and memory for the playlists
+   * actually used only. A file that cannot be opened gives an empty playlist, reported when it is
+   * first used, and a malformed line is only reported when its playlist is read. Playlists first
+   * used from several threads at once, as by exportPlaylists(), read their files concurrently.
+   * See {@link #setMemoryBudget(int)} to bound the songs kept in memory.
    *
    * @param filenames an array of the filenames of playlists that should be added to the library
    */
@@ -145,9 +130,34 @@ public class PlaylistLibrary {
     if (this.songLibrary == null) {
       this.songLibrary = new ArrayList<Playlist>();
     }
-    for (String filename : filenames) {
-      this.addPlaylist(filename, this.songLibrary.size());
-    }
+    this.songLibrary.addAll(loader.loadAllLazily(filenames, cache));
+  }
+
+  /**
+   * Sets the most songs the playlists added by addAllPlaylists() may keep in memory, which is not
+   * limited by default.
+   *
+   * <p>Whenever such a playlist reads its file and the songs in memory exceed the budget, the
+   * playlists used least recently are turned back into stubs until they fit, to be read from their
+   * files again when next used. Playlists changed since they were read are never evicted, since
+   * their files no longer hold their songs, so they can hold the library above the budget. The
+   * budget counts the songs of the playlists. Evicted songs are freed unless another playlist
+   * still holds them, and the SongPool makes songs shared by many files take memory once.
+   *
+   * @param songs the most songs to keep in memory
+   * @throws IllegalArgumentException if songs is negative
+   */
+  public void setMemoryBudget(int songs) {
+    cache.setBudget(songs);
+  }
+
+  /**
+   * Returns the most songs the playlists added by addAllPlaylists() may keep in memory.
+   *
+   * @return the budget, Integer.MAX_VALUE if there is none
+   */
+  public int getMemoryBudget() {
+    return cache.getBudget();
   }
 
   /**
@@ -161,6 +171,12 @@ public class PlaylistLibrary {
    *
    * <p>Increment the size of the playlist if the song has been successfully added to the playlist.
    *
+   * <p>If the library already holds a song equal to the given one, that song is added instead, so
+   * each distinct track is stored once.
+   *
+   * <p>A sorted view, see {@link #makeSortedView(int, Comparator)}, puts the song at its place in
+   * the view's order instead of the given position, which must still be in range.
+   *
    * @param playlistIndex the index where the playlist will be added
    * @param position the position in the playlist to which the song is to be added
    * @param song the song to add
@@ -168,43 +184,95 @@ public class PlaylistLibrary {
    */
   public boolean insertSong(int playlistIndex, int position, Song song) {
     Playlist playlist = songLibrary.get(playlistIndex);
-    int playlistSize = playlist.getSize();
-    if (position <= 0 || position > playlistSize + 1) {
+    if (position <= 0 || position > playlist.getSize() + 1) {
       return false;
     }
-    // if the song can be inserted, increment first
-    playlist.setSize(playlistSize + 1);
-    // insert into empty
-    if (playlistSize == 0) {
-      SongNode targetSongNode = new SongNode(song, null);
-      targetSongNode.setNext(targetSongNode);
-      playlist.setLast(targetSongNode);
-      return true;
+    // the playlist's positional index finds the node before position in O(log n)
+    Song inserted = songPool.intern(song);
+    SongNode node = playlist.insert(position, inserted);
+    if (index != null) {
+      index.added(playlist, inserted);
     }
-    // insert at the end
-    if (position == playlistSize + 1) {
-      SongNode targetSongNode = new SongNode(song, null);
-      targetSongNode.setNext(playlist.getLast().getNext());
-      playlist.getLast().setNext(targetSongNode);
-      playlist.setLast(targetSongNode);
-      return true;
+    history.record(new SongEdit(playlist, node, true));
+    return true;
+  }
+
+  /**
+   * This method adds a song to the end of a specified playlist, or at its place in the order of a
+   * sorted view.
+   *
+   * @param playlistIndex the index of the playlist within the songLibrary
+   * @param song the song to add
+   */
+  public void insertSong(int playlistIndex, Song song) {
+    insertSong(playlistIndex, songLibrary.get(playlistIndex).getSize() + 1, song);
+  }
+
+  /**
+   * Returns the song at a given position of a specified playlist.
+   *
+   * <p>The first node of the circular linked list is at position 1. The lookup goes through the
+   * playlist's positional index, so it takes O(log n) time rather than walking the list.
+   *
+   * @param playlistIndex the index of the playlist within the songLibrary
+   * @param position the position of the song within the playlist
+   * @return the song at that position, or null if the position is out of range
+   */
+  public Song getSong(int playlistIndex, int position) {
+    Playlist playlist = songLibrary.get(playlistIndex);
+    if (position <= 0 || position > playlist.getSize()) {
+      return null;
     }
-    // insert in the middle
-    SongNode ptr = playlist.getLast();
-    for (int i = 1; i < position; i++) {
-      ptr = ptr.getNext();
+    return playlist.nodeAt(position).getSong();
+  }
+
+  /**
+   * Returns the songs of a specified playlist from a given position on, for example to seek to a
+   * song and show what follows it.
+   *
+   * <p>The first song is found through the playlist's positional index in O(log n) time, rather
+   * than by walking the list from the front, and the others by following the list, so the call
+   * takes O(log n + count) time wherever the songs are.
+   *
+   * @param playlistIndex the index of the playlist within the songLibrary
+   * @param position the position of the first song, the first node being at position 1
+   * @param count the most songs to return
+   * @return the songs in playlist order, fewer than count if the playlist ends first, and none if
+   *     the position is out of range
+   */
+  public List<Song> getSongs(int playlistIndex, int position, int count) {
+    Playlist playlist = songLibrary.get(playlistIndex);
+    if (position <= 0 || position > playlist.getSize()) {
+      return new ArrayList<>();
     }
-    SongNode targetSongNode = new SongNode(song, null);
-    targetSongNode.setNext(ptr.getNext());
-    ptr.setNext(targetSongNode);
-    return true;
+    return playlist.songsFrom(position, count);
+  }
+
+  /**
+   * Returns one page of a specified playlist, the first page holding the songs at positions 1 to
+   * pageSize. Like getSongs(), it takes O(log n + pageSize) time for any page.
+   *
+   * @param playlistIndex the index of the playlist within the songLibrary
+   * @param page the number of the page, the first page being page 1
+   * @param pageSize the number of songs per page
+   * @return the songs of the page, fewer than pageSize on the last page, and none past it
+   */
+  public List<Song> getPage(int playlistIndex, int page, int pageSize) {
+    if (page <= 0 || pageSize <= 0) {
+      return new ArrayList<>();
+    }
+    long position = (long) (page - 1) * pageSize + 1;
+    return position > Integer.MAX_VALUE
+        ? new ArrayList<>()
+        : getSongs(playlistIndex, (int) position, pageSize);
   }
 
   /**
    * This method removes a song at a specified playlist, if the song exists.
    *
    * <p>Use the .equals() method of the Song class to check if an element of the circular linkedlist
-   * matches the specified song.
+   * matches the specified song. If the playlist holds the song more than once, the occurrence
+   * closest to the front is removed.
    *
    * <p>Return true if the song is found in the playlist (and thus has been removed), false
    * otherwise (and thus nothing is removed).
@@ -218,66 +286,96 @@ public class PlaylistLibrary {
    *     otherwise.
    */
   public boolean removeSong(int playlistIndex, Song song) {
+    // the playlist's song index finds the first equal song in O(1) expected time, and the node
+    // knows its predecessor, so nothing is scanned
     Playlist playlist = songLibrary.get(playlistIndex);
-    int playlistSize = playlist.getSize();
-    // empty playlist
-    if (playlistSize == 0) {
+    SongNode node = playlist.find(song);
+    if (node == null) {
       return false;
     }
-    // delete only song
-    if (playlistSize == 1 && playlist.getLast().getSong().equals(song)) {
-      playlist.setLast(null);
-      playlist.setSize(0);
-      return true;
+    SongEdit edit = new SongEdit(playlist, node, false);
+    edit.take();
+    history.record(edit);
+    return true;
+  }
+
+  /**
+   * Applies a batch of inserts and removals to a specified playlist at once.
+   *
+   * <p>All the edits refer to the playlist as it was before the batch, as described in {@link
+   * PlaylistBatch}, so their order within the batch does not matter apart from inserts at the same
+   * position. A small batch is applied through the playlist's indexes in O(k log n) time; a large
+   * one in a single pass over the list, in O(n + k log k) time, where calling insertSong() and
+   * removeSong() once per edit would have to look every edit up separately. Removals of songs the
+   * playlist does not hold are skipped, as removeSong() would return false for them.
+   *
+   * @param playlistIndex the index of the playlist within the songLibrary
+   * @param batch the edits to apply
+   * @return true if the batch has been applied, false if an insert position is out of range, in
+   *     which case nothing has changed
+   */
+  public boolean applyEdits(int playlistIndex, PlaylistBatch batch) {
+    Playlist playlist = songLibrary.get(playlistIndex);
+    if (!batch.fits(playlist.getSize())) {
+      return false;
     }
-    // find song previous
-    SongNode ptr = playlist.getLast().getNext();
-    int i = 1;
-    boolean found = false;
-    while (i <= playlistSize) {
-      if (ptr.getNext().getSong().equals(song)) {
-        found = true;
-        break;
-      }
-      ptr = ptr.getNext();
-      i++;
+    Song[] inserts = batch.inserts();
+    for (int i = 0; i < inserts.length; i++) {
+      inserts[i] = songPool.intern(inserts[i]);
     }
-    // delete song
-    if (found) {
-      if (ptr.getNext() == playlist.getLast()) {
-        playlist.setLast(ptr);
+    List<Song> removed = playlist.apply(batch.positions(), inserts, batch.removals());
+    history.clear();
+    if (index != null) {
+      for (Song song : inserts) {
+        index.added(playlist, song);
+      }
+      for (Song song : removed) {
+        index.removed(playlist, song);
       }
-      ptr.setNext(ptr.getNext().getNext());
-      playlist.setSize(playlistSize - 1);
     }
-    return found;
+    return true;
   }
 
   /**
    * This method reverses the playlist located at playlistIndex
    *
-   * <p>Each node in the circular linkedlist will point to the element that came before it.
-   *
-   * <p>After the list is reversed, the playlist located at playlistIndex will reference the first
-   * SongNode in the original playlist (new last).
+   * <p>The songs are played, printed and numbered in the reverse order afterwards. The playlist
+   * only flips the direction it reads its doubly linked list in, so reversing takes O(1) time,
+   * apart from building the positional index the first time. Once getLast() is called the nodes
+   * are relinked so that each one points to the element that came before it, and the playlist
+   * references the first SongNode in the original playlist (new last).
    *
    * @param playlistIndex the playlist to reverse
    */
   public void reversePlaylist(int playlistIndex) {
     Playlist playlist = this.songLibrary.get(playlistIndex);
-    int playlistSize = playlist.getSize();
-    // if playlist is empty or size 1, do nothing
-    if (playlistSize <= 1) {
-      return;
-    }
-    SongNode ptr = playlist.getLast().getNext();
-    for (int i = 1; i <= playlistSize; i++) {
-      SongNode next = ptr.getNext();
-      ptr.setNext(playlist.getLast());
-      playlist.setLast(ptr);
-      ptr = next;
-    }
-    playlist.setLast(ptr);
+    reverse(playlist);
+    history.record(
+        new LibraryHistory.Edit() {
+          @Override
+          public boolean undo() {
+            return redo();
+          }
+
+          @Override
+          public boolean redo() {
+            if (!holds(playlist)) {
+              return false;
+            }
+            reverse(playlist);
+            return true;
+          }
+
+          @Override
+          public long nodes() {
+            return 0;
+          }
+        });
+  }
+
+  // reverses a playlist by flipping the direction it is read in
+  static void reverse(Playlist playlist) {
+    playlist.reverse();
   }
 
   /**
@@ -292,101 +390,389 @@ public class PlaylistLibrary {
    * <p>After the lists have been merged: - store the merged playlist at the lower playlistIndex -
    * remove playlist at the higher playlistIndex
    *
+   * <p>The existing SongNodes are relinked in place, so the merge takes O(n+m) time and allocates
+   * no nodes.
+   *
    * @param playlistIndex1 the first playlist to merge into one playlist
    * @param playlistIndex2 the second playlist to merge into one playlist
    */
   public void mergePlaylists(int playlistIndex1, int playlistIndex2) {
-    Playlist lowPlaylist = this.songLibrary.get(Integer.min(playlistIndex1, playlistIndex2));
-    Playlist highPlaylist = this.songLibrary.get(Integer.max(playlistIndex1, playlistIndex2));
-    int lowPlaylistSize = lowPlaylist.getSize();
-    int highPlaylistSize = highPlaylist.getSize();
-    // if both playlists are empty, just remove the high and keep the low
-    if (lowPlaylistSize == 0 && highPlaylistSize == 0) {
-      // this is the high playlist index
-      this.removePlaylist(Integer.max(playlistIndex1, playlistIndex2));
+    mergeAllPlaylists(new int[] {playlistIndex1, playlistIndex2});
+  }
+
+  /**
+   * This method merges many playlists at once.
+   *
+   * <p>All playlists have songs in decreasing popularity order, and the resulting playlist will
+   * also be in decreasing popularity order. If the songs have the same popularity, the song from
+   * the playlist with the lower playlistIndex comes first.
+   *
+   * <p>The merged playlist is stored at the lowest of the given indexes and the other playlists are
+   * removed from the library. Indexes that appear more than once are merged only once.
+   *
+   * <p>The existing SongNodes are spliced together rather than copied: a heap holding the first
+   * remaining song of every playlist picks the next node, so merging N songs from k playlists
+   * takes O(N log k) time and allocates no node. To be undone, the merge keeps two arrays of the N
+   * nodes, from before and after it; with the history off, or when the merge is too large for it,
+   * see {@link #setUndoNodeLimit(long)}, no array is built and nothing is allocated per song.
+   *
+   * @param playlistIndexes the indexes of the playlists to merge into one playlist
+   */
+  public void mergeAllPlaylists(int[] playlistIndexes) {
+    int[] indexes = playlistIndexes.clone();
+    Arrays.sort(indexes);
+    int k = 0;
+    for (int ii = 0; ii < indexes.length; ii++) {
+      if (k == 0 || indexes[ii] != indexes[k - 1]) {
+        indexes[k++] = indexes[ii];
+      }
+    }
+    if (k <= 1) {
       return;
     }
-    SongNode mergedLast = null;
-    while (lowPlaylist.getSize() != 0 && highPlaylist.getSize() != 0) {
-      SongNode lowHead = lowPlaylist.getLast().getNext();
-      SongNode highHead = highPlaylist.getLast().getNext();
-      Playlist targetPlaylist =
-          lowHead.getSong().getPopularity() >= highHead.getSong().getPopularity()
-              ? lowPlaylist
-              : highPlaylist;
-      SongNode targetHead = new SongNode(targetPlaylist.getLast().getNext().getSong(), null);
-      // Now add targetHead at the end of the merged playlist (last node is mergedLast)
-      if (mergedLast == null) {
-        mergedLast = targetHead;
-        mergedLast.setNext(mergedLast);
-      } else {
-        targetHead.setNext(mergedLast.getNext());
-        mergedLast.setNext(targetHead);
-        mergedLast = targetHead;
+    if (index != null) {
+      // songs are about to move between playlists, which the index must all know of already
+      index.sync(songLibrary);
+    }
+    Playlist[] playlists = new Playlist[k];
+    for (int r = 0; r < k; r++) {
+      playlists[r] = songLibrary.get(indexes[r]);
+    }
+    RelinkEdit edit = new RelinkEdit(Arrays.copyOf(indexes, k), true);
+    mergeInto(playlists);
+    keepSorted(playlists[0]);
+    for (int r = k - 1; r > 0; r--) {
+      this.removePlaylist(indexes[r]);
+    }
+    history.record(edit.done(new ArrayList<>()));
+  }
+
+  // merges the playlists into the first one and leaves the others empty; on equal popularity the
+  // song of the earlier playlist comes first
+  static void mergeInto(Playlist[] playlists) {
+    int k = playlists.length;
+    // heads[r] is the first unmerged node of playlist r and left[r] how many of its nodes remain;
+    // the heap holds the playlists that still have nodes, best head first
+    SongNode[] heads = new SongNode[k];
+    int[] left = new int[k];
+    int[] heap = new int[k];
+    int heapSize = 0;
+    int mergedSize = 0;
+    for (int r = 0; r < k; r++) {
+      left[r] = playlists[r].getSize();
+      mergedSize += left[r];
+      if (left[r] > 0) {
+        heads[r] = playlists[r].getLast().getNext();
+        heap[heapSize] = r;
+        siftUp(heap, heapSize++, heads);
       }
-      // Now delete the song from target
-      this.removeSong(this.songLibrary.indexOf(targetPlaylist), targetHead.getSong());
     }
-    Playlist nonEmptyPlaylist = lowPlaylist.getSize() == 0 ? highPlaylist : lowPlaylist;
-    SongNode nonEmptyPtr = nonEmptyPlaylist.getLast().getNext();
-    for (int i = 0; i < nonEmptyPlaylist.getSize(); i++) {
-      SongNode targetSongNode = new SongNode(nonEmptyPtr.getSong(), null);
+    SongNode mergedFirst = null, mergedLast = null;
+    while (heapSize > 0) {
+      int r = heap[0];
+      SongNode taken = heads[r];
+      if (--left[r] > 0) {
+        heads[r] = taken.getNext();
+      } else {
+        heap[0] = heap[--heapSize];
+      }
+      siftDown(heap, heapSize, heads);
       if (mergedLast == null) {
-        mergedLast = targetSongNode;
-        mergedLast.setNext(mergedLast);
+        mergedFirst = taken;
       } else {
-        targetSongNode.setNext(mergedLast.getNext());
-        mergedLast.setNext(targetSongNode);
-        mergedLast = targetSongNode;
+        mergedLast.setNext(taken);
+      }
+      mergedLast = taken;
+    }
+    if (mergedLast != null) {
+      mergedLast.setNext(mergedFirst);
+    }
+    for (int r = k - 1; r > 0; r--) {
+      playlists[r].setLast(null);
+      playlists[r].setSize(0);
+    }
+    playlists[0].setLast(mergedLast);
+    playlists[0].setSize(mergedSize);
+  }
+
+  // true if the head of playlist r should be merged before the head of playlist q
+  private static boolean mergesFirst(int r, int q, SongNode[] heads) {
+    int rPopularity = heads[r].getSong().getPopularity();
+    int qPopularity = heads[q].getSong().getPopularity();
+    return rPopularity > qPopularity || (rPopularity == qPopularity && r < q);
+  }
+
+  private static void siftUp(int[] heap, int i, SongNode[] heads) {
+    while (i > 0 && mergesFirst(heap[i], heap[(i - 1) / 2], heads)) {
+      int parent = (i - 1) / 2;
+      int temp = heap[i];
+      heap[i] = heap[parent];
+      heap[parent] = temp;
+      i = parent;
+    }
+  }
+
+  private static void siftDown(int[] heap, int heapSize, SongNode[] heads) {
+    int i = 0;
+    while (2 * i + 1 < heapSize) {
+      int child = 2 * i + 1;
+      if (child + 1 < heapSize && mergesFirst(heap[child + 1], heap[child], heads)) {
+        child++;
       }
-      nonEmptyPtr = nonEmptyPtr.getNext();
+      if (!mergesFirst(heap[child], heap[i], heads)) {
+        break;
+      }
+      int temp = heap[i];
+      heap[i] = heap[child];
+      heap[child] = temp;
+      i = child;
     }
-    // this is the high playlist index
-    this.removePlaylist(Integer.max(playlistIndex1, playlistIndex2));
-    lowPlaylist.setLast(mergedLast);
-    lowPlaylist.setSize(lowPlaylistSize + highPlaylistSize);
   }
 
   /**
-   * This method shuffles a specified playlist using the following procedure:
+   * This method removes the duplicate songs of a specified playlist.
    *
-   * <p>1. Create a new playlist to store the shuffled playlist in.
+   * <p>Only the first occurrence of each song is kept, as compared by equals(), and the songs that
+   * stay keep their order. A hash set of the songs seen so far decides which nodes stay, and they
+   * are relinked in one pass, so deduplication takes O(n) expected time and allocates no nodes.
    *
-   * <p>2. While the size of the original playlist is not 0, randomly generate a number using
-   * StdRandom.uniformInt(1, size+1). Size contains the current number of items in the original
-   * playlist.
+   * @param playlistIndex the playlist to deduplicate
+   * @return the number of songs removed
+   */
+  public int dedupePlaylist(int playlistIndex) {
+    return retain(playlistIndex, song -> true);
+  }
+
+  /**
+   * This method combines two playlists into one holding every song of either, once.
+   *
+   * <p>The result holds the songs of the playlist at the lower index followed by the songs of the
+   * other one that it does not hold, each song once and in the order it first appears. As with
+   * mergePlaylists(), the result is stored at the lower playlistIndex and the playlist at the
+   * higher playlistIndex is removed. The existing SongNodes are relinked, so the union takes O(n+m)
+   * expected time and allocates no nodes.
+   *
+   * @param playlistIndex1 the first playlist
+   * @param playlistIndex2 the second playlist
+   */
+  public void unionPlaylists(int playlistIndex1, int playlistIndex2) {
+    if (playlistIndex1 == playlistIndex2) {
+      dedupePlaylist(playlistIndex1);
+      return;
+    }
+    int low = Math.min(playlistIndex1, playlistIndex2);
+    int high = Math.max(playlistIndex1, playlistIndex2);
+    if (index != null) {
+      // songs are about to move between playlists, which the index must all know of already
+      index.sync(songLibrary);
+    }
+    Playlist first = songLibrary.get(low);
+    Playlist second = songLibrary.get(high);
+    RelinkEdit edit = new RelinkEdit(new int[] {low, high}, true);
+    List<Song> dropped = unionInto(first, second);
+    keepSorted(first);
+    if (index != null) {
+      for (Song song : dropped) {
+        index.removed(first, song);
+      }
+    }
+    this.removePlaylist(high);
+    history.record(edit.done(dropped));
+  }
+
+  /**
+   * This method keeps only the songs of a specified playlist that another playlist also holds.
+   *
+   * <p>Each song is kept once, at its first occurrence, and the other playlist does not change. A
+   * hash set of the other playlist's songs answers every lookup, so the intersection takes O(n+m)
+   * expected time and allocates no nodes.
+   *
+   * @param playlistIndex the playlist to change
+   * @param otherIndex the playlist whose songs are kept
+   * @return the number of songs removed
+   */
+  public int intersectPlaylists(int playlistIndex, int otherIndex) {
+    Set<Song> other = songSet(songLibrary.get(otherIndex));
+    return retain(playlistIndex, other::contains);
+  }
+
+  /**
+   * This method removes from a specified playlist every song another playlist holds.
+   *
+   * <p>Each remaining song is kept once, at its first occurrence, and the other playlist does not
+   * change. A hash set of the other playlist's songs answers every lookup, so the difference takes
+   * O(n+m) expected time and allocates no nodes.
    *
-   * <p>3. Remove the corresponding node from the original playlist and insert it into the END of
-   * the new playlist (1 being the first node, 2 being the second, etc).
+   * @param playlistIndex the playlist to change
+   * @param otherIndex the playlist whose songs are removed
+   * @return the number of songs removed
+   */
+  public int subtractPlaylist(int playlistIndex, int otherIndex) {
+    Set<Song> other = songSet(songLibrary.get(otherIndex));
+    return retain(playlistIndex, song -> !other.contains(song));
+  }
+
+  // keeps the first occurrence of every song of a playlist that passes the test, telling the index
+  // about the others
+  private int retain(int playlistIndex, Predicate<Song> keep) {
+    Playlist playlist = songLibrary.get(playlistIndex);
+    RelinkEdit edit = new RelinkEdit(new int[] {playlistIndex}, false);
+    List<Song> dropped = retain(playlist, keep);
+    if (index != null) {
+      for (Song song : dropped) {
+        index.removed(playlist, song);
+      }
+    }
+    history.record(edit.done(dropped));
+    return dropped.size();
+  }
+
+  // keeps the first occurrence of every song that passes the test, relinking the nodes that stay in
+  // order, and returns the songs of the nodes dropped
+  static List<Song> retain(Playlist playlist, Predicate<Song> keep) {
+    return unionInto(playlist, null, keep);
+  }
+
+  // appends the songs of second that first does not hold to first, dropping duplicates from both,
+  // leaves second empty and returns the songs of the nodes dropped
+  static List<Song> unionInto(Playlist first, Playlist second) {
+    return unionInto(first, second, song -> true);
+  }
+
+  private static List<Song> unionInto(Playlist first, Playlist second, Predicate<Song> keep) {
+    int size = first.getSize() + (second == null ? 0 : second.getSize());
+    HashSet<Song> seen = new HashSet<>(Math.max(16, size * 4 / 3 + 1));
+    List<Song> dropped = new ArrayList<>();
+    SongNode head = null;
+    SongNode tail = null;
+    int kept = 0;
+    for (Playlist playlist : second == null ? List.of(first) : List.of(first, second)) {
+      SongNode ptr = playlist.tail();
+      for (int i = 0; i < playlist.getSize(); i++) {
+        // ptr is only relinked once the walk has moved past it
+        ptr = playlist.next(ptr);
+        if (keep.test(ptr.getSong()) && seen.add(ptr.getSong())) {
+          if (tail == null) {
+            head = ptr;
+          } else {
+            tail.setNext(ptr);
+          }
+          tail = ptr;
+          kept++;
+        } else {
+          dropped.add(ptr.getSong());
+        }
+      }
+    }
+    if (second != null) {
+      second.setLast(null);
+      second.setSize(0);
+    }
+    if (tail != null) {
+      tail.setNext(head);
+    }
+    first.setLast(tail);
+    first.setSize(kept);
+    return dropped;
+  }
+
+  // the distinct songs of a playlist
+  private static Set<Song> songSet(Playlist playlist) {
+    HashSet<Song> songs = new HashSet<>(Math.max(16, playlist.getSize() * 4 / 3 + 1));
+    SongNode ptr = playlist.tail();
+    for (int i = 0; i < playlist.getSize(); i++) {
+      ptr = playlist.next(ptr);
+      songs.add(ptr.getSong());
+    }
+    return songs;
+  }
+
+  /**
+   * This method shuffles a specified playlist.
    *
-   * <p>4. Update the old playlist with the new shuffled playlist.
+   * <p>The nodes are collected into an array, rearranged with a Fisher-Yates shuffle driven by
+   * StdRandom, and relinked in their new order, so the shuffle takes O(n) time and allocates no
+   * nodes. Use StdRandom.setSeed() to make the result reproducible.
    *
    * @param index the playlist to shuffle in songLibrary
    */
   public void shufflePlaylist(int playlistIndex) {
     Playlist playlist = this.songLibrary.get(playlistIndex);
-    int playlistSize = playlist.getSize();
-    SongNode shuffledLast = null;
-    while (playlist.getSize() != 0) {
-      int randomNumber = StdRandom.uniformInt(playlist.getSize() + 1);
-      SongNode ptr = playlist.getLast().getNext();
-      for (int i = 1; i <= randomNumber; i++) {
-        ptr = ptr.getNext();
-      }
-      SongNode targetSongNode = new SongNode(ptr.getSong(), null);
-      if (shuffledLast == null) {
-        shuffledLast = targetSongNode;
-        shuffledLast.setNext(shuffledLast);
-      } else {
-        targetSongNode.setNext(shuffledLast.getNext());
-        shuffledLast.setNext(targetSongNode);
-        shuffledLast = targetSongNode;
-      }
-      // Delete targetSongNode
-      this.removeSong(playlistIndex, ptr.getSong());
+    RelinkEdit edit = new RelinkEdit(new int[] {playlistIndex}, false);
+    SongNode[] nodes = toArray(playlist);
+    StdRandom.shuffle(nodes);
+    relink(playlist, nodes);
+    keepSorted(playlist);
+    history.record(edit.done(new ArrayList<>(), nodes));
+  }
+
+  /**
+   * This method shuffles a specified playlist in O(n) time using the given seed. The same seed
+   * always produces the same order for the same playlist.
+   *
+   * @param playlistIndex the playlist to shuffle in songLibrary
+   * @param seed the seed of the random number generator
+   */
+  public void shufflePlaylist(int playlistIndex, long seed) {
+    Playlist playlist = this.songLibrary.get(playlistIndex);
+    RelinkEdit edit = new RelinkEdit(new int[] {playlistIndex}, false);
+    SongNode[] nodes = shuffle(playlist, new Random(seed));
+    keepSorted(playlist);
+    history.record(edit.done(new ArrayList<>(), nodes));
+  }
+
+  // shuffles a playlist with a Fisher-Yates shuffle over its nodes, and returns them in their new
+  // order
+  static SongNode[] shuffle(Playlist playlist, Random random) {
+    SongNode[] nodes = toArray(playlist);
+    for (int i = nodes.length - 1; i > 0; i--) {
+      int r = random.nextInt(i + 1);
+      SongNode temp = nodes[i];
+      nodes[i] = nodes[r];
+      nodes[r] = temp;
+    }
+    relink(playlist, nodes);
+    return nodes;
+  }
+
+  /**
+   * Returns the songs of a specified playlist in a random order without changing the playlist.
+   *
+   * <p>The permutation is generated lazily, one song per call to next(), so no array of the songs
+   * is built. Each song costs O(log n) time, once the playlist's positional index exists: the
+   * first song builds it in O(n) time if it does not exist yet. The iterator only remembers the
+   * positions it has swapped so far. The playlist must not be modified while the iterator is in
+   * use.
+   *
+   * @param playlistIndex the playlist to iterate over
+   * @param seed the seed of the random number generator
+   * @return an iterator over the songs of the playlist in shuffled order
+   */
+  public Iterator<Song> shuffledSongs(int playlistIndex, long seed) {
+    return new ShuffledSongIterator(songLibrary.get(playlistIndex), seed);
+  }
+
+  // returns the nodes of a playlist in list order
+  private static SongNode[] toArray(Playlist playlist) {
+    SongNode[] nodes = new SongNode[playlist.getSize()];
+    SongNode ptr = playlist.getLast();
+    for (int i = 0; i < nodes.length; i++) {
+      ptr = ptr.getNext();
+      nodes[i] = ptr;
+    }
+    return nodes;
+  }
+
+  // links the nodes into a circular list in array order and stores it in the playlist
+  private static void relink(Playlist playlist, SongNode[] nodes) {
+    if (nodes.length == 0) {
+      return;
+    }
+    for (int i = 0; i < nodes.length - 1; i++) {
+      nodes[i].setNext(nodes[i + 1]);
     }
-    playlist.setLast(shuffledLast);
-    playlist.setSize(playlistSize);
+    nodes[nodes.length - 1].setNext(nodes[0]);
+    playlist.setLast(nodes[nodes.length - 1]);
   }
 
   /**
@@ -400,43 +786,521 @@ public class PlaylistLibrary {
    * @param playlistIndex the playlist to shuffle
    */
   public void sortPlaylist(int playlistIndex) {
-    // WRITE YOUR CODE HERE
+    sortPlaylist(playlistIndex, Song.BY_POPULARITY.reversed());
   }
 
   /**
-   * ****DO NOT**** UPDATE THIS METHOD
+   * This method sorts a specified playlist in the order given by a comparator.
+   *
+   * <p>The sort is a stable merge sort over the circular linked list: it takes O(nlogn) time,
+   * relinks the existing SongNodes and allocates no new ones. Songs that compare equal keep their
+   * relative order, so several keys can be combined, for example {@code
+   * Song.BY_YEAR.thenComparing(Song.BY_POPULARITY.reversed())} sorts by year and then by decreasing
+   * popularity within a year.
+   *
+   * @param playlistIndex the playlist to sort
+   * @param comparator the order to sort the songs in
+   */
+  public void sortPlaylist(int playlistIndex, Comparator<? super Song> comparator) {
+    RelinkEdit edit = new RelinkEdit(new int[] {playlistIndex}, false);
+    sort(songLibrary.get(playlistIndex), comparator, false);
+    history.record(edit.done(new ArrayList<>()));
+  }
+
+  /**
+   * This method sorts a specified playlist like {@link #sortPlaylist(int, Comparator)}, but sorts
+   * segments of large playlists concurrently on the common fork-join pool and then merges them.
+   * Small playlists are sorted sequentially. The comparator must be safe to call from several
+   * threads.
+   *
+   * @param playlistIndex the playlist to sort
+   * @param comparator the order to sort the songs in
+   */
+  public void sortPlaylistParallel(int playlistIndex, Comparator<? super Song> comparator) {
+    RelinkEdit edit = new RelinkEdit(new int[] {playlistIndex}, false);
+    sort(songLibrary.get(playlistIndex), comparator, true);
+    history.record(edit.done(new ArrayList<>()));
+  }
+
+  // sorts a playlist, and makes a sorted view keep the new order
+  private static void sort(
+      Playlist playlist, Comparator<? super Song> comparator, boolean parallel) {
+    if (playlist instanceof SortedPlaylist) {
+      ((SortedPlaylist) playlist).resort(comparator, parallel);
+    } else {
+      PlaylistSorter.sort(playlist, comparator, parallel);
+    }
+  }
+
+  /**
+   * This method turns a specified playlist into a sorted view, a playlist that stays in the order
+   * of a comparator as songs are inserted and removed.
+   *
+   * <p>The songs are sorted once, in O(nlogn) time, and every insertSong(), removeSong() and
+   * applyEdits() afterwards keeps them sorted in O(log n) expected time per song rather than
+   * sorting the playlist again. The view is played, printed and numbered like any other playlist.
+   * Reversing it reverses its order, and sorting it changes its order to the new one. Shuffling,
+   * merging or combining it with another playlist sorts it again afterwards, so only songs that
+   * compare equal can change places. Snapshots and exports hold songs only, so a view loaded from
+   * one is a plain playlist.
+   *
+   * @param playlistIndex the playlist to turn into a sorted view
+   * @param comparator the order to keep the songs in
+   */
+  public void makeSortedView(int playlistIndex, Comparator<? super Song> comparator) {
+    history.clear();
+    Playlist playlist = songLibrary.get(playlistIndex);
+    if (playlist instanceof SortedPlaylist) {
+      ((SortedPlaylist) playlist).resort(comparator, false);
+      return;
+    }
+    replace(playlistIndex, new SortedPlaylist(playlist.getLast(), playlist.getSize(), comparator));
+  }
+
+  /**
+   * This method turns a specified playlist into a sorted view in decreasing popularity order.
+   *
+   * @param playlistIndex the playlist to turn into a sorted view
+   */
+  public void makeSortedView(int playlistIndex) {
+    makeSortedView(playlistIndex, Song.BY_POPULARITY.reversed());
+  }
+
+  /**
+   * This method turns a sorted view back into a plain playlist holding its songs in their current
+   * order, so that songs can be inserted at any position again. Nothing happens to a plain
+   * playlist.
+   *
+   * @param playlistIndex the sorted view to turn into a plain playlist
+   */
+  public void makePlainPlaylist(int playlistIndex) {
+    history.clear();
+    Playlist playlist = songLibrary.get(playlistIndex);
+    if (playlist instanceof SortedPlaylist) {
+      replace(playlistIndex, new Playlist(playlist.getLast(), playlist.getSize()));
+    }
+  }
+
+  // puts a playlist holding the same nodes in the place of another one
+  private void replace(int playlistIndex, Playlist playlist) {
+    Playlist before = songLibrary.set(playlistIndex, playlist);
+    before.setLast(null);
+    before.setSize(0);
+    if (index != null) {
+      index.replaced(before, playlist);
+    }
+  }
+
+  // sorts a sorted view again after its nodes were relinked in some other order
+  private static void keepSorted(Playlist playlist) {
+    if (playlist instanceof SortedPlaylist) {
+      SortedPlaylist view = (SortedPlaylist) playlist;
+      view.resort(view.getOrder(), false);
+    }
+  }
+
+  /**
+   * Undoes the latest edit made to the playlists through this library.
+   *
+   * <p>insertSong(), removeSong(), reversePlaylist(), shufflePlaylist(), sortPlaylist(),
+   * sortPlaylistParallel(), mergePlaylists(), mergeAllPlaylists(), unionPlaylists(),
+   * dedupePlaylist(), intersectPlaylists() and subtractPlaylist() can be undone, up to the limit
+   * set by {@link #setUndoLimit(int)}. Inserting or removing a song keeps the node it moved, and is
+   * undone in O(log n) time; a reversal keeps nothing and is undone in O(1). A shuffle, sort, merge
+   * or set operation keeps arrays of the nodes of its playlists before and after it, and takes O(n)
+   * to undo, as it did to make. Those arrays are bounded by {@link #setUndoNodeLimit(long)}: an
+   * edit whose arrays would not fit is not recorded and forgets the history instead, and builds no
+   * arrays at all, as no edit does once the history is turned off.
+   *
+   * <p>applyEdits(), makeSortedView(), makePlainPlaylist() and loadSnapshot() can not be undone,
+   * and forget the history. So does undo() when the playlists an edit was made to are no longer
+   * where it left them, because playlists were added or removed since.
+   *
+   * @return true if an edit was undone, false if there was none to undo
+   */
+  public boolean undo() {
+    return history.undo();
+  }
+
+  /**
+   * Redoes the latest edit undone by {@link #undo()}. Any new edit forgets the edits there were to
+   * redo.
    *
-   * <p>Plays playlist by index; can use this method to debug.
+   * @return true if an edit was redone, false if there was none to redo
+   */
+  public boolean redo() {
+    return history.redo();
+  }
+
+  /**
+   * Sets the most edits undo() can take back, 100 by default; 0 turns the history off.
+   *
+   * @param edits the most edits to remember
+   * @throws IllegalArgumentException if edits is negative
+   */
+  public void setUndoLimit(int edits) {
+    history.setLimit(edits);
+  }
+
+  /**
+   * Sets the most nodes the edits undo() can take back may hold, 4M by default. A shuffle, sort,
+   * merge or set operation holds two nodes per song of the playlists it changed, and once the edits
+   * hold more the oldest are forgotten.
+   *
+   * @param nodes the most nodes to keep for undo
+   * @throws IllegalArgumentException if nodes is negative
+   */
+  public void setUndoNodeLimit(long nodes) {
+    history.setNodeLimit(nodes);
+  }
+
+  // true if the library holds the playlist object
+  private boolean holds(Playlist playlist) {
+    if (songLibrary != null) {
+      for (Playlist held : songLibrary) {
+        if (held == playlist) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // stores nodes in a playlist as its whole list, in array order
+  private static void restore(Playlist playlist, SongNode[] nodes) {
+    if (nodes.length == 0) {
+      playlist.setLast(null);
+    } else {
+      relink(playlist, nodes);
+    }
+    playlist.setSize(nodes.length);
+  }
+
+  /*
+   * The insertion or removal of a song, undone by taking out or putting back its node
+   */
+  private final class SongEdit implements LibraryHistory.Edit {
+    private final Playlist playlist;
+    private final SongNode node;
+    private final boolean insertion; // true if the edit put the node in, false if it took it out
+    private int position; // where the node was before it was last taken out
+
+    SongEdit(Playlist playlist, SongNode node, boolean insertion) {
+      this.playlist = playlist;
+      this.node = node;
+      this.insertion = insertion;
+    }
+
+    @Override
+    public boolean undo() {
+      return insertion ? take() : put();
+    }
+
+    @Override
+    public long nodes() {
+      return 1;
+    }
+
+    @Override
+    public boolean redo() {
+      return insertion ? put() : take();
+    }
+
+    /*
+     * Takes the node out of the playlist, remembering its position
+     */
+    boolean take() {
+      if (!holds(playlist)) {
+        return false;
+      }
+      position = playlist.positionOf(node);
+      playlist.remove(node);
+      if (index != null) {
+        index.removed(playlist, node.getSong());
+      }
+      return true;
+    }
+
+    // puts the node back where it was taken from
+    private boolean put() {
+      if (!holds(playlist)) {
+        return false;
+      }
+      playlist.insert(position, node);
+      if (index != null) {
+        index.added(playlist, node.getSong());
+      }
+      return true;
+    }
+  }
+
+  /*
+   * An edit that relinked the nodes of some playlists, undone by linking them in their old order;
+   * the first playlist is the one the edit changed, and the others are merged into it and removed
+   * from the library if removes is set
+   */
+  private final class RelinkEdit implements LibraryHistory.Edit {
+    private final int[] indexes; // where the playlists were, in increasing order
+    private final Playlist[] playlists;
+    private final boolean removes;
+    private final SongNode[][] before; // the nodes of each playlist before, null if not kept
+    private final Comparator<? super Song> orderBefore; // the order of a sorted view before it
+    private SongNode[][] after; // the nodes of each playlist after the edit
+    private Comparator<? super Song> orderAfter;
+    private List<Song> dropped; // the songs the edit took out of the first playlist
+
+    /*
+     * Constructor, to call right before the edit
+     */
+    RelinkEdit(int[] indexes, boolean removes) {
+      this.indexes = indexes;
+      this.removes = removes;
+      playlists = new Playlist[indexes.length];
+      long size = 0;
+      for (int r = 0; r < indexes.length; r++) {
+        playlists[r] = songLibrary.get(indexes[r]);
+        playlists[r].relinking();
+        size += playlists[r].getSize();
+      }
+      // each playlist is read only once all of them are in memory for good, so none is evicted
+      // while its nodes are being relinked; no edit leaves more nodes than it found, so the arrays
+      // before and after hold at most twice as many
+      if (history.keeps(2 * size)) {
+        before = new SongNode[indexes.length][];
+        for (int r = 0; r < indexes.length; r++) {
+          before[r] = toArray(playlists[r]);
+        }
+      } else {
+        before = null;
+      }
+      orderBefore = order(playlists[0]);
+    }
+
+    /*
+     * Records the result of the edit, right after it, and returns this edit, or null if the
+     * history could not keep it
+     */
+    RelinkEdit done(List<Song> dropped) {
+      return done(dropped, null);
+    }
+
+    /*
+     * Records the result of an edit that relinked the first playlist to the given nodes, which are
+     * kept rather than read again unless a sorted view sorted them since
+     */
+    RelinkEdit done(List<Song> dropped, SongNode[] relinked) {
+      if (before == null) {
+        return null;
+      }
+      this.dropped = dropped;
+      orderAfter = order(playlists[0]);
+      after = new SongNode[playlists.length][];
+      for (int r = 0; r < playlists.length; r++) {
+        boolean known = r == 0 && relinked != null && orderAfter == null;
+        after[r] = known ? relinked : toArray(playlists[r]);
+      }
+      return this;
+    }
+
+    @Override
+    public long nodes() {
+      long nodes = 0;
+      for (int r = 0; r < playlists.length; r++) {
+        nodes += before[r].length + after[r].length;
+      }
+      return nodes;
+    }
+
+    @Override
+    public boolean undo() {
+      if (!removes) {
+        if (!inPlace()) {
+          return false;
+        }
+      } else {
+        if (songLibrary == null || indexes[0] >= songLibrary.size() || !at(0)) {
+          return false;
+        }
+        // the removed playlists go back in increasing index order, each into range
+        for (int r = 1; r < playlists.length; r++) {
+          if (indexes[r] > songLibrary.size() + r - 1) {
+            return false;
+          }
+        }
+        if (index != null) {
+          index.sync(songLibrary);
+        }
+        for (int r = 1; r < playlists.length; r++) {
+          songLibrary.add(indexes[r], playlists[r]);
+        }
+      }
+      if (index != null) {
+        // the playlists put back are empty, so the index can take them in before songs move
+        index.sync(songLibrary);
+      }
+      relinkAll(before, orderBefore);
+      if (index != null) {
+        for (Song song : dropped) {
+          index.added(playlists[0], song);
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public boolean redo() {
+      if (!inPlace()) {
+        return false;
+      }
+      if (index != null) {
+        index.sync(songLibrary);
+      }
+      relinkAll(after, orderAfter);
+      if (index != null) {
+        for (Song song : dropped) {
+          index.removed(playlists[0], song);
+        }
+      }
+      if (removes) {
+        for (int r = playlists.length - 1; r > 0; r--) {
+          songLibrary.remove(indexes[r]);
+        }
+      }
+      return true;
+    }
+
+    // true if every playlist is at its index
+    private boolean inPlace() {
+      for (int r = 0; r < playlists.length; r++) {
+        if (songLibrary == null || indexes[r] >= songLibrary.size() || !at(r)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean at(int r) {
+      return songLibrary.get(indexes[r]) == playlists[r];
+    }
+
+    private void relinkAll(SongNode[][] nodes, Comparator<? super Song> order) {
+      for (int r = 0; r < playlists.length; r++) {
+        restore(playlists[r], nodes[r]);
+      }
+      if (order != null) {
+        ((SortedPlaylist) playlists[0]).setOrder(order);
+      }
+    }
+  }
+
+  // the order of a sorted view, null for any other playlist
+  private static Comparator<? super Song> order(Playlist playlist) {
+    return playlist instanceof SortedPlaylist ? ((SortedPlaylist) playlist).getOrder() : null;
+  }
+
+  /**
+   * Plays playlist by index; can use this method to debug.
    *
    * @param playlistIndex the playlist to print
    * @param repeats number of times to repeat playlist
    * @throws InterruptedException
    */
   public void playPlaylist(int playlistIndex, int repeats) {
-    /* DO NOT UPDATE THIS METHOD */
+    playPlaylist(playlistIndex, 1, repeats);
+  }
+
+  /**
+   * Plays playlist by index starting from a given position. Playback wraps around the circular
+   * linked list and stops right before the starting song once it has been played repeats times.
+   *
+   * <p>The starting node is found through the playlist's positional index in O(log n) time. The
+   * songs are played by a {@link PlaybackPipeline} into the library's audio sink, which keeps one
+   * line open for the whole playlist and opens the next songs while the current one plays; songs
+   * with no link or an unreadable file are skipped without waiting.
+   *
+   * @param playlistIndex the playlist to play
+   * @param position the position of the first song to play, the first node being at position 1
+   * @param repeats number of times to repeat playlist
+   */
+  public void playPlaylist(int playlistIndex, int position, int repeats) {
     final String NO_SONG_MSG = " has no link to a song! Playing next...";
-    if (songLibrary.get(playlistIndex).getLast() == null) {
+    final String BAD_SONG_MSG = " could not be played! Playing next...";
+    Playlist playlist = songLibrary.get(playlistIndex);
+    if (playlist.getSize() == 0) {
       StdOut.println("Nothing to play.");
       return;
     }
-    SongNode ptr = songLibrary.get(playlistIndex).getLast().getNext(), first = ptr;
-    do {
-      StdOut.print("\r" + ptr.getSong().toString());
-      if (ptr.getSong().getLink() != null) {
-        StdAudio.play(ptr.getSong().getLink());
-        for (int ii = 0; ii < ptr.getSong().toString().length(); ii++) StdOut.print("\b \b");
-      } else {
-        StdOut.print(NO_SONG_MSG);
-        try {
-          Thread.sleep(2000);
-        } catch (InterruptedException ex) {
-          ex.printStackTrace();
-        }
-        for (int ii = 0; ii < NO_SONG_MSG.length(); ii++) StdOut.print("\b \b");
-      }
-      ptr = ptr.getNext();
-      if (ptr == first) repeats--;
-    } while (ptr != first || repeats > 0);
+    if (position <= 0 || position > playlist.getSize()) {
+      StdOut.println("No song at position " + position + ".");
+      return;
+    }
+    SongNode first = playlist.nodeAt(position);
+    // every song is played at least once, as in the original do-while loop
+    long total = (long) Math.max(repeats, 1) * playlist.getSize();
+    Iterator<Song> songs =
+        new Iterator<Song>() {
+          private SongNode ptr = first;
+          private long played;
+
+          @Override
+          public boolean hasNext() {
+            return played < total;
+          }
+
+          @Override
+          public Song next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Song song = ptr.getSong();
+            ptr = playlist.next(ptr);
+            played++;
+            return song;
+          }
+        };
+    new PlaybackPipeline(getAudioSink())
+        .play(
+            songs,
+            new PlaybackPipeline.Listener() {
+              @Override
+              public void started(Song song) {
+                StdOut.print("\r" + song.toString());
+              }
+
+              @Override
+              public void finished(Song song) {
+                for (int ii = 0; ii < song.toString().length(); ii++) StdOut.print("\b \b");
+              }
+
+              @Override
+              public void skipped(Song song) {
+                StdOut.print("\r" + song.toString());
+                StdOut.println(song.getLink() == null ? NO_SONG_MSG : BAD_SONG_MSG);
+              }
+            });
+  }
+
+  /**
+   * Returns the sink playPlaylist() sends audio to, a {@link LineAudioSink} unless another one has
+   * been set. The sink is kept from one call to the next, so its line stays open.
+   *
+   * @return the audio sink of the library
+   */
+  public AudioSink getAudioSink() {
+    if (audioSink == null) {
+      audioSink = new LineAudioSink();
+    }
+    return audioSink;
+  }
+
+  /**
+   * Sets the sink playPlaylist() sends audio to, for example a {@link NullAudioSink} on a machine
+   * with no sound device.
+   *
+   * @param audioSink the audio sink to use
+   */
+  public void setAudioSink(AudioSink audioSink) {
+    this.audioSink = audioSink;
   }
 
   /**
@@ -467,16 +1331,221 @@ public class PlaylistLibrary {
     StdOut.println();
   }
 
+  /**
+   * Prints every playlist of the library in the same format as printPlaylist(). Each playlist is
+   * put together in a StringBuilder and printed with one call, instead of one call per song.
+   */
   public void printLibrary() {
     if (songLibrary.size() == 0) {
       StdOut.println("\nYour library is empty!");
     } else {
+      StringBuilder out = new StringBuilder();
       for (int ii = 0; ii < songLibrary.size(); ii++) {
-        printPlaylist(ii);
+        Playlist playlist = songLibrary.get(ii);
+        out.setLength(0);
+        out.append(String.format("%nPlaylist at index %d (%d song(s)):%n", ii, playlist.getSize()));
+        if (playlist.getSize() == 0) {
+          out.append("EMPTY");
+        }
+        SongNode ptr = playlist.tail();
+        for (int i = 0; i < playlist.getSize(); i++) {
+          ptr = playlist.next(ptr);
+          out.append(ptr.getSong());
+          out.append(i < playlist.getSize() - 1 ? " -> " : " - POINTS TO FRONT");
+        }
+        StdOut.println(out);
       }
     }
   }
 
+  /**
+   * Writes a specified playlist to a csv or json file, see {@link PlaylistExporter} for the
+   * formats.
+   *
+   * @param playlistIndex the playlist to export
+   * @param filename the file to write
+   * @param format the format to write in
+   * @throws java.io.UncheckedIOException if the file can not be written
+   */
+  public void exportPlaylist(int playlistIndex, String filename, PlaylistExporter.Format format) {
+    exporter.export(songLibrary.get(playlistIndex), filename, format);
+  }
+
+  /**
+   * Writes every playlist to its own file, many files at once.
+   *
+   * @param filenames the files to write, one per playlist in library order
+   * @param format the format to write in
+   * @throws java.io.UncheckedIOException if a file can not be written
+   */
+  public void exportPlaylists(String[] filenames, PlaylistExporter.Format format) {
+    exporter.exportAll(songLibrary, filenames, format);
+  }
+
+  /**
+   * Writes the whole library to a single csv or json file.
+   *
+   * @param filename the file to write
+   * @param format the format to write in
+   * @throws java.io.UncheckedIOException if the file can not be written
+   */
+  public void exportLibrary(String filename, PlaylistExporter.Format format) {
+    exporter.exportLibrary(
+        songLibrary == null ? new ArrayList<Playlist>() : songLibrary, filename, format);
+  }
+
+  /**
+   * Saves every playlist of the library to a binary snapshot file, see {@link LibrarySnapshot} for
+   * the format.
+   *
+   * @param filename the name of the snapshot file
+   * @throws IllegalArgumentException if the file can not be written
+   */
+  public void saveSnapshot(String filename) {
+    LibrarySnapshot.save(songLibrary == null ? new ArrayList<Playlist>() : songLibrary, filename);
+  }
+
+  /**
+   * Replaces the playlists of the library with those of a snapshot file written by {@link
+   * #saveSnapshot(String)}. The file is memory mapped and read with bulk copies instead of being
+   * parsed line by line, and every distinct song is created once.
+   *
+   * @param filename the name of the snapshot file
+   * @throws IllegalArgumentException if the file can not be read, is not a snapshot, has an
+   *     unsupported version or fails its checksum
+   */
+  public void loadSnapshot(String filename) {
+    songLibrary = LibrarySnapshot.load(filename, songPool);
+    history.clear();
+  }
+
+  /**
+   * Returns the distinct songs of the library by an artist.
+   *
+   * <p>This and the other find methods answer from secondary indexes instead of walking the
+   * playlists. The indexes are built by the first query and then kept up to date: insertSong() and
+   * removeSong() update them as they go, and playlists added to or removed from the library are
+   * picked up by the next query, at the cost of reading those playlists only. Since the list of
+   * playlists can be changed through getPlaylists(), every query first compares it with the
+   * playlists indexed, which adds O(P) time for the P playlists of the library to the cost given
+   * for each query. Changes made to a playlist without going through the library are not seen.
+   *
+   * <p>A playlist added by addAllPlaylists() counts only while its songs are in memory: a query
+   * never reads a playlist from its file, so songs of playlists not used yet, or evicted to keep
+   * within the memory budget, are not found until their playlists are used again.
+   *
+   * @param artist the artist of the songs
+   * @return the songs by the artist, each distinct song once, in no particular order
+   */
+  public List<Song> findSongsByArtist(String artist) {
+    return index().byArtist(artist);
+  }
+
+  /**
+   * Returns the distinct songs of the library released within a range of years.
+   *
+   * @param fromYear the first year to include
+   * @param toYear the last year to include
+   * @return the songs, in increasing year order
+   */
+  public List<Song> findSongsByYear(int fromYear, int toYear) {
+    return index().byYear(fromYear, toYear);
+  }
+
+  /**
+   * Returns the distinct songs of the library within a range of popularity.
+   *
+   * @param minPopularity the lowest popularity to include
+   * @param maxPopularity the highest popularity to include
+   * @return the songs, in decreasing popularity order
+   */
+  public List<Song> findSongsByPopularity(int minPopularity, int maxPopularity) {
+    return index().byPopularity(minPopularity, maxPopularity);
+  }
+
+  /**
+   * Returns the distinct songs of the library released within a range of years and within a range
+   * of popularity, for example the songs from 2005 to 2010 with a popularity above 80.
+   *
+   * @param fromYear the first year to include
+   * @param toYear the last year to include
+   * @param minPopularity the lowest popularity to include
+   * @param maxPopularity the highest popularity to include
+   * @return the songs, each distinct song once
+   */
+  public List<Song> findSongs(int fromYear, int toYear, int minPopularity, int maxPopularity) {
+    return index().find(fromYear, toYear, minPopularity, maxPopularity);
+  }
+
+  /**
+   * Returns the k most popular distinct songs of the library, for example to build a chart.
+   *
+   * <p>The songs are read off the library's popularity index, so a call costs O(P + log n + k) for
+   * the P playlists of the library, see findSongsByArtist(), instead of a walk over every song of
+   * every playlist followed by a sort. The index follows insertSong(), removeSong() and
+   * Song.setPopularity() as they happen, each change costing O(log n).
+   *
+   * @param k the number of songs to return
+   * @return the k songs with the highest popularity, or every song if the library holds fewer, in
+   *     decreasing popularity order
+   */
+  public List<Song> topSongs(int k) {
+    return index().top(k);
+  }
+
+  /**
+   * Returns the most popular distinct songs of the library with a word of their name or artist
+   * starting with a prefix, for type-ahead search: "sou" and "soul sis" both find "Hey Soul
+   * Sister". Case does not matter.
+   *
+   * <p>The words of every name and artist are kept in a sorted map maintained alongside the other
+   * indexes, so the call reads only the songs of the word of the prefix that the fewest songs
+   * share, or checks the most popular songs first when even that word is too common to narrow the
+   * library down.
+   *
+   * @param prefix the start of the words to find
+   * @param k the most songs to return
+   * @return the matching songs in decreasing popularity order
+   */
+  public List<Song> searchByPrefix(String prefix, int k) {
+    return index().searchPrefix(prefix, k);
+  }
+
+  /**
+   * Returns the most popular distinct songs of the library whose name or artist contains a piece
+   * of text anywhere. Case does not matter.
+   *
+   * <p>Every piece of one to three characters of every name and artist is indexed, so the call
+   * reads only the songs holding the rarest piece of the text, or checks the most popular songs
+   * first when the text is too common to narrow the library down.
+   *
+   * @param text the text to find
+   * @param k the most songs to return
+   * @return the matching songs in decreasing popularity order
+   */
+  public List<Song> searchBySubstring(String text, int k) {
+    return index().searchSubstring(text, k);
+  }
+
+  // the secondary indexes, brought up to date with the playlists of the library
+  private LibraryIndex index() {
+    if (index == null) {
+      index = new LibraryIndex();
+    }
+    index.sync(songLibrary);
+    return index;
+  }
+
+  /**
+   * Returns the pool holding the canonical copy of every song the library has loaded or inserted
+   * and still holds.
+   *
+   * @return the library's song pool
+   */
+  public SongPool getSongPool() {
+    return songPool;
+  }
+
   /*
    * Used to get and set objects. DO NOT edit.
    */
@@ -0,0 +1,350 @@
+package music;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class measures the operations of {@link PlaylistLibrary} on synthetic playlists of 1e3 to
+ * 1e6 songs, so changes to the playlist engine can be compared by numbers.
+ *
+ * <p>For every operation and playlist size the harness warms up first, then repeats the operation
+ * until the measurement time is over and reports:
+ *
+ * <ul>
+ *   <li>throughput, in operations per second;
+ *   <li>average latency, in nanoseconds per operation;
+ *   <li>allocation, in bytes per operation and MB per second, as counted by the JVM for the thread
+ *       running the operation, so work handed to other threads is not included;
+ *   <li>the number of garbage collections and the time they took during the measurement.
+ * </ul>
+ *
+ * <p>Operations that use up their playlist, such as mergePlaylists(), get a fresh library before
+ * every call. Only the calls themselves are timed, never the set up. Cheap operations are timed in
+ * batches, so the clock is read once per batch rather than once per call.
+ *
+ * <p>Usage: {@code java music.PlaylistLibraryBenchmark [seconds per measurement] [largest size]
+ * [operation ...]}, by default 1 second, 1000000 songs and every operation.
+ */
+public class PlaylistLibraryBenchmark {
+  private static final int BATCH = 1000; // calls timed together for the cheap operations
+  private static final int ARTISTS = 1000; // distinct artists of the synthetic songs
+  private static final com.sun.management.ThreadMXBean THREADS =
+      ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+          ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()
+          : null;
+
+  private PlaylistLibraryBenchmark() {
+    // can not instantiate
+  }
+
+  /*
+   * One operation under measurement: prepare() builds whatever run() needs and is not timed,
+   * run() makes the calls and returns how many it made
+   */
+  private abstract static class Operation {
+    final Random random = new Random(42);
+    PlaylistLibrary library;
+    int size;
+
+    void prepare(int size) {
+      if (library == null || this.size != size) {
+        this.size = size;
+        library = library(generate(size, random, false));
+      }
+    }
+
+    abstract int run();
+
+    void cleanUp() {}
+  }
+
+  /*
+   * The operations the harness knows, by the name of the method they measure
+   */
+  private static Map<String, Operation> operations() {
+    Map<String, Operation> operations = new LinkedHashMap<>();
+    operations.put(
+        "insertSong",
+        new Operation() {
+          private final Song[] songs = extras(BATCH);
+          private final int[] positions = new int[BATCH];
+
+          @Override
+          void prepare(int size) {
+            super.prepare(size);
+            for (int i = 0; i < BATCH; i++) {
+              positions[i] = 1 + random.nextInt(size + i + 1);
+            }
+          }
+
+          @Override
+          int run() {
+            for (int i = 0; i < BATCH; i++) {
+              library.insertSong(0, positions[i], songs[i]);
+            }
+            return BATCH;
+          }
+
+          @Override
+          void cleanUp() {
+            for (Song song : songs) {
+              library.removeSong(0, song);
+            }
+          }
+        });
+    operations.put(
+        "removeSong",
+        new Operation() {
+          private final Song[] songs = extras(BATCH);
+
+          @Override
+          void prepare(int size) {
+            super.prepare(size);
+            for (int i = 0; i < BATCH; i++) {
+              library.insertSong(0, 1 + random.nextInt(size + i + 1), songs[i]);
+            }
+          }
+
+          @Override
+          int run() {
+            for (Song song : songs) {
+              library.removeSong(0, song);
+            }
+            return BATCH;
+          }
+        });
+    operations.put(
+        "getSong",
+        new Operation() {
+          private final int[] positions = new int[BATCH];
+
+          @Override
+          void prepare(int size) {
+            super.prepare(size);
+            for (int i = 0; i < BATCH; i++) {
+              positions[i] = 1 + random.nextInt(size);
+            }
+          }
+
+          @Override
+          int run() {
+            for (int position : positions) {
+              library.getSong(0, position);
+            }
+            return BATCH;
+          }
+        });
+    operations.put(
+        "reversePlaylist",
+        new Operation() {
+          @Override
+          int run() {
+            for (int i = 0; i < BATCH; i++) {
+              library.reversePlaylist(0);
+            }
+            return BATCH;
+          }
+        });
+    operations.put(
+        "shufflePlaylist",
+        new Operation() {
+          @Override
+          int run() {
+            library.shufflePlaylist(0, random.nextLong());
+            return 1;
+          }
+        });
+    operations.put(
+        "sortPlaylist",
+        new Operation() {
+          @Override
+          void prepare(int size) {
+            super.prepare(size);
+            library.shufflePlaylist(0, random.nextLong());
+          }
+
+          @Override
+          int run() {
+            library.sortPlaylist(0);
+            return 1;
+          }
+        });
+    operations.put(
+        "mergePlaylists",
+        new Operation() {
+          @Override
+          void prepare(int size) {
+            this.size = size;
+            library =
+                library(
+                    generate(size / 2, random, true), generate(size - size / 2, random, true));
+          }
+
+          @Override
+          int run() {
+            library.mergePlaylists(0, 1);
+            return 1;
+          }
+        });
+    operations.put(
+        "createPlaylist",
+        new Operation() {
+          private Path file;
+
+          @Override
+          void prepare(int size) {
+            if (file == null || this.size != size) {
+              super.prepare(size);
+              try {
+                if (file == null) {
+                  file = Files.createTempFile("playlist", ".csv");
+                  file.toFile().deleteOnExit();
+                }
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+              library.exportPlaylist(0, file.toString(), PlaylistExporter.Format.CSV);
+            }
+          }
+
+          @Override
+          int run() {
+            library.createPlaylist(file.toString());
+            return 1;
+          }
+        });
+    return operations;
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args the seconds each measurement lasts, the largest playlist size and the names of the
+   *     operations to measure, all optional
+   */
+  public static void main(String[] args) {
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+    int largest = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    Map<String, Operation> operations = operations();
+    if (args.length > 2) {
+      operations.keySet().retainAll(Arrays.asList(args).subList(2, args.length));
+    }
+    StdOut.printf(
+        "%-16s %9s %14s %14s %14s %10s %8s %8s%n",
+        "operation", "songs", "ops/s", "ns/op", "B/op", "MB/s", "gc", "gc ms");
+    for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+      for (int size = 1000; size <= largest; size *= 10) {
+        measure(entry.getValue(), size, seconds / 2); // warm up, results thrown away
+        Result result = measure(entry.getValue(), size, seconds);
+        StdOut.printf(
+            "%-16s %9d %14.1f %14.1f %14.1f %10.1f %8d %8d%n",
+            entry.getKey(),
+            size,
+            result.operations / (result.nanos / 1e9),
+            (double) result.nanos / result.operations,
+            (double) result.allocated / result.operations,
+            result.allocated / (result.nanos / 1e9) / (1 << 20),
+            result.collections,
+            result.collectionMillis);
+      }
+    }
+  }
+
+  /*
+   * What one measurement counted
+   */
+  private static class Result {
+    long operations;
+    long nanos; // time spent in run(), summed
+    long allocated; // bytes allocated by run(), summed
+    long collections;
+    long collectionMillis;
+  }
+
+  // repeats an operation for at least the given time and at least three times
+  private static Result measure(Operation operation, int size, double seconds) {
+    Result result = new Result();
+    long gcCount = gcCount();
+    long gcMillis = gcMillis();
+    long end = System.nanoTime() + (long) (seconds * 1e9);
+    for (int i = 0; i < 3 || System.nanoTime() < end; i++) {
+      operation.prepare(size);
+      long allocated = allocated();
+      long start = System.nanoTime();
+      result.operations += operation.run();
+      result.nanos += System.nanoTime() - start;
+      result.allocated += allocated() - allocated;
+      operation.cleanUp();
+    }
+    result.collections = gcCount() - gcCount;
+    result.collectionMillis = gcMillis() - gcMillis;
+    return result;
+  }
+
+  /**
+   * Generates a playlist of synthetic songs with random years, popularities and artists.
+   *
+   * @param size the number of songs
+   * @param random the source of randomness
+   * @param byPopularity true for songs in decreasing popularity order, as mergePlaylists() expects
+   * @return the playlist
+   */
+  static Playlist generate(int size, Random random, boolean byPopularity) {
+    Song[] songs = new Song[size];
+    for (int i = 0; i < size; i++) {
+      int popularity = byPopularity ? 100 - (int) (100L * i / size) : random.nextInt(101);
+      songs[i] =
+          new Song(
+              "Song " + random.nextInt(Integer.MAX_VALUE),
+              "Artist " + random.nextInt(ARTISTS),
+              1950 + random.nextInt(75),
+              popularity,
+              "song" + i + ".wav");
+    }
+    return PersistentPlaylist.of(songs).toPlaylist();
+  }
+
+  private static PlaylistLibrary library(Playlist... playlists) {
+    return new PlaylistLibrary(new ArrayList<>(List.of(playlists)));
+  }
+
+  private static Song[] extras(int count) {
+    Song[] songs = new Song[count];
+    for (int i = 0; i < count; i++) {
+      songs[i] = new Song("Extra " + i, "Benchmark", 2024, i % 101);
+    }
+    return songs;
+  }
+
+  private static long allocated() {
+    return THREADS == null || !THREADS.isThreadAllocatedMemorySupported()
+        ? 0
+        : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(gc.getCollectionCount(), 0);
+    }
+    return count;
+  }
+
+  private static long gcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(gc.getCollectionTime(), 0);
+    }
+    return millis;
+  }
+}
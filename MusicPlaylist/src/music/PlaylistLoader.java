@@ -0,0 +1,259 @@
+package music;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class reads playlists from csv files.
+ *
+ * <p>Each line of an input file has the format songName,artist,year,popularity,link, the same
+ * format createPlaylist() in PlaylistLibrary reads. Unlike StdIn, a loader keeps no global state:
+ * each file is read through its own FileChannel into a ByteBuffer and split into fields by scanning
+ * the bytes directly, without building a String per line or calling split() and parseInt(). That
+ * makes it safe to load many files at once, which {@link #loadAll(String[])} does on an Executor.
+ *
+ * <p>Every song read goes through a {@link SongPool}, so a track listed in many files is kept in
+ * memory once and every song by an artist shares one artist String.
+ *
+ * <p>{@link #loadAllLazily(String[], PlaylistCache)} reads no songs at all: it creates playlists
+ * that read their files when their songs are first used.
+ *
+ * <p>Blank lines are skipped. A file that cannot be opened is reported on standard error and
+ * loaded as an empty playlist, and a line with fewer than five fields or a malformed number throws
+ * an IllegalArgumentException.
+ */
+public class PlaylistLoader {
+  // files at least this large are memory mapped instead of read into the heap
+  private static final long MAP_THRESHOLD = 1 << 20;
+
+  private final Executor executor; // runs the loads of loadAll()
+  private final SongPool pool; // canonical copies of the songs read
+
+  /*
+   * Constructor, the executor runs one task per file in loadAll(); on Java 21 a virtual thread per
+   * task executor is a good fit
+   */
+  public PlaylistLoader(Executor executor, SongPool pool) {
+    this.executor = executor;
+    this.pool = pool;
+  }
+
+  /*
+   * Constructor with a pool of its own
+   */
+  public PlaylistLoader(Executor executor) {
+    this(executor, new SongPool());
+  }
+
+  /*
+   * Default constructor loads files on the common fork-join pool, with a pool of its own
+   */
+  public PlaylistLoader() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Reads the songs of a csv file into a new playlist, in file order.
+   *
+   * @param filename the playlist information input file
+   * @return a Playlist object, which contains a reference to the LAST song in the circular
+   *     linkedlist playlist and the size of the playlist.
+   */
+  public Playlist load(String filename) {
+    try {
+      return read(filename);
+    } catch (IOException e) {
+      System.err.println("Could not open " + filename);
+      return new Playlist();
+    }
+  }
+
+  /**
+   * Reads many csv files concurrently. The playlists are returned in the same order as the
+   * filenames, whatever order the files finish loading in.
+   *
+   * @param filenames the playlist information input files
+   * @return the playlists, one per filename
+   */
+  public ArrayList<Playlist> loadAll(String[] filenames) {
+    ArrayList<CompletableFuture<Playlist>> loads = new ArrayList<>(filenames.length);
+    for (String filename : filenames) {
+      loads.add(CompletableFuture.supplyAsync(() -> load(filename), executor));
+    }
+    ArrayList<Playlist> playlists = new ArrayList<>(filenames.length);
+    for (CompletableFuture<Playlist> load : loads) {
+      try {
+        playlists.add(load.join());
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw e;
+      }
+    }
+    return playlists;
+  }
+
+  /**
+   * Creates playlists that read their songs from csv files only when the songs are first used, see
+   * {@link LazyPlaylist}. No file is opened here, so the call takes time for the number of files
+   * only: each playlist counts or reads its file when first asked for its size or its songs, which
+   * is also when a file that cannot be opened is reported and gives an empty playlist, as with
+   * load(). Playlists first used from several threads at once read their files concurrently.
+   *
+   * @param filenames the playlist information input files
+   * @param cache the cache keeping the songs of the playlists within a budget
+   * @return the playlists, one per filename
+   */
+  ArrayList<Playlist> loadAllLazily(String[] filenames, PlaylistCache cache) {
+    ArrayList<Playlist> playlists = new ArrayList<>(filenames.length);
+    for (String filename : filenames) {
+      playlists.add(new LazyPlaylist(filename, this, cache));
+    }
+    return playlists;
+  }
+
+  /*
+   * Reads the songs of a csv file into a new playlist like load(), but throws if the file can not
+   * be read
+   */
+  Playlist read(String filename) throws IOException {
+    return parse(read(Paths.get(filename)), filename);
+  }
+
+  /*
+   * Returns the number of songs load() would read from a csv file, by counting its non-blank lines
+   * without reading any song
+   */
+  int count(String filename) throws IOException {
+    ByteBuffer bytes = read(Paths.get(filename));
+    int limit = bytes.limit();
+    int songs = 0;
+    int pos = 0;
+    while (pos < limit) {
+      int lineEnd = pos;
+      while (lineEnd < limit && bytes.get(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      if (lineEnd > pos && !(lineEnd == pos + 1 && bytes.get(pos) == '\r')) {
+        songs++;
+      }
+      pos = lineEnd + 1;
+    }
+    return songs;
+  }
+
+  // reads a whole file into a buffer
+  private static ByteBuffer read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size >= MAP_THRESHOLD) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) == -1) {
+          break;
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+  }
+
+  // splits the bytes into lines and fields, appending one song per non-blank line
+  private Playlist parse(ByteBuffer bytes, String filename) {
+    int limit = bytes.limit();
+    int[] fieldStart = new int[5];
+    int[] fieldEnd = new int[5];
+    SongNode last = null;
+    int size = 0;
+    int lineNumber = 0;
+    int pos = 0;
+    while (pos < limit) {
+      lineNumber++;
+      int lineEnd = pos;
+      while (lineEnd < limit && bytes.get(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      int contentEnd = lineEnd;
+      if (contentEnd > pos && bytes.get(contentEnd - 1) == '\r') {
+        contentEnd--;
+      }
+      if (contentEnd > pos) {
+        // fields past the fifth are ignored, just like with split(",")
+        int fields = 0;
+        int start = pos;
+        for (int i = pos; i <= contentEnd && fields < 5; i++) {
+          if (i == contentEnd || bytes.get(i) == ',') {
+            fieldStart[fields] = start;
+            fieldEnd[fields++] = i;
+            start = i + 1;
+          }
+        }
+        if (fields < 5) {
+          throw new IllegalArgumentException(
+              "expected 5 fields on line " + lineNumber + " of " + filename);
+        }
+        Song song =
+            pool.intern(
+                new Song(
+                    string(bytes, fieldStart[0], fieldEnd[0]),
+                    pool.artist(string(bytes, fieldStart[1], fieldEnd[1])),
+                    number(bytes, fieldStart[2], fieldEnd[2], lineNumber, filename),
+                    number(bytes, fieldStart[3], fieldEnd[3], lineNumber, filename),
+                    string(bytes, fieldStart[4], fieldEnd[4])));
+        if (last == null) {
+          last = new SongNode(song, null);
+          last.setNext(last);
+        } else {
+          SongNode songNode = new SongNode(song, last.getNext());
+          last.setNext(songNode);
+          last = songNode;
+        }
+        size++;
+      }
+      pos = lineEnd + 1;
+    }
+    return new Playlist(last, size);
+  }
+
+  // decodes the bytes from start (inclusive) to end (exclusive) as UTF-8
+  private static String string(ByteBuffer bytes, int start, int end) {
+    if (bytes.hasArray()) {
+      return new String(
+          bytes.array(), bytes.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+    }
+    byte[] copy = new byte[end - start];
+    bytes.get(start, copy);
+    return new String(copy, StandardCharsets.UTF_8);
+  }
+
+  // parses the bytes from start (inclusive) to end (exclusive) as a decimal int
+  private static int number(ByteBuffer bytes, int start, int end, int lineNumber, String file) {
+    boolean negative = start < end && bytes.get(start) == '-';
+    int i = negative ? start + 1 : start;
+    if (i == end) {
+      throw new IllegalArgumentException("missing number on line " + lineNumber + " of " + file);
+    }
+    int value = 0;
+    for (; i < end; i++) {
+      int digit = bytes.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new IllegalArgumentException("bad number on line " + lineNumber + " of " + file);
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+}
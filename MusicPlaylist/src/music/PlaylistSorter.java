@@ -0,0 +1,166 @@
+package music;
+
+import java.util.Comparator;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class sorts the circular linked list of a playlist with a stable merge sort.
+ *
+ * <p>The sort relinks the existing SongNodes and never allocates new ones. The sequential version
+ * is a bottom-up merge sort, so it needs no recursion and no extra space. The parallel version
+ * splits the list into segments of at least {@link #PARALLEL_THRESHOLD} nodes, sorts them as
+ * fork-join tasks, and merges the sorted segments back together.
+ */
+class PlaylistSorter {
+  /** Playlists smaller than this are always sorted sequentially. */
+  static final int PARALLEL_THRESHOLD = 1 << 13;
+
+  private final Comparator<? super Song> comparator; // the order to sort in
+  private SongNode tail; // the last node of the list produced by the latest merge
+
+  /*
+   * Constructor
+   */
+  private PlaylistSorter(Comparator<? super Song> comparator) {
+    this.comparator = comparator;
+  }
+
+  /**
+   * Sorts a playlist in place. Songs that compare equal keep their relative order.
+   *
+   * @param playlist the playlist to sort
+   * @param comparator the order to sort in
+   * @param parallel whether large playlists may be sorted by several threads
+   */
+  static void sort(Playlist playlist, Comparator<? super Song> comparator, boolean parallel) {
+    int size = playlist.getSize();
+    if (size <= 1) {
+      return;
+    }
+    // break the circle so the list is null terminated while it is being sorted
+    SongNode last = playlist.getLast();
+    SongNode head = last.getNext();
+    last.setNext(null);
+    if (parallel && size >= 2 * PARALLEL_THRESHOLD) {
+      SortTask task = new SortTask(head, size, comparator);
+      task.invoke();
+      head = task.head;
+      last = task.tail;
+    } else {
+      PlaylistSorter sorter = new PlaylistSorter(comparator);
+      head = sorter.sort(head, size);
+      last = sorter.tail;
+    }
+    last.setNext(head);
+    playlist.setLast(last);
+  }
+
+  // sorts a null terminated list of n nodes bottom-up and returns its new head
+  private SongNode sort(SongNode head, int n) {
+    for (int width = 1; width < n; width *= 2) {
+      SongNode remaining = head;
+      SongNode sortedTail = null;
+      while (remaining != null) {
+        SongNode left = remaining;
+        SongNode right = cut(left, width);
+        remaining = cut(right, width);
+        SongNode merged = merge(left, null, right, null);
+        if (sortedTail == null) {
+          head = merged;
+        } else {
+          sortedTail.setNext(merged);
+        }
+        sortedTail = tail;
+      }
+    }
+    return head;
+  }
+
+  // merges two sorted null terminated lists, taking from the left one on ties; a tail passed as
+  // null is found by walking, and the tail of the result is left in the tail field
+  private SongNode merge(SongNode left, SongNode leftTail, SongNode right, SongNode rightTail) {
+    SongNode head = null;
+    SongNode ptr = null;
+    while (left != null && right != null) {
+      SongNode taken;
+      if (comparator.compare(right.getSong(), left.getSong()) < 0) {
+        taken = right;
+        right = right.getNext();
+      } else {
+        taken = left;
+        left = left.getNext();
+      }
+      if (ptr == null) {
+        head = taken;
+      } else {
+        ptr.setNext(taken);
+      }
+      ptr = taken;
+    }
+    SongNode rest = left != null ? left : right;
+    SongNode restTail = left != null ? leftTail : rightTail;
+    if (ptr == null) {
+      head = rest;
+    } else {
+      ptr.setNext(rest);
+    }
+    if (rest != null) {
+      if (restTail == null) {
+        restTail = rest;
+        while (restTail.getNext() != null) {
+          restTail = restTail.getNext();
+        }
+      }
+      ptr = restTail;
+    }
+    tail = ptr;
+    return head;
+  }
+
+  // cuts the list after its first n nodes and returns the rest, or null if nothing is left
+  private static SongNode cut(SongNode head, int n) {
+    for (int i = 1; head != null && i < n; i++) {
+      head = head.getNext();
+    }
+    if (head == null) {
+      return null;
+    }
+    SongNode rest = head.getNext();
+    head.setNext(null);
+    return rest;
+  }
+
+  /*
+   * Sorts a null terminated list by sorting both halves concurrently and merging them
+   */
+  private static class SortTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int n; // the number of nodes in the list
+    private final Comparator<? super Song> comparator;
+    private SongNode head; // the first node, the first sorted node once done
+    private SongNode tail; // the last sorted node once done
+
+    SortTask(SongNode head, int n, Comparator<? super Song> comparator) {
+      this.head = head;
+      this.n = n;
+      this.comparator = comparator;
+    }
+
+    @Override
+    protected void compute() {
+      PlaylistSorter sorter = new PlaylistSorter(comparator);
+      if (n < 2 * PARALLEL_THRESHOLD) {
+        head = sorter.sort(head, n);
+        tail = sorter.tail;
+        return;
+      }
+      int half = n / 2;
+      SongNode right = cut(head, half);
+      SortTask leftTask = new SortTask(head, half, comparator);
+      SortTask rightTask = new SortTask(right, n - half, comparator);
+      invokeAll(leftTask, rightTask);
+      head = sorter.merge(leftTask.head, leftTask.tail, rightTask.head, rightTask.tail);
+      tail = sorter.tail;
+    }
+  }
+}
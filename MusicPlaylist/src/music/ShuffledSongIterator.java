@@ -0,0 +1,55 @@
+package music;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * This class iterates over the songs of a playlist in a random order without changing it.
+ *
+ * <p>It runs a Fisher-Yates shuffle over the positions of the playlist one step at a time. Only the
+ * positions that have been swapped so far are remembered, and each song is fetched through the
+ * playlist's positional index. Creating the iterator is O(1) and each call to next() is O(log n),
+ * except that the first call builds the positional index in O(n) time if the playlist has not
+ * built it yet, for example right after it was loaded, shuffled or sorted.
+ *
+ * <p>The playlist must not be modified while the iterator is in use.
+ */
+class ShuffledSongIterator implements Iterator<Song> {
+  private final Playlist playlist; // the playlist being iterated over
+  private final Random random; // generates the permutation
+  private final int size; // the number of songs to return
+  private int returned; // the number of songs returned so far
+  private final HashMap<Integer, Integer> swapped; // position to the position now stored there
+
+  /*
+   * Constructor
+   */
+  ShuffledSongIterator(Playlist playlist, long seed) {
+    this.playlist = playlist;
+    this.random = new Random(seed);
+    this.size = playlist.getSize();
+    this.swapped = new HashMap<>();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return returned < size;
+  }
+
+  @Override
+  public Song next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    int r = returned + random.nextInt(size - returned);
+    int picked = swapped.getOrDefault(r, r);
+    Integer current = swapped.remove(returned);
+    if (r != returned) {
+      swapped.put(r, current == null ? returned : current);
+    }
+    returned++;
+    return playlist.nodeAt(picked + 1).getSong();
+  }
+}
@@ -1,5 +1,8 @@
 package music;
 
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 /**
  * This class represents a song, with a string for the song name, artist, album, and year
  *
@@ -7,12 +10,24 @@ package music;
  * @author Vian Miranda
  */
 public class Song {
+  /* Comparators over single fields in increasing order, combine them with thenComparing() */
+  public static final Comparator<Song> BY_POPULARITY = Comparator.comparingInt(Song::getPopularity);
+  public static final Comparator<Song> BY_YEAR = Comparator.comparingInt(Song::getYear);
+  public static final Comparator<Song> BY_ARTIST =
+      Comparator.comparing(Song::getArtist, Comparator.nullsFirst(Comparator.naturalOrder()));
+  public static final Comparator<Song> BY_NAME =
+      Comparator.comparing(Song::getSongName, Comparator.nullsFirst(Comparator.naturalOrder()));
+
   private String songName;
   private String artist;
   private int year;
   private int popularity;
   private String link;
   private final String DIRECTORY = "songs/";
+  // told whenever a field used by equals() changes, null until something indexes the song
+  private volatile KeyTracker tracker;
+  private static final AtomicReferenceFieldUpdater<Song, KeyTracker> TRACKER =
+      AtomicReferenceFieldUpdater.newUpdater(Song.class, KeyTracker.class, "tracker");
 
   /*
    * Constructor
@@ -36,6 +51,15 @@ public class Song {
     this.link = null;
   }
 
+  /*
+   * Creates a song whose link is already a full path, as returned by getLink()
+   */
+  static Song withPath(String songName, String artist, int year, int popularity, String path) {
+    Song song = new Song(songName, artist, year, popularity);
+    song.link = path;
+    return song;
+  }
+
   /*
    * Default constructor initializes year and popularity to 0
    */
@@ -94,7 +118,9 @@ public class Song {
   }
 
   public void setSongName(String s) {
+    Key before = keyBeforeChange();
     songName = s;
+    keyChanged(before);
   }
 
   public String getArtist() {
@@ -102,7 +128,9 @@ public class Song {
   }
 
   public void setArtist(String art) {
+    Key before = keyBeforeChange();
     artist = art;
+    keyChanged(before);
   }
 
   public int getYear() {
@@ -110,7 +138,9 @@ public class Song {
   }
 
   public void setYear(int y) {
+    Key before = keyBeforeChange();
     year = y;
+    keyChanged(before);
   }
 
   public int getPopularity() {
@@ -118,7 +148,9 @@ public class Song {
   }
 
   public void setPopularity(int p) {
+    Key before = keyBeforeChange();
     popularity = p;
+    keyChanged(before);
   }
 
   public String getLink() {
@@ -132,4 +164,103 @@ public class Song {
   public String getDirectory() {
     return DIRECTORY;
   }
+
+  /*
+   * Replaces the artist with an equal String, so songs by the same artist can share one copy
+   */
+  void shareArtist(String sameArtist) {
+    artist = sameArtist;
+  }
+
+  /*
+   * Returns the name, artist, year and popularity of the song as they are now
+   */
+  Key key() {
+    return new Key(this);
+  }
+
+  /*
+   * Returns the tracker told about changes to the name, artist, year or popularity of this song,
+   * which becomes the given one if no tracker has been set yet
+   */
+  KeyTracker track(KeyTracker tracker) {
+    TRACKER.compareAndSet(this, null, tracker);
+    return this.tracker;
+  }
+
+  /*
+   * The name, artist, year and popularity of a song at one point in time. Hash indexes keyed by
+   * songs use keys, whose hash codes stay the same when the song changes afterwards
+   */
+  static final class Key {
+    private final String songName;
+    private final String artist;
+    private final int year;
+    private final int popularity;
+
+    private Key(Song song) {
+      songName = song.songName;
+      artist = song.artist;
+      year = song.year;
+      popularity = song.popularity;
+    }
+
+    String getSongName() {
+      return songName;
+    }
+
+    String getArtist() {
+      return artist;
+    }
+
+    int getYear() {
+      return year;
+    }
+
+    int getPopularity() {
+      return popularity;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + ((songName == null) ? 0 : songName.hashCode());
+      result = prime * result + ((artist == null) ? 0 : artist.hashCode());
+      result = prime * result + year;
+      result = prime * result + popularity;
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof Key)) return false;
+      Key other = (Key) obj;
+      return year == other.year
+          && popularity == other.popularity
+          && (songName == null ? other.songName == null : songName.equals(other.songName))
+          && (artist == null ? other.artist == null : artist.equals(other.artist));
+    }
+  }
+
+  /*
+   * Receives the changes to the name, artist, year or popularity of the songs of a KeyTracker
+   */
+  interface KeyListener {
+    void keyChanged(Song song, Key before);
+  }
+
+  // the key before a change, or null if nobody listens for changes to this song, so that an
+  // untracked song allocates nothing when it changes
+  private Key keyBeforeChange() {
+    KeyTracker current = tracker;
+    return current == null || !current.hasListeners() ? null : new Key(this);
+  }
+
+  private void keyChanged(Key before) {
+    if (before != null) {
+      tracker.keyChanged(this, before);
+    }
+  }
 }
@@ -11,6 +11,17 @@ public class SongNode {
   private Song song; // the song contained in this node
   private SongNode next; // reference to the next song in the playlist
 
+  // Index bookkeeping, owned by the Playlist this node belongs to. The nodes of a playlist double
+  // as the nodes of a treap ordered by list position, so positional lookups do not have to walk
+  // the circular list, and nodes holding equal songs are chained together for removal by value.
+  SongNode left; // treap child holding earlier songs
+  SongNode right; // treap child holding later songs
+  SongNode parent; // treap parent, null for the root
+  int count; // number of nodes in the treap subtree rooted here
+  int priority; // random treap priority, larger values sit closer to the root
+  SongNode prev; // reference to the previous song in the playlist, valid while indexed
+  SongNode twin; // another node of the same playlist holding an equal song, or null
+
   /*
    * Constructor
    */
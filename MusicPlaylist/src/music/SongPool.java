@@ -0,0 +1,132 @@
+package music;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps one canonical copy of every distinct song, so that a track appearing in many
+ * playlists is stored in memory only once.
+ *
+ * <p>Songs are looked up with their equals() and hashCode() methods, which compare the song name,
+ * artist, year and popularity; the first song interned with a given set of values becomes the
+ * canonical one, link included. Artist names are shared the same way, so every song by an artist
+ * refers to a single String.
+ *
+ * <p>The pool holds its songs weakly: a song stays canonical while a playlist, an index or anything
+ * else refers to it, and once nothing does it is collected and leaves the pool. So the songs of a
+ * playlist that was evicted or removed take no memory unless another playlist shares them, and a
+ * playlist read again gets the same song objects as before whenever they are still in use.
+ *
+ * <p>A pool is safe to use from several threads at once, which lets concurrent loads share it.
+ * The songs interned by a pool are tracked by its {@link KeyTracker}, so changing the name, artist,
+ * year or popularity of one of them moves just that song to its new place in the pool, and reaches
+ * the indexes of the playlists holding the pool's songs without touching those of other
+ * libraries.
+ */
+public class SongPool {
+  private final ConcurrentHashMap<Song.Key, SongReference> songs = new ConcurrentHashMap<>();
+  private final ReferenceQueue<Song> collected = new ReferenceQueue<>(); // songs gone from memory
+  private final ConcurrentHashMap<String, String> artists = new ConcurrentHashMap<>();
+  private final KeyTracker tracker = new KeyTracker(); // tracks the songs interned here
+  private final Song.KeyListener rekey = this::rekey; // held here, trackers only hold it weakly
+  private final Set<KeyTracker> trackers = ConcurrentHashMap.newKeySet(); // rekey registered with
+
+  /*
+   * A weak reference to a canonical song, knowing the key it is filed under
+   */
+  private static final class SongReference extends WeakReference<Song> {
+    final Song.Key key;
+
+    SongReference(Song song, Song.Key key, ReferenceQueue<Song> queue) {
+      super(song, queue);
+      this.key = key;
+    }
+  }
+
+  /**
+   * Returns the canonical song equal to the given one. If there is none yet, the given song
+   * becomes canonical and its artist name is replaced by the shared copy.
+   *
+   * @param song the song to look up
+   * @return the canonical song, or null if song is null
+   */
+  public Song intern(Song song) {
+    if (song == null) {
+      return null;
+    }
+    expunge();
+    Song.Key key = song.key();
+    SongReference reference = songs.get(key);
+    Song canonical = reference == null ? null : reference.get();
+    if (canonical != null) {
+      return canonical;
+    }
+    song.shareArtist(artist(song.getArtist()));
+    KeyTracker songTracker = song.track(tracker);
+    if (trackers.add(songTracker)) {
+      songTracker.addListener(rekey);
+    }
+    return put(key, song);
+  }
+
+  /**
+   * Returns the shared copy of an artist name.
+   *
+   * @param artist the artist name
+   * @return the shared String equal to artist, or null if artist is null
+   */
+  public String artist(String artist) {
+    if (artist == null) {
+      return null;
+    }
+    String canonical = artists.putIfAbsent(artist, artist);
+    return canonical == null ? artist : canonical;
+  }
+
+  /**
+   * Returns the number of distinct songs in the pool. Songs nothing refers to any more leave the
+   * pool once they are collected, so the number can shrink without any call to the pool.
+   *
+   * @return the number of canonical songs
+   */
+  public int size() {
+    expunge();
+    return songs.size();
+  }
+
+  // files a song under a key unless a song still in memory is filed there, and returns the one
+  // filed there in the end
+  private Song put(Song.Key key, Song song) {
+    Song[] canonical = new Song[1];
+    songs.compute(
+        key,
+        (k, reference) -> {
+          canonical[0] = reference == null ? null : reference.get();
+          if (canonical[0] != null) {
+            return reference;
+          }
+          canonical[0] = song;
+          return new SongReference(song, k, collected);
+        });
+    return canonical[0];
+  }
+
+  // moves a song that changed to its new key; when it became equal to another canonical song, the
+  // one interned first stays canonical
+  private void rekey(Song song, Song.Key before) {
+    SongReference reference = songs.get(before);
+    if (reference != null && reference.get() == song && songs.remove(before, reference)) {
+      put(song.key(), song);
+    }
+  }
+
+  // removes the references to songs that were collected; a reference no longer filed under its
+  // key, because its song changed, is left alone
+  private void expunge() {
+    for (SongReference reference; (reference = (SongReference) collected.poll()) != null; ) {
+      songs.remove(reference.key, reference);
+    }
+  }
+}
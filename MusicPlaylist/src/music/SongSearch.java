@@ -0,0 +1,268 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class finds songs by the text of their names and artists, for type-ahead search. It is kept
+ * by {@link LibraryIndex}, which tells it about every distinct song that joins or leaves the
+ * library and every name or artist that changes.
+ *
+ * <p>Text is compared without regard to case. A prefix query matches a song when its name or
+ * artist has a word starting with the query, so "sou" and "soul sis" both match "Hey Soul Sister".
+ * The words are kept in a sorted map. Every word of the query but the last must be a whole word of
+ * a matching song, an entry of the map, and the last must start one, a range of the map; the word
+ * with the fewest songs gives the songs to check. A substring query matches a song when its name
+ * or artist contains the query anywhere. Every piece of one to three characters of a name or
+ * artist is kept in a hash map, and the rarest three character piece of the query, or the whole
+ * query if it is shorter, gives the songs to check.
+ *
+ * <p>Queries return the most popular matches first. When there are so many songs to check that
+ * reading them all would be slow, such as for a one letter prefix, the library is first read in
+ * decreasing popularity order until enough songs match, which is quick exactly because matches
+ * are common. That scan gives up after reading as many songs as there were to check, which are
+ * then checked after all, so a query reads at most twice the songs of its rarest word or piece.
+ */
+final class SongSearch {
+  // candidates a query checks straight away; with more it first reads the library by popularity
+  private static final int CANDIDATE_LIMIT = 4096;
+  private static final int GRAM = 3; // the length of the pieces substring queries look up
+
+  private final TreeMap<String, Set<Song>> words = new TreeMap<>(); // word to songs using it
+  private final HashMap<String, Set<Song>> grams = new HashMap<>(); // piece to songs holding it
+
+  /*
+   * Adds a song under the words and pieces of its name and artist
+   */
+  void add(Song song) {
+    index(song.getSongName(), song.getArtist(), song, true);
+  }
+
+  /*
+   * Removes a song, found under the words and pieces of the given name and artist, which are its
+   * own or the ones it had before they changed
+   */
+  void remove(String name, String artist, Song song) {
+    index(name, artist, song, false);
+  }
+
+  /**
+   * Returns the most popular songs with a word of their name or artist starting with a prefix.
+   *
+   * @param prefix the start of the words to find, compared without regard to case and with
+   *     surrounding white space ignored
+   * @param k the most songs to return
+   * @param byPopularity every indexed song, bucketed in decreasing popularity order
+   * @return the matching songs in decreasing popularity order; songs of equal popularity are in no
+   *     particular order
+   */
+  List<Song> prefix(String prefix, int k, Collection<Set<Song>> byPopularity) {
+    String query = normalize(prefix).trim();
+    if (query.isEmpty() || k <= 0 || !startsWord(query, 0)) {
+      return new ArrayList<>(); // words start with a letter or a digit
+    }
+    // each word of the query narrows the songs down; the whole query is then checked
+    Collection<Set<Song>> narrowest = null;
+    long fewest = Long.MAX_VALUE;
+    for (int i = 0; i < query.length(); i++) {
+      if (!startsWord(query, i)) {
+        continue;
+      }
+      int end = wordEnd(query, i);
+      String word = query.substring(i, end);
+      Collection<Set<Song>> songs;
+      if (end < query.length()) {
+        Set<Song> exact = words.get(word);
+        if (exact == null) {
+          return new ArrayList<>();
+        }
+        songs = List.of(exact);
+      } else {
+        songs = words.subMap(word, word + Character.MAX_VALUE).values();
+      }
+      long count = count(songs, fewest);
+      if (count < fewest) {
+        narrowest = songs;
+        fewest = count;
+      }
+      i = end;
+    }
+    return find(narrowest, fewest, query, true, k, byPopularity);
+  }
+
+  /**
+   * Returns the most popular songs whose name or artist contains a piece of text.
+   *
+   * @param text the text to find, compared without regard to case
+   * @param k the most songs to return
+   * @param byPopularity every indexed song, bucketed in decreasing popularity order
+   * @return the matching songs in decreasing popularity order; songs of equal popularity are in no
+   *     particular order
+   */
+  List<Song> substring(String text, int k, Collection<Set<Song>> byPopularity) {
+    String query = normalize(text);
+    if (query.isEmpty() || k <= 0) {
+      return new ArrayList<>();
+    }
+    int length = Math.min(GRAM, query.length());
+    Set<Song> rarest = null;
+    for (int i = 0; i + length <= query.length(); i++) {
+      Set<Song> songs = grams.get(query.substring(i, i + length));
+      if (songs == null) {
+        return new ArrayList<>();
+      }
+      if (rarest == null || songs.size() < rarest.size()) {
+        rarest = songs;
+      }
+    }
+    return find(List.of(rarest), rarest.size(), query, false, k, byPopularity);
+  }
+
+  // adds or removes a song under the words and pieces of a name and artist
+  private void index(String name, String artist, Song song, boolean adding) {
+    for (String field : new String[] {normalize(name), normalize(artist)}) {
+      for (int i = 0; i < field.length(); i++) {
+        if (startsWord(field, i)) {
+          update(words, field.substring(i, wordEnd(field, i)), song, adding);
+        }
+      }
+      for (int length = 1; length <= GRAM; length++) {
+        for (int i = 0; i + length <= field.length(); i++) {
+          update(grams, field.substring(i, i + length), song, adding);
+        }
+      }
+    }
+  }
+
+  private static void update(Map<String, Set<Song>> map, String key, Song song, boolean adding) {
+    if (adding) {
+      map.computeIfAbsent(key, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(song);
+      return;
+    }
+    Set<Song> songs = map.get(key);
+    if (songs != null && songs.remove(song) && songs.isEmpty()) {
+      map.remove(key);
+    }
+  }
+
+  // the k most popular matches among the songs of the candidate sets, which hold count songs and
+  // every match; many candidates are only read if scanning the library finds too few matches
+  private static List<Song> find(
+      Collection<Set<Song>> candidates,
+      long count,
+      String query,
+      boolean prefix,
+      int k,
+      Collection<Set<Song>> byPopularity) {
+    if (count > CANDIDATE_LIMIT) {
+      List<Song> found = scan(query, prefix, k, byPopularity, count);
+      if (found != null) {
+        return found;
+      }
+    }
+    if (candidates.size() == 1) {
+      return best(candidates.iterator().next(), query, prefix, k);
+    }
+    Set<Song> union = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Set<Song> songs : candidates) {
+      union.addAll(songs);
+    }
+    return best(union, query, prefix, k);
+  }
+
+  // the number of songs in the sets, or limit if there are at least that many
+  private static long count(Collection<Set<Song>> sets, long limit) {
+    long count = 0;
+    for (Set<Song> songs : sets) {
+      count += songs.size();
+      if (count >= limit) {
+        return limit;
+      }
+    }
+    return count;
+  }
+
+  // the k most popular of the candidates that match
+  private static List<Song> best(Collection<Song> candidates, String query, boolean prefix, int k) {
+    Comparator<Song> byPopularity = Comparator.comparingInt(Song::getPopularity);
+    PriorityQueue<Song> top = new PriorityQueue<>(byPopularity); // least popular on top
+    for (Song song : candidates) {
+      if (matches(song, query, prefix)) {
+        top.add(song);
+        if (top.size() > k) {
+          top.poll();
+        }
+      }
+    }
+    List<Song> best = new ArrayList<>(top);
+    best.sort(byPopularity.reversed());
+    return best;
+  }
+
+  // checks songs in decreasing popularity order until k of them match, or returns null once it
+  // has read limit songs without finding them
+  private static List<Song> scan(
+      String query, boolean prefix, int k, Collection<Set<Song>> byPopularity, long limit) {
+    List<Song> found = new ArrayList<>();
+    long read = 0;
+    for (Set<Song> bucket : byPopularity) {
+      for (Song song : bucket) {
+        if (read++ == limit) {
+          return null;
+        }
+        if (matches(song, query, prefix)) {
+          found.add(song);
+          if (found.size() == k) {
+            return found;
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  private static boolean matches(Song song, String query, boolean prefix) {
+    return matches(song.getSongName(), query, prefix) || matches(song.getArtist(), query, prefix);
+  }
+
+  // checks the field lowercased as the index and the query are: comparing in place ignoring case
+  // misses characters whose lowercase form is longer, such as the 'İ' of "İstanbul"
+  private static boolean matches(String field, String query, boolean prefix) {
+    String text = normalize(field);
+    for (int i = text.indexOf(query); i >= 0; i = text.indexOf(query, i + 1)) {
+      if (!prefix || startsWord(text, i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the index just past the word starting at index i of the text
+  private static int wordEnd(String text, int i) {
+    int end = i + 1;
+    while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) {
+      end++;
+    }
+    return end;
+  }
+
+  // true if a word starts at index i of the text
+  private static boolean startsWord(String text, int i) {
+    return Character.isLetterOrDigit(text.charAt(i))
+        && (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)));
+  }
+
+  private static String normalize(String text) {
+    return text == null ? "" : text.toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,260 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class stores songs column by column, for use by {@link PackedPlaylist}.
+ *
+ * <p>Every distinct song gets an int id. The year and popularity of song id are stored at index id
+ * of two int arrays, and its name, artist and link are stored as ids into a table of distinct
+ * strings, so a song costs five ints and no objects of its own. Songs are deduplicated the way
+ * Song.equals() compares them: two songs with the same name, artist, year and popularity get the
+ * same id, and the link of the first one is kept.
+ *
+ * <p>A table only grows; ids stay valid for as long as the table is in use. It is not safe to add
+ * songs from several threads at once.
+ */
+public class SongTable {
+  private static final int NO_STRING = -1; // string id used for null strings
+
+  // the string table, shared by names, artists and links
+  private final ArrayList<String> strings = new ArrayList<>();
+  private final HashMap<String, Integer> stringIds = new HashMap<>();
+
+  // the song columns, indexed by song id
+  int[] names = new int[16];
+  int[] artists = new int[16];
+  int[] links = new int[16];
+  int[] years = new int[16];
+  int[] popularities = new int[16];
+  private int count; // the number of songs
+
+  // open addressing hash table of song id + 1, 0 marking an empty slot
+  private int[] slots = new int[32];
+
+  /**
+   * Returns the id of a song, adding it to the table if no equal song is there yet.
+   *
+   * @param songName the name of the song
+   * @param artist the artist of the song
+   * @param year the year of the song
+   * @param popularity the popularity of the song
+   * @param link the full path of the song's audio file, as returned by Song.getLink()
+   * @return the id of the song
+   */
+  public int add(String songName, String artist, int year, int popularity, String link) {
+    int name = stringId(songName);
+    int by = stringId(artist);
+    int mask = slots.length - 1;
+    int slot = hash(name, by, year, popularity) & mask;
+    for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (names[id] == name
+          && artists[id] == by
+          && years[id] == year
+          && popularities[id] == popularity) {
+        return id;
+      }
+    }
+    if (count == names.length) {
+      int capacity = 2 * count;
+      names = Arrays.copyOf(names, capacity);
+      artists = Arrays.copyOf(artists, capacity);
+      links = Arrays.copyOf(links, capacity);
+      years = Arrays.copyOf(years, capacity);
+      popularities = Arrays.copyOf(popularities, capacity);
+    }
+    int id = count++;
+    names[id] = name;
+    artists[id] = by;
+    links[id] = stringId(link);
+    years[id] = year;
+    popularities[id] = popularity;
+    slots[slot] = id + 1;
+    if (2 * count > slots.length) {
+      rehash(2 * slots.length);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the id of a song, adding it to the table if no equal song is there yet.
+   *
+   * @param song the song
+   * @return the id of the song
+   */
+  public int add(Song song) {
+    return add(
+        song.getSongName(),
+        song.getArtist(),
+        song.getYear(),
+        song.getPopularity(),
+        song.getLink());
+  }
+
+  /**
+   * Returns the id of the song equal to the given one, without adding it.
+   *
+   * @param song the song to look for
+   * @return the id of the song, or -1 if the table has no equal song
+   */
+  public int find(Song song) {
+    int name = NO_STRING;
+    int by = NO_STRING;
+    if (song.getSongName() != null) {
+      Integer id = stringIds.get(song.getSongName());
+      if (id == null) {
+        return -1;
+      }
+      name = id;
+    }
+    if (song.getArtist() != null) {
+      Integer id = stringIds.get(song.getArtist());
+      if (id == null) {
+        return -1;
+      }
+      by = id;
+    }
+    int mask = slots.length - 1;
+    for (int slot = hash(name, by, song.getYear(), song.getPopularity()) & mask;
+        slots[slot] != 0;
+        slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (names[id] == name
+          && artists[id] == by
+          && years[id] == song.getYear()
+          && popularities[id] == song.getPopularity()) {
+        return id;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the number of songs in the table. Song ids range from 0 to size() - 1.
+   *
+   * @return the number of songs
+   */
+  public int size() {
+    return count;
+  }
+
+  /* Getter methods by song id */
+  public String getSongName(int id) {
+    return string(names[id]);
+  }
+
+  public String getArtist(int id) {
+    return string(artists[id]);
+  }
+
+  public String getLink(int id) {
+    return string(links[id]);
+  }
+
+  public int getYear(int id) {
+    return years[id];
+  }
+
+  public int getPopularity(int id) {
+    return popularities[id];
+  }
+
+  /**
+   * Creates a Song object with the values of a song of the table.
+   *
+   * @param id the id of the song
+   * @return a new Song equal to the stored one, with the same link
+   */
+  public Song toSong(int id) {
+    return Song.withPath(
+        getSongName(id), getArtist(id), getYear(id), getPopularity(id), getLink(id));
+  }
+
+  /* Orders over song ids by one column, in increasing order */
+  public IdComparator byPopularity() {
+    return (a, b) -> Integer.compare(popularities[a], popularities[b]);
+  }
+
+  public IdComparator byYear() {
+    return (a, b) -> Integer.compare(years[a], years[b]);
+  }
+
+  public IdComparator byArtist() {
+    return (a, b) -> compareStrings(artists[a], artists[b]);
+  }
+
+  public IdComparator byName() {
+    return (a, b) -> compareStrings(names[a], names[b]);
+  }
+
+  /** An order over song ids, the primitive counterpart of a Comparator of songs. */
+  public interface IdComparator {
+    int compare(int a, int b);
+
+    /** Returns the reverse of this order. */
+    default IdComparator reversed() {
+      return (a, b) -> compare(b, a);
+    }
+
+    /** Returns an order that breaks ties of this one with another. */
+    default IdComparator thenComparing(IdComparator other) {
+      return (a, b) -> {
+        int result = compare(a, b);
+        return result != 0 ? result : other.compare(a, b);
+      };
+    }
+  }
+
+  /* Access to the string table, used when writing snapshots */
+  int stringCount() {
+    return strings.size();
+  }
+
+  String string(int stringId) {
+    return stringId == NO_STRING ? null : strings.get(stringId);
+  }
+
+  // null strings sort first, like Song.BY_ARTIST and Song.BY_NAME
+  private int compareStrings(int a, int b) {
+    if (a == b) {
+      return 0;
+    }
+    if (a == NO_STRING || b == NO_STRING) {
+      return a == NO_STRING ? -1 : 1;
+    }
+    return strings.get(a).compareTo(strings.get(b));
+  }
+
+  private int stringId(String s) {
+    if (s == null) {
+      return NO_STRING;
+    }
+    Integer id = stringIds.get(s);
+    if (id == null) {
+      id = strings.size();
+      strings.add(s);
+      stringIds.put(s, id);
+    }
+    return id;
+  }
+
+  private static int hash(int name, int artist, int year, int popularity) {
+    int h = ((name * 31 + artist) * 31 + year) * 31 + popularity;
+    return h ^ (h >>> 16);
+  }
+
+  private void rehash(int capacity) {
+    slots = new int[capacity];
+    int mask = capacity - 1;
+    for (int id = 0; id < count; id++) {
+      int slot = hash(names[id], artists[id], years[id], popularities[id]) & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id + 1;
+    }
+  }
+}
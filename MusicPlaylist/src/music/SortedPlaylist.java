@@ -0,0 +1,276 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class represents a playlist that stays sorted as songs are inserted and removed.
+ *
+ * <p>A SortedPlaylist is still a circular linked list of SongNode objects, so it is played,
+ * printed, exported and walked like any other playlist. Only inserting differs: a song goes after
+ * the songs that do not sort after it, wherever it was asked to go. While the list is sorted the
+ * positional index of the playlist is ordered by the comparator as well, so the place of a new
+ * song is found by descending the index, and insert and remove keep the order in O(log n)
+ * expected time instead of sorting the playlist again after every edit.
+ *
+ * <p>Reversing the playlist reverses its order, in O(1) time as for any playlist. Code that
+ * relinks the nodes in some other order, such as a shuffle or a merge, must call {@link
+ * #resort(Comparator, boolean)} afterwards, which sorts the songs again and so only leaves songs
+ * that compare equal in their new order.
+ *
+ * <p>The view listens to the {@link KeyTracker}s of its songs, so a song whose name, artist, year
+ * or popularity changes is moved to its new place, in O(log n) expected time, before the view is
+ * next read or edited; until then it stays where it was. The order should only depend on those
+ * fields, since changes to others are not heard of.
+ */
+public class SortedPlaylist extends Playlist {
+  private final Moves moves = new Moves(); // the songs that changed, held here for the trackers
+  private Comparator<? super Song> order; // the order the songs are kept in
+
+  /*
+   * Constructor, sorts the given list in the given order
+   */
+  public SortedPlaylist(SongNode last, int size, Comparator<? super Song> order) {
+    super(last, size);
+    this.order = order;
+    PlaylistSorter.sort(this, order, false);
+    holdAll();
+  }
+
+  /*
+   * Constructor for an empty playlist kept in the given order
+   */
+  public SortedPlaylist(Comparator<? super Song> order) {
+    this(null, 0, order);
+  }
+
+  public Comparator<? super Song> getOrder() {
+    return order;
+  }
+
+  /*
+   * Sorts the songs in a new order, which later inserts keep; songs that compare equal keep their
+   * relative order
+   */
+  void resort(Comparator<? super Song> order, boolean parallel) {
+    this.order = order;
+    moves.take(); // the sort puts the songs that changed in their places as well
+    PlaylistSorter.sort(this, order, parallel);
+    holdAll();
+  }
+
+  /*
+   * Takes a new order that the songs were sorted in when their nodes were last linked, without
+   * sorting them unless a song changed since
+   */
+  void setOrder(Comparator<? super Song> order) {
+    this.order = order;
+    moves.take();
+    holdAll();
+    if (getSize() < 2) {
+      return;
+    }
+    SongNode ptr = next(tail());
+    for (int i = 1; i < getSize(); i++) {
+      SongNode next = next(ptr);
+      if (order.compare(ptr.getSong(), next.getSong()) > 0) {
+        PlaylistSorter.sort(this, order, false);
+        return;
+      }
+      ptr = next;
+    }
+  }
+
+  @Override
+  public SongNode getLast() {
+    settle();
+    return super.getLast();
+  }
+
+  @Override
+  SongNode tail() {
+    settle();
+    return super.tail();
+  }
+
+  @Override
+  SongNode nodeAt(int position) {
+    settle();
+    return super.nodeAt(position);
+  }
+
+  @Override
+  List<Song> songsFrom(int position, int count) {
+    settle();
+    return super.songsFrom(position, count);
+  }
+
+  @Override
+  int sortedPosition(Song song, Comparator<? super Song> order) {
+    settle();
+    return super.sortedPosition(song, order);
+  }
+
+  @Override
+  void insert(int position, SongNode node) {
+    moves.hold(node.getSong());
+    super.insert(position, node);
+  }
+
+  @Override
+  void remove(SongNode node) {
+    super.remove(node);
+    moves.release(node.getSong());
+  }
+
+  /**
+   * Inserts a song at its place in the order of the playlist, after the songs equal to it.
+   *
+   * @param position ignored, the order decides the position
+   * @param song the song to insert
+   * @return the new node
+   */
+  @Override
+  SongNode insert(int position, Song song) {
+    return super.insert(sortedPosition(song, order), song);
+  }
+
+  /** Reverses the songs and the order later inserts keep, in O(1) time. */
+  @Override
+  void reverse() {
+    settle();
+    super.reverse();
+    order = order.reversed();
+  }
+
+  /**
+   * Applies a batch of edits edit by edit, in O(k log n) expected time. The removals go first, so
+   * songs inserted by the batch are never removed by it, and the positions of the inserts are
+   * ignored.
+   *
+   * @param positions ignored, the order decides the positions
+   * @param inserts the songs to insert
+   * @param removals the songs to remove
+   * @return the songs removed, in the order they were removed
+   */
+  @Override
+  List<Song> apply(int[] positions, Song[] inserts, List<Song> removals) {
+    settle();
+    List<Song> removed = new ArrayList<>();
+    for (Song song : removals) {
+      SongNode node = remove(song);
+      if (node != null) {
+        removed.add(node.getSong());
+      }
+    }
+    for (Song song : inserts) {
+      insert(1, song);
+    }
+    return removed;
+  }
+
+  // moves the nodes of the songs that changed since the last use to their new places: all of them
+  // are taken out first, so that the rest is sorted when each goes back in
+  private void settle() {
+    List<Song> changed = moves.take();
+    if (changed.isEmpty()) {
+      return;
+    }
+    List<SongNode> nodes = new ArrayList<>();
+    for (Song song : changed) {
+      nodes.addAll(nodesOf(song));
+    }
+    for (SongNode node : nodes) {
+      remove(node);
+    }
+    for (SongNode node : nodes) {
+      insert(super.sortedPosition(node.getSong(), order), node);
+    }
+  }
+
+  // counts the songs of the list afresh, after it was relinked as a whole
+  private void holdAll() {
+    moves.clear();
+    SongNode ptr = super.tail();
+    for (int i = 0; i < getSize(); i++) {
+      ptr = next(ptr);
+      moves.hold(ptr.getSong());
+    }
+  }
+
+  /*
+   * Hears about changes to the songs of the view, from any thread, and keeps the ones the view
+   * holds until it is next used; a song is kept once however often it changes
+   */
+  private static final class Moves implements Song.KeyListener {
+    // tracks the songs of the view that nothing else tracks
+    private final KeyTracker tracker = new KeyTracker();
+    // the songs of the view, each with its number of nodes, guarded by this
+    private final IdentityHashMap<Song, int[]> held = new IdentityHashMap<>();
+    // the songs that changed since the view was last used, guarded by this
+    private final Set<Song> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+    // the trackers listened to, and the latest of them, which usually tracks every song
+    private final Set<KeyTracker> trackers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private KeyTracker latest;
+    private volatile boolean pending; // true while changed may hold songs, read without locking
+
+    /*
+     * Counts a node holding a song, listening to its tracker
+     */
+    void hold(Song song) {
+      KeyTracker songTracker = song.track(tracker);
+      if (songTracker != latest) {
+        if (trackers.add(songTracker)) {
+          songTracker.addListener(this);
+        }
+        latest = songTracker;
+      }
+      synchronized (this) {
+        held.computeIfAbsent(song, s -> new int[1])[0]++;
+      }
+    }
+
+    /*
+     * Records that a node holding a song left the view
+     */
+    synchronized void release(Song song) {
+      int[] count = held.get(song);
+      if (count != null && --count[0] == 0) {
+        held.remove(song);
+      }
+    }
+
+    /*
+     * Forgets the songs, before they are counted afresh
+     */
+    synchronized void clear() {
+      held.clear();
+    }
+
+    /*
+     * Returns the songs that changed since the last call, and forgets them
+     */
+    List<Song> take() {
+      if (!pending) {
+        return Collections.emptyList();
+      }
+      synchronized (this) {
+        List<Song> songs = new ArrayList<>(changed);
+        changed.clear();
+        pending = false;
+        return songs;
+      }
+    }
+
+    @Override
+    public synchronized void keyChanged(Song song, Song.Key before) {
+      if (held.containsKey(song) && changed.add(song)) {
+        pending = true;
+      }
+    }
+  }
+}
@@ -9,7 +9,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -109,6 +112,18 @@ import javax.sound.sampled.UnsupportedAudioFileException;
  * and returns them as a double array with values between –1.0 and +1.0. The second method saves the
  * samples in the specified double array to an audio file (in WAVE, AU, or AIFF format).
  *
+ * <p>To process a long file without holding all of its samples in memory, {@link #read(String,
+ * double[], SampleConsumer)} decodes it into a reused buffer and hands over one chunk at a time,
+ * and {@link #reader(String filename)} lets the caller pull the chunks instead. The first method
+ * above is built on the same chunked decoder.
+ *
+ * <p><b>Caching decoded samples.</b> Once turned on with {@link #setReadCache(long,
+ * SampleStorage)}, {@link #read(String filename)} keeps the samples of the files it decoded most
+ * recently, up to a total number of bytes, and a later read of the same file copies them instead
+ * of decoding the file again. The least recently read files are evicted first. The cache is off by
+ * default, since it only pays off for programs that read the same files again; playing a file
+ * streams it and never goes through the cache.
+ *
  * <p><b>Audio file formats.</b> {@code StdAudio} relies on the <a href =
  * "https://www.oracle.com/java/technologies/javase/jmf-211-formats.html">Java Media Framework</a>
  * for reading, writing, and playing audio files. You should be able to read or play files in WAVE,
@@ -186,6 +201,7 @@ public final class StdAudio {
   private static final int BITS_PER_SAMPLE = 16; // 16-bit audio
   private static final int MAX_16_BIT = 32768;
   private static final int SAMPLE_BUFFER_SIZE = 4096;
+  private static final int READ_CHUNK_SIZE = 4096; // samples decoded at a time by read()
   private static final int MONO = 1;
   private static final int STEREO = 2;
   private static final boolean LITTLE_ENDIAN = false;
@@ -200,6 +216,8 @@ public final class StdAudio {
   // for recording audio
   private static QueueOfDoubles recordedSamples = null;
   private static boolean isRecording = false;
+  // decoded samples of recently read files, off until setReadCache() gives it a size
+  private static final SampleCache readCache = new SampleCache(0, SampleStorage.PCM_16);
 
   private StdAudio() {
     // can not instantiate
@@ -356,57 +374,220 @@ public final class StdAudio {
    * with a sampling rate of 44,100. The sound format can be either monoaural or stereo, and the
    * bytes can be stored in either little endian or big endian order.
    *
+   * <p>If the cache has been turned on with {@link #setReadCache(long, SampleStorage)}, the
+   * samples of recently read files are cached; every call returns a new array, which the caller
+   * may modify.
+   *
    * @param filename the name of the audio file
    * @return the array of samples
    */
   public static double[] read(String filename) {
-    // 4K buffer (must be a multiple of 2 for mono or 4 for stereo)
-    int READ_BUFFER_SIZE = 4096;
-    // create AudioInputStream from file
-    AudioInputStream fromAudioInputStream = getAudioInputStreamFromFile(filename);
-    AudioFormat fromAudioFormat = fromAudioInputStream.getFormat();
-    // normalize AudioInputStream to 44,100 Hz, 16-bit audio, mono, signed
-    // PCM,
-    // little endian
-    // https://docs.oracle.com/javase/tutorial/sound/converters.html
-    AudioFormat toAudioFormat =
-        new AudioFormat((float) SAMPLE_RATE, BITS_PER_SAMPLE, MONO, SIGNED, LITTLE_ENDIAN);
-    if (!AudioSystem.isConversionSupported(toAudioFormat, fromAudioFormat)) {
-      throw new IllegalArgumentException(
-          "system cannot convert from " + fromAudioFormat + " to " + toAudioFormat);
+    double[] samples = readCache.get(filename);
+    if (samples == null) {
+      samples = decode(filename);
+      readCache.put(filename, samples);
     }
-    AudioInputStream toAudioInputStream =
-        AudioSystem.getAudioInputStream(toAudioFormat, fromAudioInputStream);
-    // extract the audio data and convert to a double[] with each sample
-    // between -1
-    // and +1
-    try {
-      QueueOfDoubles queue = new QueueOfDoubles();
-      byte[] bytes = new byte[READ_BUFFER_SIZE];
+    return samples;
+  }
+
+  /**
+   * Sets the size of the cache used by {@link #read(String filename)} and how it stores samples.
+   * The cache is off until this is called with a positive size; for example, {@code
+   * setReadCache(64L << 20, SampleStorage.PCM_16)} keeps up to 64 MiB of samples. The cache is
+   * emptied and its hit and miss counts are reset.
+   *
+   * @param maxBytes the most memory the cached samples may use, 0 to turn caching off
+   * @param storage the type the samples are stored as
+   * @throws IllegalArgumentException if {@code maxBytes} is negative or {@code storage} is {@code
+   *     null}
+   */
+  public static void setReadCache(long maxBytes, SampleStorage storage) {
+    if (maxBytes < 0) throw new IllegalArgumentException("maxBytes is negative");
+    if (storage == null) throw new IllegalArgumentException("storage is null");
+    readCache.reset(maxBytes, storage);
+  }
+
+  /** Empties the cache used by {@link #read(String filename)}. */
+  public static void clearReadCache() {
+    readCache.clear();
+  }
+
+  /**
+   * Returns the number of calls to {@link #read(String filename)} answered from the cache.
+   *
+   * @return the number of cache hits
+   */
+  public static long getReadCacheHits() {
+    return readCache.hits();
+  }
+
+  /**
+   * Returns the number of calls to {@link #read(String filename)} that had to decode the file.
+   *
+   * @return the number of cache misses
+   */
+  public static long getReadCacheMisses() {
+    return readCache.misses();
+  }
+
+  /**
+   * Returns the memory used by the samples in the cache of {@link #read(String filename)}.
+   *
+   * @return the number of bytes cached
+   */
+  public static long getReadCacheBytes() {
+    return readCache.bytes();
+  }
+
+  // decodes a whole file into samples between -1 and +1
+  private static double[] decode(String filename) {
+    try (SampleReader reader = reader(filename)) {
+      long frames = reader.getFrameLength();
+      QueueOfDoubles queue =
+          new QueueOfDoubles(frames > 0 && frames < Integer.MAX_VALUE ? (int) frames : 16);
+      double[] chunk = new double[READ_CHUNK_SIZE];
       int count;
-      while ((count = toAudioInputStream.read(bytes, 0, READ_BUFFER_SIZE)) != -1) {
-        // little endian, monoaural
-        for (int i = 0; i < count / 2; i++) {
-          double sample =
-              ((short) (((bytes[2 * i + 1] & 0xFF) << 8) | (bytes[2 * i] & 0xFF)))
-                  / ((double) MAX_16_BIT);
-          queue.enqueue(sample);
-        }
-        // little endian, stereo (perhaps, for a future version that
-        // supports stereo)
-        /*
-         * for (int i = 0; i < count/4; i++) { double left = ((short)
-         * (((bytes[4*i + 1] & 0xFF) << 8) | (bytes[4*i + 0] & 0xFF))) /
-         * ((double) MAX_16_BIT); double right = ((short) (((bytes[4*i + 3] &
-         * 0xFF) << 8) | (bytes[4*i + 2] & 0xFF))) / ((double) MAX_16_BIT);
-         * double sample = (left + right) / 2.0; queue.enqueue(sample); }
-         */
+      while ((count = reader.read(chunk)) != -1) {
+        queue.enqueue(chunk, count);
       }
-      toAudioInputStream.close();
-      fromAudioInputStream.close();
       return queue.toArray();
-    } catch (IOException ioe) {
-      throw new IllegalArgumentException("could not read '" + filename + "'", ioe);
+    }
+  }
+
+  /**
+   * Reads the audio samples of a file (in WAVE, AU, AIFF, or MIDI format) one chunk at a time,
+   * passing each chunk to a consumer. The samples are the ones {@link #read(String filename)}
+   * returns, in the same order, but only one buffer's worth is held in memory at a time, and the
+   * first chunk is delivered as soon as it has been decoded.
+   *
+   * @param filename the name of the audio file
+   * @param buffer the array the samples are decoded into, reused for every chunk
+   * @param consumer called with the buffer and the number of samples in it, which is the length of
+   *     the buffer for every chunk but the last
+   * @return the total number of samples read
+   * @throws IllegalArgumentException if unable to read {@code filename}
+   * @throws IllegalArgumentException if {@code buffer} or {@code consumer} is {@code null}, or if
+   *     {@code buffer} is empty
+   */
+  public static long read(String filename, double[] buffer, SampleConsumer consumer) {
+    if (buffer == null) throw new IllegalArgumentException("buffer is null");
+    if (buffer.length == 0) throw new IllegalArgumentException("buffer is empty");
+    if (consumer == null) throw new IllegalArgumentException("consumer is null");
+    long total = 0;
+    try (SampleReader reader = reader(filename)) {
+      int count;
+      while ((count = reader.read(buffer)) != -1) {
+        consumer.accept(buffer, count);
+        total += count;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Opens an audio file (in WAVE, AU, AIFF, or MIDI format) for reading its samples a chunk at a
+   * time. The sound format must be one {@link #read(String filename)} accepts.
+   *
+   * @param filename the name of the audio file
+   * @return a reader positioned at the first sample, to be closed when done
+   * @throws IllegalArgumentException if unable to read {@code filename}
+   */
+  public static SampleReader reader(String filename) {
+    return new SampleReader(filename);
+  }
+
+  /** Receives the chunks of samples decoded by {@link #read(String, double[], SampleConsumer)}. */
+  public interface SampleConsumer {
+    /**
+     * Processes a chunk of samples. The array is reused for the next chunk, so the samples must be
+     * copied if they are needed after this call returns.
+     *
+     * @param samples the array holding the chunk, with values between –1.0 and +1.0
+     * @param count the number of samples in the chunk, at the start of the array
+     */
+    void accept(double[] samples, int count);
+  }
+
+  /**
+   * Reads the samples of an audio file in chunks. The file is converted to 44,100 Hz, 16-bit, mono
+   * audio as it is read, so memory use depends on the size of the chunks and not on the length of
+   * the file.
+   */
+  public static final class SampleReader implements AutoCloseable {
+    private final String filename; // for error messages
+    private final AudioInputStream fromAudioInputStream; // the file, in its own format
+    private final AudioInputStream toAudioInputStream; // the file, normalized
+    private byte[] bytes = new byte[0]; // the raw bytes of the current chunk
+
+    private SampleReader(String filename) {
+      this.filename = filename;
+      // create AudioInputStream from file
+      fromAudioInputStream = getAudioInputStreamFromFile(filename);
+      AudioFormat fromAudioFormat = fromAudioInputStream.getFormat();
+      // normalize AudioInputStream to 44,100 Hz, 16-bit audio, mono, signed PCM, little endian
+      // https://docs.oracle.com/javase/tutorial/sound/converters.html
+      AudioFormat toAudioFormat =
+          new AudioFormat((float) SAMPLE_RATE, BITS_PER_SAMPLE, MONO, SIGNED, LITTLE_ENDIAN);
+      if (!AudioSystem.isConversionSupported(toAudioFormat, fromAudioFormat)) {
+        close();
+        throw new IllegalArgumentException(
+            "system cannot convert from " + fromAudioFormat + " to " + toAudioFormat);
+      }
+      toAudioInputStream = AudioSystem.getAudioInputStream(toAudioFormat, fromAudioInputStream);
+    }
+
+    /**
+     * Returns the number of samples in the file, if the file says so.
+     *
+     * @return the number of samples, or -1 if it is not known in advance
+     */
+    public long getFrameLength() {
+      return toAudioInputStream.getFrameLength();
+    }
+
+    /**
+     * Reads the next samples into an array, filling it unless the end of the file comes first.
+     *
+     * @param samples the array to fill, with values between –1.0 and +1.0
+     * @return the number of samples read, or -1 if the end of the file has been reached
+     * @throws IllegalArgumentException if unable to read the file
+     */
+    public int read(double[] samples) {
+      if (samples.length == 0) {
+        return 0;
+      }
+      if (bytes.length < 2 * samples.length) {
+        bytes = new byte[2 * samples.length];
+      }
+      int count;
+      try {
+        count = toAudioInputStream.readNBytes(bytes, 0, 2 * samples.length) / 2;
+      } catch (IOException ioe) {
+        throw new IllegalArgumentException("could not read '" + filename + "'", ioe);
+      }
+      if (count == 0) {
+        return -1;
+      }
+      // little endian, monoaural
+      for (int i = 0; i < count; i++) {
+        samples[i] =
+            ((short) (((bytes[2 * i + 1] & 0xFF) << 8) | (bytes[2 * i] & 0xFF)))
+                / ((double) MAX_16_BIT);
+      }
+      return count;
+    }
+
+    /** Closes the file. */
+    @Override
+    public void close() {
+      try {
+        if (toAudioInputStream != null) {
+          toAudioInputStream.close();
+        }
+        fromAudioInputStream.close();
+      } catch (IOException ioe) {
+        // nothing more can be done with the file
+      }
     }
   }
 
@@ -599,6 +780,151 @@ public final class StdAudio {
     }
   }
 
+  /**
+   * The ways the cache of {@link #read(String filename)} can store samples. Every sample read from
+   * a file is a 16-bit value divided by 32,768, so all three give back exactly the samples that
+   * were decoded; they differ in memory use and in the time it takes to turn them back into
+   * doubles.
+   */
+  public enum SampleStorage {
+    /** 8 bytes per sample, copied back as is. */
+    DOUBLE(8),
+    /** 4 bytes per sample. */
+    FLOAT(4),
+    /** 2 bytes per sample, as 16-bit PCM values. */
+    PCM_16(2);
+
+    private final int bytesPerSample;
+
+    SampleStorage(int bytesPerSample) {
+      this.bytesPerSample = bytesPerSample;
+    }
+  }
+
+  /***************************************************************************
+   * Least recently used cache of decoded samples, bounded by bytes.
+   ***************************************************************************/
+  private static class SampleCache {
+    // access ordered, so iteration starts at the least recently used file
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes; // the most bytes the entries may use
+    private SampleStorage storage; // how new entries are stored
+    private long bytes; // the bytes used by the entries
+    private long hits;
+    private long misses;
+
+    private static class Entry {
+      final Object samples; // a double[], float[] or short[]
+      final long bytes; // the memory used by samples
+      final long version; // identifies the contents of the file when it was read
+
+      Entry(Object samples, long bytes, long version) {
+        this.samples = samples;
+        this.bytes = bytes;
+        this.version = version;
+      }
+    }
+
+    SampleCache(long maxBytes, SampleStorage storage) {
+      this.maxBytes = maxBytes;
+      this.storage = storage;
+    }
+
+    // returns a copy of the cached samples of a file, or null if they are not cached
+    synchronized double[] get(String filename) {
+      Entry entry = entries.get(filename);
+      if (entry != null && entry.version != version(filename)) {
+        remove(filename);
+        entry = null;
+      }
+      if (entry == null) {
+        misses++;
+        return null;
+      }
+      hits++;
+      if (entry.samples instanceof double[]) {
+        return ((double[]) entry.samples).clone();
+      }
+      if (entry.samples instanceof float[]) {
+        float[] stored = (float[]) entry.samples;
+        double[] samples = new double[stored.length];
+        for (int i = 0; i < stored.length; i++) samples[i] = stored[i];
+        return samples;
+      }
+      short[] stored = (short[]) entry.samples;
+      double[] samples = new double[stored.length];
+      for (int i = 0; i < stored.length; i++) samples[i] = stored[i] / ((double) MAX_16_BIT);
+      return samples;
+    }
+
+    // caches the samples of a file, evicting the least recently read files to make room
+    synchronized void put(String filename, double[] samples) {
+      long size = (long) samples.length * storage.bytesPerSample;
+      if (size > maxBytes) {
+        return;
+      }
+      Object stored;
+      if (storage == SampleStorage.DOUBLE) {
+        stored = samples.clone();
+      } else if (storage == SampleStorage.FLOAT) {
+        float[] values = new float[samples.length];
+        for (int i = 0; i < samples.length; i++) values[i] = (float) samples[i];
+        stored = values;
+      } else {
+        short[] values = new short[samples.length];
+        for (int i = 0; i < samples.length; i++) values[i] = (short) (samples[i] * MAX_16_BIT);
+        stored = values;
+      }
+      remove(filename);
+      Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+      while (bytes + size > maxBytes) {
+        bytes -= eldest.next().getValue().bytes;
+        eldest.remove();
+      }
+      entries.put(filename, new Entry(stored, size, version(filename)));
+      bytes += size;
+    }
+
+    synchronized void reset(long maxBytes, SampleStorage storage) {
+      this.maxBytes = maxBytes;
+      this.storage = storage;
+      clear();
+      hits = 0;
+      misses = 0;
+    }
+
+    synchronized void clear() {
+      entries.clear();
+      bytes = 0;
+    }
+
+    synchronized long hits() {
+      return hits;
+    }
+
+    synchronized long misses() {
+      return misses;
+    }
+
+    synchronized long bytes() {
+      return bytes;
+    }
+
+    private void remove(String filename) {
+      Entry entry = entries.remove(filename);
+      if (entry != null) {
+        bytes -= entry.bytes;
+      }
+    }
+
+    // local files are cached along with their size and modification time, so that a file
+    // changed on disk is decoded again; other sources are assumed not to change
+    private static long version(String filename) {
+      File file = new File(filename);
+      return file.isFile() ? file.lastModified() * 31 + file.length() : 0;
+    }
+  }
+
   /***************************************************************************
    * Helper class for reading and recording audio.
    ***************************************************************************/
@@ -609,7 +935,12 @@ public final class StdAudio {
 
     // create an empty queue
     public QueueOfDoubles() {
-      a = new double[INIT_CAPACITY];
+      this(INIT_CAPACITY);
+    }
+
+    // create an empty queue with room for capacity items
+    public QueueOfDoubles(int capacity) {
+      a = new double[Math.max(capacity, 1)];
       n = 0;
     }
 
@@ -627,6 +958,13 @@ public final class StdAudio {
       a[n++] = item; // add item
     }
 
+    // enqueue the first count items of an array onto the queue
+    public void enqueue(double[] items, int count) {
+      if (n + count > a.length) resize(Math.max(2 * a.length, n + count));
+      System.arraycopy(items, 0, a, n, count);
+      n += count;
+    }
+
     // number of items in queue
     public int size() {
       return n;
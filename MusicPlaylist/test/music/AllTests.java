@@ -0,0 +1,42 @@
+package music;
+
+/**
+ * This class runs every test of the music package and exits with status 1 if any failed.
+ *
+ * <p>Usage, from the MusicPlaylist directory:
+ *
+ * <pre>
+ * javac -d bin src/music/*.java test/music/*.java
+ * java -cp bin music.AllTests
+ * </pre>
+ */
+public class AllTests {
+
+  private AllTests() {
+    // can not instantiate
+  }
+
+  /**
+   * Runs the tests.
+   *
+   * @param args not used
+   */
+  public static void main(String[] args) {
+    TestCase[] tests = {
+      new ConcurrentPlaylistLibraryTest(),
+      new PersistentPlaylistTest(),
+      new PlaylistLibraryTest(),
+      new PlaylistLibraryUndoTest(),
+      new PlaylistTest(),
+      new SongSearchTest(),
+    };
+    int failures = 0;
+    for (TestCase test : tests) {
+      failures += test.run();
+    }
+    StdOut.println(failures == 0 ? "All tests passed." : failures + " test(s) failed.");
+    if (failures > 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link ConcurrentPlaylistLibrary} under many threads at once. Every test checks that the
+ * library ends in a state some serial order of the same calls explains.
+ */
+class ConcurrentPlaylistLibraryTest extends TestCase {
+  private static final int PLAYLISTS = 16; // playlists shared by all threads
+  private static final int THREADS = 8;
+
+  /**
+   * Has writers insert and remove songs of shared playlists while a reader copies them. Each
+   * writer inserts songs only it uses, so it knows which of its removals must succeed, and at the
+   * end every playlist must hold exactly the songs the writers left in it, in step with its
+   * positional index.
+   */
+  public void testConcurrentEditsKeepEveryPlaylistConsistent() throws InterruptedException {
+    ConcurrentPlaylistLibrary library = library(PLAYLISTS);
+    // expected[p] counts, per song, how many copies playlist p should hold at the end
+    List<HashMap<Song, Integer>> expected = new ArrayList<>();
+    for (int i = 0; i < PLAYLISTS; i++) {
+      expected.add(new HashMap<>());
+    }
+    AtomicBoolean done = new AtomicBoolean();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      threads.add(
+          new Thread(
+              () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                List<HashMap<Song, Integer>> mine = new ArrayList<>();
+                for (int i = 0; i < PLAYLISTS; i++) {
+                  mine.add(new HashMap<>());
+                }
+                for (int op = 0; op < 20000; op++) {
+                  int p = random.nextInt(PLAYLISTS);
+                  // each thread has its own artist, so no other thread touches its songs
+                  Song song = new Song("song " + random.nextInt(50), "thread " + thread, 2000, 50);
+                  if (random.nextInt(3) > 0) {
+                    int position = 1 + random.nextInt(library.getSize(p) + 1);
+                    // another thread may have shrunk the playlist since it was sized
+                    if (library.insertSong(p, position, song)) {
+                      mine.get(p).merge(song, 1, Integer::sum);
+                    }
+                  } else {
+                    boolean held = mine.get(p).getOrDefault(song, 0) > 0;
+                    assertEquals(held, library.removeSong(p, song), "removeSong of " + song);
+                    if (held) {
+                      mine.get(p).merge(song, -1, Integer::sum);
+                    }
+                  }
+                }
+                synchronized (expected) {
+                  for (int i = 0; i < PLAYLISTS; i++) {
+                    for (Map.Entry<Song, Integer> e : mine.get(i).entrySet()) {
+                      expected.get(i).merge(e.getKey(), e.getValue(), Integer::sum);
+                    }
+                  }
+                }
+              }));
+    }
+    Thread reader =
+        new Thread(
+            () -> {
+              ThreadLocalRandom random = ThreadLocalRandom.current();
+              while (!done.get()) {
+                int p = random.nextInt(PLAYLISTS);
+                List<Song> songs = library.getSongs(p);
+                for (Song song : songs) {
+                  assertTrue(song != null, "a copy of playlist " + p + " holds a null song");
+                }
+                if (!songs.isEmpty()) {
+                  assertTrue(
+                      library.getSong(p, 1 + random.nextInt(songs.size())) != null
+                          || library.getSize(p) < songs.size(),
+                      "getSong found no song within the size of playlist " + p);
+                }
+              }
+            });
+    runAll(threads, reader, done);
+    for (int p = 0; p < PLAYLISTS; p++) {
+      HashMap<Song, Integer> counts = new HashMap<>();
+      List<Song> songs = library.getSongs(p);
+      assertEquals(songs.size(), library.getSize(p), "size of playlist " + p);
+      for (int position = 1; position <= songs.size(); position++) {
+        assertTrue(
+            library.getSong(p, position) == songs.get(position - 1),
+            "positional index of playlist " + p + " out of step at " + position);
+        counts.merge(songs.get(position - 1), 1, Integer::sum);
+      }
+      expected.get(p).values().removeIf(count -> count == 0);
+      assertEquals(expected.get(p), counts, "songs of playlist " + p);
+    }
+  }
+
+  /** Threads racing to remove the copies of one song remove each copy exactly once. */
+  public void testRacingRemovalsRemoveEachCopyOnce() throws InterruptedException {
+    ConcurrentPlaylistLibrary library = library(1);
+    Song song = new Song("song", "artist", 2000, 50);
+    for (int i = 0; i < 1000; i++) {
+      library.insertSong(0, 1, new Song("song", "artist", 2000, 50));
+      library.insertSong(0, 1, new Song("other " + i, "artist", 2000, 50));
+    }
+    AtomicInteger removed = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < 500; i++) {
+                  if (library.removeSong(0, song)) {
+                    removed.incrementAndGet();
+                  }
+                }
+              }));
+    }
+    runAll(threads, null, null);
+    assertEquals(1000, removed.get(), "copies removed");
+    assertEquals(1000, library.getSize(0), "songs left");
+    assertTrue(!library.getSongs(0).contains(song), "a copy of the song is left");
+  }
+
+  /** Edits that race with the removal of their playlist land before the removal or not at all. */
+  public void testEditsRacingTheRemovalOfTheirPlaylistLandBeforeIt() throws InterruptedException {
+    for (int round = 0; round < 50; round++) {
+      ConcurrentPlaylistLibrary library = library(2);
+      Playlist doomed = new Playlist();
+      library.addPlaylist(doomed, 0);
+      CountDownLatch started = new CountDownLatch(1);
+      Thread writer =
+          new Thread(
+              () -> {
+                started.countDown();
+                for (int i = 0; i < 2000; i++) {
+                  library.insertSong(0, 1, new Song("late", "writer", 2000, 50));
+                }
+              });
+      writer.start();
+      started.await();
+      assertTrue(library.removePlaylist(0), "removePlaylist");
+      // the removal took the playlist's write lock, so no insert can reach it any more
+      int sizeAtRemoval = doomed.getSize();
+      writer.join();
+      assertEquals(sizeAtRemoval, doomed.getSize(), "songs inserted after the removal");
+      assertEquals(2, library.size(), "playlists left");
+    }
+  }
+
+  private static ConcurrentPlaylistLibrary library(int playlists) {
+    ConcurrentPlaylistLibrary library = new ConcurrentPlaylistLibrary();
+    for (int i = 0; i < playlists; i++) {
+      library.addPlaylist(new Playlist(), i);
+    }
+    return library;
+  }
+
+  // starts the threads and the reader, waits for the threads, stops the reader, and rethrows the
+  // first failure of any of them
+  private static void runAll(List<Thread> threads, Thread reader, AtomicBoolean done)
+      throws InterruptedException {
+    List<Throwable> failures = new ArrayList<>();
+    Thread.UncaughtExceptionHandler handler =
+        (thread, e) -> {
+          synchronized (failures) {
+            failures.add(e);
+          }
+        };
+    if (reader != null) {
+      reader.setUncaughtExceptionHandler(handler);
+      reader.start();
+    }
+    for (Thread thread : threads) {
+      thread.setUncaughtExceptionHandler(handler);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (reader != null) {
+      done.set(true);
+      reader.join();
+    }
+    synchronized (failures) {
+      if (!failures.isEmpty()) {
+        throw new AssertionError("a thread failed", failures.get(0));
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests {@link PersistentPlaylist} against a list: every version must hold the songs the list does
+ * after the same edits, and keep holding them after later edits.
+ */
+class PersistentPlaylistTest extends TestCase {
+
+  /** Random edits, removals of equal songs among them, match the same edits on a list. */
+  public void testRandomEditsMatchAList() {
+    for (long seed = 0; seed < 20; seed++) {
+      Random random = new Random(seed);
+      PersistentPlaylist version = PersistentPlaylist.empty();
+      List<Song> model = new ArrayList<>();
+      List<PersistentPlaylist> versions = new ArrayList<>();
+      List<List<Song>> models = new ArrayList<>();
+      for (int edit = 0; edit < 500; edit++) {
+        int size = model.size();
+        switch (random.nextInt(8)) {
+          case 0:
+          case 1:
+          case 2:
+            int position = 1 + random.nextInt(size + 1);
+            Song song = song(random);
+            version = version.insert(position, song);
+            model.add(position - 1, song);
+            break;
+          case 3:
+            if (size > 0) {
+              position = 1 + random.nextInt(size);
+              version = version.remove(position);
+              model.remove(position - 1);
+            }
+            break;
+          case 4:
+          case 5:
+            song = song(random);
+            // a copy, so the song is found by its values rather than by identity
+            version = version.remove(new Song(song.getSongName(), song.getArtist(), 2000, 50));
+            model.remove(song);
+            break;
+          case 6:
+            version = version.reverse();
+            Collections.reverse(model);
+            break;
+          default:
+            long shuffle = random.nextLong();
+            version = version.shuffle(shuffle);
+            Collections.shuffle(model, new Random(shuffle)); // the same Fisher-Yates shuffle
+        }
+        assertSameSongs(model, List.of(version.toArray()), "edit " + edit + " with seed " + seed);
+        versions.add(version);
+        models.add(new ArrayList<>(model));
+      }
+      for (int i = 0; i < versions.size(); i++) {
+        assertSameSongs(models.get(i), List.of(versions.get(i).toArray()), "version " + i);
+      }
+    }
+  }
+
+  /** Inserting over and over between the same two songs runs out of labels and relabels. */
+  public void testInsertsBetweenTheSameSongsKeepTheirOrder() {
+    Song first = new Song("first", "artist", 2000, 50);
+    Song last = new Song("last", "artist", 2000, 50);
+    PersistentPlaylist version = PersistentPlaylist.of(new Song[] {first, last}).reverse();
+    List<Song> model = new ArrayList<>(List.of(last, first));
+    for (int i = 0; i < 200; i++) {
+      Song song = new Song("song " + i, "artist", 2000, 50);
+      version = version.insert(2, song);
+      model.add(1, song);
+    }
+    assertSameSongs(model, List.of(version.toArray()), "order after the inserts");
+    for (int i = 0; i < 200; i += 2) {
+      version = version.remove(new Song("song " + i, "artist", 2000, 50));
+      model.remove(new Song("song " + i, "artist", 2000, 50));
+    }
+    version = version.remove(last);
+    model.remove(last);
+    assertSameSongs(model, List.of(version.toArray()), "order after the removals");
+  }
+
+  // a song from a small set, so that versions hold equal songs more than once
+  private static Song song(Random random) {
+    return new Song("s" + random.nextInt(10), "a" + random.nextInt(2), 2000, 50);
+  }
+}
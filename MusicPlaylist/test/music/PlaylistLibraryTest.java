@@ -0,0 +1,269 @@
+package music;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests the set operations, paging and memory budget of {@link PlaylistLibrary} against lists
+ * holding the same songs.
+ */
+class PlaylistLibraryTest extends TestCase {
+
+  /** Dedupe, union, intersection and difference keep what the same operations on lists keep. */
+  public void testSetOperationsMatchLists() {
+    for (long seed = 0; seed < 20; seed++) {
+      Random random = new Random(seed);
+      for (int operation = 0; operation < 4; operation++) {
+        PlaylistLibrary library = new PlaylistLibrary(new ArrayList<>());
+        List<Song> first = songs(random);
+        List<Song> second = songs(random);
+        library.getPlaylists().add(playlist(first));
+        library.getPlaylists().add(playlist(second));
+        if (random.nextBoolean()) {
+          // the operations must read a reversed playlist in its reversed order
+          library.reversePlaylist(0);
+          Collections.reverse(first);
+        }
+        List<Song> expected = new ArrayList<>();
+        Set<Song> seen = new HashSet<>();
+        String name;
+        int removed = -1;
+        switch (operation) {
+          case 0:
+            name = "dedupe";
+            removed = library.dedupePlaylist(0);
+            for (Song song : first) {
+              if (seen.add(song)) {
+                expected.add(song);
+              }
+            }
+            break;
+          case 1:
+            name = "union";
+            library.unionPlaylists(1, 0);
+            for (Song song : concat(first, second)) {
+              if (seen.add(song)) {
+                expected.add(song);
+              }
+            }
+            break;
+          case 2:
+            name = "intersection";
+            removed = library.intersectPlaylists(0, 1);
+            for (Song song : first) {
+              if (second.contains(song) && seen.add(song)) {
+                expected.add(song);
+              }
+            }
+            break;
+          default:
+            name = "difference";
+            removed = library.subtractPlaylist(0, 1);
+            for (Song song : first) {
+              if (!second.contains(song) && seen.add(song)) {
+                expected.add(song);
+              }
+            }
+        }
+        String message = name + " with seed " + seed;
+        assertSameSongs(expected, songs(library, 0), message);
+        if (removed >= 0) {
+          assertEquals(first.size() - expected.size(), removed, message + ", songs removed");
+          assertSameSongs(second, songs(library, 1), message + ", other playlist");
+        } else {
+          assertEquals(1, library.getPlaylists().size(), message + ", playlists left");
+        }
+      }
+    }
+  }
+
+  /** Pages and runs of songs start where asked, stop at the end, and are empty past it. */
+  public void testPagesAndRunsOfSongs() {
+    List<Song> songs = songs(new Random(1));
+    PlaylistLibrary library = new PlaylistLibrary(new ArrayList<>());
+    library.getPlaylists().add(playlist(songs));
+    for (boolean reversed : new boolean[] {false, true}) {
+      int size = songs.size();
+      for (int pageSize = 1; pageSize <= size + 1; pageSize += 7) {
+        List<Song> all = new ArrayList<>();
+        for (int page = 1; page <= (size + pageSize - 1) / pageSize; page++) {
+          List<Song> songsOfPage = library.getPage(0, page, pageSize);
+          assertEquals(
+              Math.min(pageSize, size - (page - 1) * pageSize), songsOfPage.size(), "page size");
+          all.addAll(songsOfPage);
+        }
+        assertSameSongs(songs, all, "pages of " + pageSize + (reversed ? ", reversed" : ""));
+        assertTrue(library.getPage(0, size / pageSize + 2, pageSize).isEmpty(), "past the end");
+      }
+      for (int position = 1; position <= size; position += 5) {
+        assertSameSongs(
+            songs.subList(position - 1, Math.min(size, position + 9)),
+            library.getSongs(0, position, 10),
+            "songs from " + position);
+      }
+      assertTrue(library.getSongs(0, 0, 10).isEmpty(), "songs from position 0");
+      assertTrue(library.getSongs(0, size + 1, 10).isEmpty(), "songs past the end");
+      assertTrue(library.getPage(0, 0, 10).isEmpty(), "page 0");
+      assertTrue(library.getPage(0, Integer.MAX_VALUE, 10).isEmpty(), "a page beyond any int");
+      library.reversePlaylist(0);
+      Collections.reverse(songs);
+    }
+  }
+
+  /** Over budget, the playlists used least recently go back to their files, unless they changed. */
+  public void testMemoryBudgetEvictsTheLeastRecentlyUsedPlaylists() throws IOException {
+    Path directory = Files.createTempDirectory("playlists");
+    String[] filenames = new String[4];
+    try {
+      write(directory, filenames);
+      PlaylistLibrary library = new PlaylistLibrary();
+      library.addAllPlaylists(filenames);
+      library.setMemoryBudget(25);
+      assertEquals("", loaded(library), "playlists loaded before any is used");
+      assertEquals(10, library.getPlaylists().get(3).getSize(), "size of a playlist not loaded");
+      library.getSong(0, 1);
+      library.getSong(1, 1);
+      Song first = library.getSong(0, 1);
+      library.getSong(2, 1);
+      assertEquals("02", loaded(library), "after using 0, 1, 0 and 2");
+      library.insertSong(2, 1, new Song("new", "artist", 2000, 50));
+      library.getSong(3, 1);
+      library.getSong(1, 1);
+      assertEquals("12", loaded(library), "the changed playlist is kept");
+      assertTrue(library.getSong(0, 1) == first, "a playlist read again holds the same songs");
+      assertEquals("02", loaded(library), "after using 0 again");
+      library.setMemoryBudget(5);
+      assertEquals("2", loaded(library), "a changed playlist stays over the budget");
+    } finally {
+      for (String filename : filenames) {
+        if (filename != null) {
+          Files.delete(Path.of(filename));
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  /** Adding playlists opens no file: each is counted or read when first needed, if it can be. */
+  public void testAddingPlaylistsOpensNoFile() throws IOException {
+    Path directory = Files.createTempDirectory("playlists");
+    String[] filenames = new String[3];
+    for (int i = 0; i < filenames.length; i++) {
+      filenames[i] = directory.resolve(i + ".csv").toString();
+    }
+    try {
+      PlaylistLibrary library = new PlaylistLibrary();
+      library.addAllPlaylists(filenames);
+      write(directory, Arrays.copyOf(filenames, 2)); // the files appear only after they were added
+      assertEquals(10, library.getPlaylists().get(0).getSize(), "size of a file written later");
+      assertEquals("", loaded(library), "playlists loaded by counting");
+      assertEquals("song 0", library.getSong(1, 1).getSongName(), "song of a file written later");
+      assertEquals(0, library.getPlaylists().get(2).getSize(), "size of a missing file");
+      assertTrue(library.getPlaylists().get(2).getLast() == null, "songs of a missing file");
+    } finally {
+      for (String filename : filenames) {
+        Files.deleteIfExists(Path.of(filename));
+      }
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * Queries never read a playlist from its file: they find the songs of the playlists in memory,
+   * and the songs of evicted playlists leave the indexes and the pool.
+   */
+  public void testQueriesFindTheSongsOfLoadedPlaylistsOnly() throws IOException {
+    Path directory = Files.createTempDirectory("playlists");
+    String[] filenames = new String[4];
+    try {
+      write(directory, filenames);
+      PlaylistLibrary library = new PlaylistLibrary();
+      library.addAllPlaylists(filenames);
+      library.setMemoryBudget(10);
+      assertTrue(library.findSongsByArtist("artist 0").isEmpty(), "songs of a stub");
+      assertEquals("", loaded(library), "playlists loaded by a query");
+      library.getSong(0, 1);
+      assertEquals(10, library.findSongsByArtist("artist 0").size(), "songs of a loaded playlist");
+      library.getSong(1, 1);
+      assertEquals("1", loaded(library), "after using 1");
+      assertTrue(library.findSongsByArtist("artist 0").isEmpty(), "songs of an evicted playlist");
+      assertEquals(10, library.searchByPrefix("song", 100).size(), "songs found by search");
+      // reading the second playlist of the union must not evict the first part way
+      library.unionPlaylists(2, 3);
+      assertEquals("2", loaded(library), "after the union of 2 and 3");
+      assertEquals(10, library.findSongsByArtist("artist 2").size(), "songs kept by the union");
+      assertEquals(10, library.findSongsByArtist("artist 3").size(), "songs added by the union");
+      assertEquals(20, library.topSongs(100).size(), "songs in memory");
+      SongPool pool = library.getSongPool();
+      for (int i = 0; i < 100 && pool.size() > 20; i++) {
+        System.gc();
+      }
+      assertEquals(20, pool.size(), "songs left in the pool once the evicted ones are collected");
+    } finally {
+      for (String filename : filenames) {
+        if (filename != null) {
+          Files.delete(Path.of(filename));
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  // writes a file of 10 songs by "artist i" for each filename i, and fills in its name
+  private static void write(Path directory, String[] filenames) throws IOException {
+    for (int i = 0; i < filenames.length; i++) {
+      List<String> lines = new ArrayList<>();
+      for (int j = 0; j < 10; j++) {
+        lines.add("song " + j + ",artist " + i + ",2000," + j + ",song.wav");
+      }
+      filenames[i] = Files.write(directory.resolve(i + ".csv"), lines).toString();
+    }
+  }
+
+  // the indexes of the loaded playlists, in order
+  private static String loaded(PlaylistLibrary library) {
+    StringBuilder loaded = new StringBuilder();
+    for (int i = 0; i < library.getPlaylists().size(); i++) {
+      if (((LazyPlaylist) library.getPlaylists().get(i)).isLoaded()) {
+        loaded.append(i);
+      }
+    }
+    return loaded.toString();
+  }
+
+  private static List<Song> songs(PlaylistLibrary library, int playlistIndex) {
+    Playlist playlist = library.getPlaylists().get(playlistIndex);
+    return playlist.songsFrom(1, playlist.getSize());
+  }
+
+  // 30 songs from a small set, so that lists hold equal songs more than once
+  private static List<Song> songs(Random random) {
+    List<Song> songs = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      songs.add(new Song("s" + random.nextInt(20), "a", 2000, 50));
+    }
+    return songs;
+  }
+
+  private static Playlist playlist(List<Song> songs) {
+    Playlist playlist = new Playlist();
+    for (Song song : songs) {
+      playlist.insert(playlist.getSize() + 1, song);
+    }
+    return playlist;
+  }
+
+  private static List<Song> concat(List<Song> first, List<Song> second) {
+    List<Song> songs = new ArrayList<>(first);
+    songs.addAll(second);
+    return songs;
+  }
+}
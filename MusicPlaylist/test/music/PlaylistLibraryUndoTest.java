@@ -0,0 +1,190 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests undo and redo of {@link PlaylistLibrary}: every state a run of random edits goes through
+ * must come back, song for song, as the edits are undone and then redone.
+ */
+class PlaylistLibraryUndoTest extends TestCase {
+
+  /** Undoing every edit of a random run retraces its states, and redoing them replays it. */
+  public void testUndoAndRedoRetraceEveryState() {
+    for (long seed = 0; seed < 20; seed++) {
+      Random random = new Random(seed);
+      PlaylistLibrary library = library(random, 4);
+      library.setUndoLimit(1000);
+      List<List<List<Song>>> states = new ArrayList<>();
+      states.add(state(library));
+      for (int edit = 0; edit < 200; edit++) {
+        edit(library, random);
+        states.add(state(library));
+      }
+      for (int i = states.size() - 2; i >= 0; i--) {
+        assertTrue(library.undo(), "undo " + i + " with seed " + seed);
+        assertStates(states.get(i), state(library), "after undo " + i + " with seed " + seed);
+        checkIndex(library, "after undo " + i + " with seed " + seed);
+      }
+      assertTrue(!library.undo(), "undo past the first edit");
+      for (int i = 1; i < states.size(); i++) {
+        assertTrue(library.redo(), "redo " + i + " with seed " + seed);
+        assertStates(states.get(i), state(library), "after redo " + i + " with seed " + seed);
+      }
+      assertTrue(!library.redo(), "redo past the last edit");
+    }
+  }
+
+  /** A new edit forgets what there was to redo, and the limit bounds what can be undone. */
+  public void testNewEditsForgetRedoAndTheLimitHolds() {
+    PlaylistLibrary library = library(new Random(1), 1);
+    library.setUndoLimit(2);
+    for (int i = 0; i < 3; i++) {
+      library.insertSong(0, 1, new Song("new " + i, "artist", 2000, 50));
+    }
+    assertTrue(library.undo(), "first undo");
+    assertTrue(library.undo(), "second undo");
+    assertTrue(!library.undo(), "undo beyond the limit");
+    assertTrue(library.redo(), "redo");
+    library.reversePlaylist(0);
+    assertTrue(!library.redo(), "redo after a new edit");
+  }
+
+  /** The history keeps the newest edits whose nodes fit its node limit, and none too large. */
+  public void testTheNodeLimitHolds() {
+    PlaylistLibrary library = library(new Random(4), 1);
+    library.setUndoNodeLimit(100);
+    List<List<List<Song>>> states = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      states.add(state(library));
+      library.shufflePlaylist(0, i); // keeps 40 nodes
+    }
+    assertTrue(library.undo(), "undo of the last shuffle");
+    assertStates(states.get(2), state(library), "after undoing the last shuffle");
+    assertTrue(library.undo(), "undo of the second shuffle");
+    assertStates(states.get(1), state(library), "after undoing the second shuffle");
+    assertTrue(!library.undo(), "undo of a shuffle beyond the node limit");
+
+    library.insertSong(0, 1, new Song("new", "artist", 2000, 50));
+    library.setUndoNodeLimit(30);
+    List<List<Song>> before = state(library);
+    library.sortPlaylist(0);
+    assertTrue(!library.undo(), "undo of a sort too large to keep");
+    library.setUndoNodeLimit(0);
+    library.insertSong(0, 1, new Song("newer", "artist", 2000, 50));
+    assertTrue(!library.undo(), "undo with a node limit of 0");
+    assertEquals(before.get(0).size() + 1, state(library).get(0).size(), "songs after the edits");
+  }
+
+  /** Edits that can not be undone and playlists moved behind the history's back forget it. */
+  public void testUnrecordedChangesForgetTheHistory() {
+    PlaylistLibrary library = library(new Random(2), 3);
+    library.insertSong(1, 1, new Song("new", "artist", 2000, 50));
+    library.applyEdits(1, new PlaylistBatch().insert(1, new Song("batch", "artist", 2000, 50)));
+    assertTrue(!library.undo(), "undo after applyEdits");
+
+    library.mergePlaylists(0, 2);
+    library.removePlaylist(0);
+    List<List<Song>> before = state(library);
+    assertTrue(!library.undo(), "undo of a merge whose playlist was removed");
+    assertStates(before, state(library), "a failed undo changed the library");
+  }
+
+  private static PlaylistLibrary library(Random random, int playlists) {
+    ArrayList<Playlist> list = new ArrayList<>();
+    PlaylistLibrary library = new PlaylistLibrary(list);
+    for (int p = 0; p < playlists; p++) {
+      Playlist playlist = new Playlist();
+      for (int i = 0; i < 20; i++) {
+        playlist.insert(i + 1, library.getSongPool().intern(song(random)));
+      }
+      list.add(playlist);
+    }
+    library.findSongsByArtist("a0"); // builds the index, which undo must keep up to date
+    return library;
+  }
+
+  // a song from a small set, so that playlists hold equal songs more than once
+  private static Song song(Random random) {
+    return new Song("s" + random.nextInt(15), "a" + random.nextInt(3), 2000, random.nextInt(100));
+  }
+
+  private static void edit(PlaylistLibrary library, Random random) {
+    int playlists = library.getPlaylists().size();
+    int p = random.nextInt(playlists);
+    int size = library.getPlaylists().get(p).getSize();
+    switch (random.nextInt(10)) {
+      case 0:
+      case 1:
+        library.insertSong(p, 1 + random.nextInt(size + 1), song(random));
+        break;
+      case 2:
+      case 3:
+        if (!library.removeSong(p, song(random))) {
+          library.reversePlaylist(p); // keeps one edit per step
+        }
+        break;
+      case 4:
+        library.reversePlaylist(p);
+        break;
+      case 5:
+        library.shufflePlaylist(p, random.nextLong());
+        break;
+      case 6:
+        library.sortPlaylist(p, random.nextBoolean() ? Song.BY_YEAR : Song.BY_POPULARITY);
+        break;
+      case 7:
+        if (playlists > 2) {
+          library.mergePlaylists(p, (p + 1 + random.nextInt(playlists - 1)) % playlists);
+        } else {
+          library.dedupePlaylist(p);
+        }
+        break;
+      case 8:
+        if (playlists > 2) {
+          library.unionPlaylists(p, (p + 1) % playlists);
+        } else {
+          library.sortPlaylistParallel(p, Song.BY_POPULARITY);
+        }
+        break;
+      default:
+        int other = random.nextInt(playlists);
+        if (random.nextBoolean()) {
+          library.intersectPlaylists(p, other);
+        } else {
+          library.subtractPlaylist(p, other);
+        }
+    }
+  }
+
+  // the songs of every playlist, in order
+  private static List<List<Song>> state(PlaylistLibrary library) {
+    List<List<Song>> state = new ArrayList<>();
+    for (Playlist playlist : library.getPlaylists()) {
+      state.add(playlist.songsFrom(1, playlist.getSize()));
+    }
+    return state;
+  }
+
+  private static void assertStates(List<List<Song>> expected, List<List<Song>> actual, String m) {
+    assertEquals(expected.size(), actual.size(), m + ", playlists");
+    for (int p = 0; p < expected.size(); p++) {
+      assertSameSongs(expected.get(p), actual.get(p), m + ", playlist " + p);
+    }
+  }
+
+  // the index must hold exactly the songs of the playlists
+  private static void checkIndex(PlaylistLibrary library, String message) {
+    Set<Song> held = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (List<Song> songs : state(library)) {
+      held.addAll(songs);
+    }
+    Set<Song> indexed = Collections.newSetFromMap(new IdentityHashMap<>());
+    indexed.addAll(library.findSongsByPopularity(0, 100));
+    assertEquals(held, indexed, message + ", indexed songs");
+  }
+}
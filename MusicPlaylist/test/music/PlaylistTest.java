@@ -0,0 +1,271 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests {@link Playlist} against a list: after every edit the songs read in order, through the
+ * positional index and through the song index must all agree with the same edits made to the
+ * list, whether or not the playlist is reversed.
+ */
+class PlaylistTest extends TestCase {
+
+  /** Random edits and reversals keep the list, both indexes and the positions in step. */
+  public void testRandomEditsMatchAList() {
+    for (long seed = 0; seed < 20; seed++) {
+      Random random = new Random(seed);
+      Playlist playlist = new Playlist();
+      List<Song> model = new ArrayList<>();
+      for (int edit = 0; edit < 400; edit++) {
+        int size = model.size();
+        switch (random.nextInt(6)) {
+          case 0:
+          case 1:
+            int position = 1 + random.nextInt(size + 1);
+            Song song = song(random);
+            playlist.insert(position, song);
+            model.add(position - 1, song);
+            break;
+          case 2:
+            if (size > 0) {
+              position = 1 + random.nextInt(size);
+              playlist.remove(playlist.nodeAt(position));
+              model.remove(position - 1);
+            }
+            break;
+          case 3:
+            song = song(random);
+            SongNode removed = playlist.remove(song);
+            int first = model.indexOf(song);
+            assertTrue((removed == null) == (first < 0), "removal of " + song);
+            if (removed != null) {
+              assertTrue(removed.getSong() == model.remove(first), "removed the first " + song);
+            }
+            break;
+          default:
+            playlist.reverse();
+            Collections.reverse(model);
+        }
+        check(playlist, model, "edit " + edit + " with seed " + seed);
+      }
+    }
+  }
+
+  /** Songs whose values change are found by their new values and no longer by their old ones. */
+  public void testChangedSongsAreFoundByTheirNewValues() {
+    Playlist playlist = new Playlist();
+    List<Song> model = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Song song = new Song("song " + i % 5, "artist", 2000, 50);
+      playlist.insert(i + 1, song);
+      model.add(song);
+    }
+    playlist.reverse();
+    Collections.reverse(model);
+    playlist.find(model.get(0)); // builds the song index
+    Song changed = model.get(3);
+    Song old = new Song(changed.getSongName(), "artist", 2000, 50);
+    changed.setSongName("changed");
+    assertTrue(
+        playlist.find(new Song("changed", "artist", 2000, 50)).getSong() == changed,
+        "the changed song by its new name");
+    // the first song still equal to the old values comes after the changed one
+    assertTrue(
+        playlist.remove(old).getSong() == model.remove(model.indexOf(old)),
+        "the first unchanged song with the old values");
+    assertTrue(playlist.remove(changed).getSong() == changed, "removal of the changed song");
+    model.remove(changed);
+    check(playlist, model, "after the changes");
+  }
+
+  /**
+   * Songs changed several times before the index is used are found by their last values, and
+   * changes to the songs of another playlist tracked alongside them change nothing.
+   */
+  public void testSongsChangedTwiceAndSongsOfOtherPlaylists() {
+    SongPool pool = new SongPool(); // one tracker for the songs of both playlists
+    Playlist playlist = new Playlist();
+    Playlist other = new Playlist();
+    List<Song> model = new ArrayList<>();
+    List<Song> otherModel = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Song song = pool.intern(new Song("song " + i % 5, "artist", 2000, 50));
+      playlist.insert(i + 1, song);
+      model.add(song);
+      Song otherSong = pool.intern(new Song("other " + i, "artist", 2000, 50));
+      other.insert(i + 1, otherSong);
+      otherModel.add(otherSong);
+    }
+    playlist.find(model.get(0)); // builds both song indexes
+    other.find(otherModel.get(0));
+    for (Song song : otherModel) {
+      song.setPopularity(60);
+    }
+    Song changed = model.get(2);
+    changed.setSongName("once");
+    changed.setSongName("twice");
+    changed.setYear(1999);
+    assertTrue(
+        playlist.find(new Song("twice", "artist", 1999, 50)).getSong() == changed,
+        "the song changed twice by its last values");
+    assertTrue(playlist.find(new Song("once", "artist", 1999, 50)) == null, "by its middle name");
+    changed.setSongName("before the insert");
+    playlist.insert(1, changed); // goes in while the change is still queued
+    model.add(0, changed);
+    changed.setSongName("after the insert");
+    check(playlist, model, "after the changes");
+    for (int copy = 0; copy < 2; copy++) {
+      assertTrue(playlist.remove(changed) != null, "removal of copy " + copy + " of the song");
+      model.remove(changed);
+    }
+    check(playlist, model, "after removing both copies");
+    check(other, otherModel, "the other playlist after the changes");
+  }
+
+  /**
+   * A sorted view moves the songs whose popularity changed to their new places, so the songs
+   * inserted afterwards land in order as well.
+   */
+  public void testSortedViewsFollowChangedSongs() {
+    Comparator<Song> order = Song.BY_POPULARITY.reversed();
+    SortedPlaylist playlist = new SortedPlaylist(order);
+    List<Song> model = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Song song = new Song("song " + i, "artist", 2000, 5 * i);
+      playlist.insert(1, song);
+      model.add(song);
+    }
+    model.get(3).setPopularity(97); // from near the end to the front
+    model.get(18).setPopularity(12); // from near the front to the end
+    model.get(10).setYear(1990); // not part of the order
+    Song inserted = new Song("inserted", "artist", 2000, 14);
+    playlist.insert(1, inserted);
+    model.add(inserted);
+    model.sort(order);
+    check(playlist, model, "after the changes and the insert");
+    model.get(0).setPopularity(1);
+    playlist.reverse();
+    model.sort(order.reversed());
+    check(playlist, model, "reversed after another change");
+  }
+
+  /**
+   * Batches applied edit by edit through the indexes and in one pass over the list give what the
+   * same edits give on a list, forwards and reversed.
+   */
+  public void testBothWaysOfApplyingABatchMatchAList() {
+    for (long seed = 0; seed < 10; seed++) {
+      Random random = new Random(seed);
+      List<Song> songs = new ArrayList<>();
+      for (int i = 0; i < 2000; i++) {
+        songs.add(song(random));
+      }
+      for (boolean reversed : new boolean[] {false, true}) {
+        for (int edits : new int[] {10, 1000}) {
+          for (boolean indexed : new boolean[] {false, true}) {
+            if (reversed && !indexed) {
+              continue; // reversing builds the positional index
+            }
+            Playlist playlist = playlist(songs);
+            List<Song> model = new ArrayList<>(songs);
+            if (reversed) {
+              playlist.reverse();
+              Collections.reverse(model);
+            } else if (indexed) {
+              playlist.nodeAt(1);
+            }
+            assertEquals(indexed, playlist.isIndexed(), "whether the playlist is indexed");
+            int[] positions = new int[edits / 2];
+            Song[] inserts = new Song[edits / 2];
+            List<Song> removals = new ArrayList<>();
+            for (int i = 0; i < inserts.length; i++) {
+              positions[i] = 1 + random.nextInt(model.size() + 1);
+              inserts[i] = song(random);
+              removals.add(song(random));
+            }
+            String message =
+                "seed " + seed + ", " + edits + " edits" + (reversed ? ", reversed" : "");
+            List<Song> removed = new ArrayList<>();
+            apply(model, positions, inserts, removals, removed);
+            assertEquals(
+                counts(removed), counts(playlist.apply(positions, inserts, removals)), message);
+            check(playlist, model, message);
+          }
+        }
+      }
+    }
+  }
+
+  // what Playlist.apply() does, on a list: removals take the first equal songs not yet taken, and
+  // inserts go before the song that held their position
+  private static void apply(
+      List<Song> model, int[] positions, Song[] inserts, List<Song> removals, List<Song> removed) {
+    boolean[] gone = new boolean[model.size()];
+    for (Song song : removals) {
+      for (int i = 0; i < model.size(); i++) {
+        if (!gone[i] && model.get(i).equals(song)) {
+          gone[i] = true;
+          removed.add(model.get(i));
+          break;
+        }
+      }
+    }
+    List<Song> result = new ArrayList<>();
+    for (int position = 1; position <= model.size() + 1; position++) {
+      for (int i = 0; i < inserts.length; i++) {
+        if (positions[i] == position) {
+          result.add(inserts[i]);
+        }
+      }
+      if (position <= model.size() && !gone[position - 1]) {
+        result.add(model.get(position - 1));
+      }
+    }
+    model.clear();
+    model.addAll(result);
+  }
+
+  // checks the playlist against the list through every way of reading it
+  private static void check(Playlist playlist, List<Song> model, String message) {
+    assertEquals(model.size(), playlist.getSize(), message + ", size");
+    assertSameSongs(model, playlist.songsFrom(1, model.size()), message + ", songs in order");
+    for (int position = 1; position <= model.size(); position++) {
+      SongNode node = playlist.nodeAt(position);
+      assertTrue(node.getSong() == model.get(position - 1), message + ", nodeAt " + position);
+      assertEquals(position, playlist.positionOf(node), message + ", positionOf " + position);
+    }
+    for (Song song : model) {
+      assertTrue(
+          playlist.find(song).getSong() == model.get(model.indexOf(song)),
+          message + ", first " + song);
+    }
+  }
+
+  private static Playlist playlist(List<Song> songs) {
+    Playlist playlist = new Playlist();
+    for (Song song : songs) {
+      playlist.insert(playlist.getSize() + 1, song);
+    }
+    // replacing the list drops the indexes the inserts built
+    playlist.setLast(playlist.getLast());
+    return playlist;
+  }
+
+  private static Map<Song, Integer> counts(List<Song> songs) {
+    Map<Song, Integer> counts = new HashMap<>();
+    for (Song song : songs) {
+      counts.merge(song, 1, Integer::sum);
+    }
+    return counts;
+  }
+
+  // a song from a small set, so that playlists hold equal songs more than once
+  private static Song song(Random random) {
+    return new Song("s" + random.nextInt(15), "a" + random.nextInt(3), 2000, 50);
+  }
+}
@@ -0,0 +1,168 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Tests {@link SongSearch} against checking every song: a query must return the most popular of
+ * the songs that match it, whichever of its words or pieces the search narrows the songs down by.
+ */
+class SongSearchTest extends TestCase {
+  private static final String[] WORDS = {"a", "love", "you", "rock", "night", "x", "zz", "don't"};
+
+  /** Prefixes of one or more words, common and rare, find the same songs as a full check. */
+  public void testPrefixQueriesMatchAFullCheck() {
+    for (int songs : new int[] {200, 20000}) {
+      Library library = new Library(songs, new Random(songs));
+      for (String query :
+          new String[] {
+            "l", "lo", "love", "love y", "love you", "you love", "a ro", "a rock n", "don", "don't",
+            "don't r", "x zz", "zz a l", "night night", "q", "love q", " ro ", "'a"
+          }) {
+        for (int k : new int[] {1, 10, 100000}) {
+          check(library, query, true, k);
+        }
+      }
+    }
+  }
+
+  /** Substrings of one, two, three and more characters find the same songs as a full check. */
+  public void testSubstringQueriesMatchAFullCheck() {
+    for (int songs : new int[] {200, 20000}) {
+      Library library = new Library(songs, new Random(songs));
+      for (String query :
+          new String[] {"o", "ou", "you", "e yo", "ve you", "'", "t'", "zzz", "k n", "q", " "}) {
+        for (int k : new int[] {1, 10, 100000}) {
+          check(library, query, false, k);
+        }
+      }
+    }
+  }
+
+  /** A song removed under its old name is no longer found by it, and is found by its new one. */
+  public void testRemovedSongsAreNotFound() {
+    Library library = new Library(100, new Random(3));
+    Song song = library.songs.get(0);
+    library.search.remove(song.getSongName(), song.getArtist(), song);
+    song.setSongName("unheard of");
+    library.search.add(song);
+    check(library, "u", false, 100000);
+    check(library, "unheard", true, 100000);
+    assertTrue(library.search.prefix("unheard", 10, library.byPopularity).get(0) == song, "found");
+  }
+
+  /** Names holding a character whose lowercase form is longer, such as 'İ', are found. */
+  public void testCharactersThatGrowWhenLowercased() {
+    Library library = new Library(100, new Random(5));
+    // '\u0130' is the 'İ' of "İstanbul", lowercased to an 'i' followed by a combining dot above
+    Song song = new Song("\u0130stanbul", "Sezen Aksu", 1995, 100);
+    library.songs.add(song);
+    library.search.add(song);
+    library.byPopularity.add(0, Collections.newSetFromMap(new IdentityHashMap<>()));
+    library.byPopularity.get(0).add(song);
+    for (String query : new String[] {"\u0130st", "\u0130STANBUL", "i\u0307stan"}) {
+      check(library, query, true, 100000);
+      check(library, query, false, 100000);
+      assertTrue(
+          library.search.prefix(query, 1, library.byPopularity).get(0) == song, query + " found");
+    }
+    check(library, "stanbul", false, 100000);
+  }
+
+  private static void check(Library library, String query, boolean prefix, int k) {
+    String message = (prefix ? "prefix \"" : "substring \"") + query + "\" for " + k;
+    List<Song> found =
+        prefix
+            ? library.search.prefix(query, k, library.byPopularity)
+            : library.search.substring(query, k, library.byPopularity);
+    List<Song> expected = new ArrayList<>();
+    for (Song song : library.songs) {
+      if (matches(song, query, prefix)) {
+        expected.add(song);
+      }
+    }
+    expected.sort(Comparator.comparingInt(Song::getPopularity).reversed());
+    expected = expected.subList(0, Math.min(k, expected.size()));
+    assertEquals(expected.size(), found.size(), message + ", songs found");
+    for (int i = 0; i < found.size(); i++) {
+      assertTrue(matches(found.get(i), query, prefix), message + ", " + found.get(i) + " matches");
+      // songs of equal popularity may come in any order
+      assertEquals(
+          expected.get(i).getPopularity(),
+          found.get(i).getPopularity(),
+          message + ", popularity at " + i);
+    }
+    assertEquals(found.size(), distinct(found), message + ", songs found twice");
+  }
+
+  // the definition of a match, without any index
+  private static boolean matches(Song song, String query, boolean prefix) {
+    String trimmed = query.toLowerCase(Locale.ROOT);
+    if (prefix) {
+      trimmed = trimmed.trim();
+      if (trimmed.isEmpty() || !Character.isLetterOrDigit(trimmed.charAt(0))) {
+        return false;
+      }
+    }
+    for (String field : new String[] {song.getSongName(), song.getArtist()}) {
+      String text = field.toLowerCase(Locale.ROOT);
+      for (int i = text.indexOf(trimmed); i >= 0; i = text.indexOf(trimmed, i + 1)) {
+        if (!prefix || i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static int distinct(List<Song> songs) {
+    Set<Song> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+    distinct.addAll(songs);
+    return distinct.size();
+  }
+
+  /*
+   * Random songs made of a few words, indexed for search and bucketed by popularity
+   */
+  private static final class Library {
+    final List<Song> songs = new ArrayList<>();
+    final SongSearch search = new SongSearch();
+    final TreeMap<Integer, Set<Song>> buckets = new TreeMap<>(Comparator.reverseOrder());
+    final List<Set<Song>> byPopularity = new ArrayList<>();
+
+    Library(int count, Random random) {
+      for (int i = 0; i < count; i++) {
+        String name = words(random, 1 + random.nextInt(4));
+        Song song = new Song(name, words(random, 1), 2000, random.nextInt(100));
+        songs.add(song);
+        search.add(song);
+      }
+      for (Song song : songs) {
+        buckets
+            .computeIfAbsent(
+                song.getPopularity(), p -> Collections.newSetFromMap(new IdentityHashMap<>()))
+            .add(song);
+      }
+      byPopularity.addAll(buckets.values());
+    }
+
+    private static String words(Random random, int count) {
+      StringBuilder words = new StringBuilder();
+      for (int i = 0; i < count; i++) {
+        words.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        if (random.nextInt(4) == 0) {
+          words.append(WORDS[random.nextInt(WORDS.length)]); // a word that only starts with one
+        }
+      }
+      String text = words.toString();
+      return random.nextBoolean() ? text : text.toUpperCase(Locale.ROOT);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package music;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class is the base of the tests of the music package, which has no build tool and so no test
+ * library to lean on.
+ *
+ * <p>Every public method of a subclass whose name starts with "test" and that takes no arguments is
+ * a test. {@link #run()} calls them on a fresh instance each, in name order, and counts the ones
+ * that throw. The assert methods throw an AssertionError describing the mismatch, which works
+ * whether or not the JVM runs with assertions enabled.
+ *
+ * <p>The tests live in the music package so they can reach its package-private classes and
+ * methods. {@link AllTests} runs all of them.
+ */
+abstract class TestCase {
+
+  /*
+   * Runs the tests of this class, printing the name and failure of every test that fails, and
+   * returns the number of failures
+   */
+  final int run() {
+    Method[] methods = getClass().getMethods();
+    Arrays.sort(methods, Comparator.comparing(Method::getName));
+    int failures = 0;
+    for (Method method : methods) {
+      if (!method.getName().startsWith("test")
+          || method.getParameterCount() != 0
+          || Modifier.isStatic(method.getModifiers())) {
+        continue;
+      }
+      try {
+        method.invoke(getClass().getDeclaredConstructor().newInstance());
+      } catch (InvocationTargetException e) {
+        failures++;
+        StdOut.println("FAILED " + getClass().getSimpleName() + "." + method.getName());
+        e.getCause().printStackTrace(System.out);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("can not run " + method, e);
+      }
+    }
+    return failures;
+  }
+
+  static void assertTrue(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+
+  static void assertEquals(Object expected, Object actual, String message) {
+    if (!Objects.equals(expected, actual)) {
+      throw new AssertionError(message + ": expected <" + expected + "> but was <" + actual + ">");
+    }
+  }
+
+  static void assertEquals(long expected, long actual, String message) {
+    if (expected != actual) {
+      throw new AssertionError(message + ": expected <" + expected + "> but was <" + actual + ">");
+    }
+  }
+
+  // compares by identity, since equal songs may be distinct objects that must not be confused
+  static void assertSameSongs(List<Song> expected, List<Song> actual, String message) {
+    assertEquals(expected.size(), actual.size(), message + ", size");
+    for (int i = 0; i < expected.size(); i++) {
+      if (expected.get(i) != actual.get(i)) {
+        throw new AssertionError(
+            message + ": at " + (i + 1) + " expected <" + expected + "> but was <" + actual + ">");
+      }
+    }
+  }
+
+  static void assertThrows(Class<? extends Throwable> type, Runnable action, String message) {
+    try {
+      action.run();
+    } catch (Throwable e) {
+      if (type.isInstance(e)) {
+        return;
+      }
+      throw new AssertionError(message + ": threw " + e, e);
+    }
+    throw new AssertionError(message + ": nothing thrown");
+  }
+}